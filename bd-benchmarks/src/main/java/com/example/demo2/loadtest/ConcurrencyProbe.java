@@ -0,0 +1,265 @@
+package com.example.demo2.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并发容量探测：按档位一次性发起 N 个 /stream-analyze（或 /upload-image）请求，等全部结束后进入下一档。
+ * 每档输出成功/429/失败数、服务端同时执行中的分析数峰值、延迟，以及服务端线程数、堆内存和进程RSS相对本档开始时的增量，
+ * 用于比较平台线程与虚拟线程（virtual profile）两种运行方式下的最大并发和每个请求占用的内存
+ *
+ * 参数：
+ * --url       服务地址，默认 http://localhost:8080
+ * --endpoint  stream 或 upload，默认 stream
+ * --steps     各档并发数，默认 50,100,200,400,800
+ * --timeout   每档等待全部请求结束的秒数，默认 120
+ * --pid       服务端进程号，与服务端同机运行时读取 /proc/<pid>/status 的 VmRSS（线程栈不在堆内，只看堆会低估平台线程的开销）
+ * --image     上传的图片文件，默认与 LoadGenerator 相同的生成图片
+ */
+public class ConcurrencyProbe {
+
+    private static final String BOUNDARY = "----demo2-probe-boundary";
+
+    private final String baseUrl;
+    private final String endpoint;
+    private final byte[] image;
+    private final Path statusFile;
+    private final HttpClient client;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    ConcurrencyProbe(String baseUrl, String endpoint, byte[] image, String pid) {
+        this.baseUrl = baseUrl;
+        this.endpoint = endpoint;
+        this.image = image;
+        this.statusFile = pid != null ? Paths.get("/proc", pid, "status") : null;
+        // 响应体按行异步回调，不为每个请求占用一个客户端线程
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        String endpoint = options.getOrDefault("endpoint", "stream");
+        if (!endpoint.equals("stream") && !endpoint.equals("upload")) {
+            throw new IllegalArgumentException("--endpoint 只支持 stream 或 upload");
+        }
+        byte[] image = options.containsKey("image")
+                ? Files.readAllBytes(Paths.get(options.get("image")))
+                : LoadGenerator.generateImage();
+        int timeout = Integer.parseInt(options.getOrDefault("timeout", "120"));
+        ConcurrencyProbe probe = new ConcurrencyProbe(options.getOrDefault("url", "http://localhost:8080"),
+                endpoint, image, options.get("pid"));
+
+        System.out.printf("并发探测 %s /%s, 图片 %d KB%n", probe.baseUrl, endpoint, image.length / 1024);
+        System.out.printf("%6s %6s %6s %6s %8s %9s %9s %9s %9s %10s %10s%n",
+                "并发", "成功", "429", "失败", "执行中峰值", "p50(ms)", "p99(ms)", "线程峰值", "堆增量MB", "RSS增量MB", "RSS/请求KB");
+        for (String step : options.getOrDefault("steps", "50,100,200,400,800").split(",")) {
+            probe.runStep(Integer.parseInt(step.trim()), timeout);
+            // 让上一档的连接和线程回收
+            Thread.sleep(3000);
+        }
+    }
+
+    private void runStep(int concurrency, int timeoutSeconds) throws Exception {
+        Sample baseline = sample();
+        StepStats stats = new StepStats();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> stats.peak(sample()), 0, 200, TimeUnit.MILLISECONDS);
+
+        List<CompletableFuture<Void>> requests = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            requests.add(send(stats));
+        }
+        try {
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            System.out.println("等待超时，仍有 " + stats.open.get() + " 个请求未结束");
+        } catch (Exception e) {
+            // 单个请求失败已计入统计
+        }
+        sampler.shutdownNow();
+
+        List<Long> latencies = new ArrayList<>(stats.latencyNanos);
+        latencies.sort(null);
+        long rssDelta = stats.peakRssBytes.get() > 0 && baseline.rssBytes > 0 ? stats.peakRssBytes.get() - baseline.rssBytes : -1;
+        long heapDelta = stats.peakHeapBytes.get() > 0 ? stats.peakHeapBytes.get() - baseline.heapBytes : -1;
+        long peakActive = stats.peakActive.get();
+        System.out.printf("%6d %6d %6d %6d %8d %9s %9s %9d %9s %10s %10s%n",
+                concurrency, stats.ok.get(), stats.rejected.get(), stats.failed.get(), peakActive,
+                LoadGenerator.millis(LoadGenerator.percentile(latencies, 0.50)),
+                LoadGenerator.millis(LoadGenerator.percentile(latencies, 0.99)),
+                stats.peakThreads.get(),
+                heapDelta >= 0 ? String.valueOf(heapDelta / (1024 * 1024)) : "-",
+                rssDelta >= 0 ? String.valueOf(rssDelta / (1024 * 1024)) : "-",
+                rssDelta >= 0 && peakActive > 0 ? String.valueOf(rssDelta / peakActive / 1024) : "-");
+    }
+
+    private CompletableFuture<Void> send(StepStats stats) {
+        long start = System.nanoTime();
+        HttpRequest request = multipart(endpoint.equals("stream") ? "/api/ai/stream-analyze" : "/api/ai/upload-image");
+        EventCounter counter = new EventCounter();
+        stats.open.incrementAndGet();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.fromLineSubscriber(counter))
+                .handle((response, error) -> {
+                    stats.open.decrementAndGet();
+                    int status = error != null ? -1 : response.statusCode();
+                    if (status == 200 && !counter.failed) {
+                        stats.ok.incrementAndGet();
+                        stats.latencyNanos.add(System.nanoTime() - start);
+                    } else if (status == 429) {
+                        stats.rejected.incrementAndGet();
+                    } else {
+                        stats.failed.incrementAndGet();
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * 服务端当前执行中的分析数、线程数、堆内存和进程RSS，取不到时为0
+     */
+    private Sample sample() {
+        Sample sample = new Sample();
+        sample.active = get("/api/ai/executor-stats").path("data").path("activeCount").asLong();
+        sample.threads = metric("jvm.threads.live", null);
+        sample.heapBytes = metric("jvm.memory.used", "area:heap");
+        if (statusFile != null) {
+            try {
+                for (String line : Files.readAllLines(statusFile)) {
+                    if (line.startsWith("VmRSS:")) {
+                        sample.rssBytes = Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // 进程不在本机或已退出
+            }
+        }
+        return sample;
+    }
+
+    private long metric(String name, String tag) {
+        JsonNode measurements = get("/actuator/metrics/" + name + (tag != null ? "?tag=" + tag : "")).path("measurements");
+        return measurements.isEmpty() ? 0 : measurements.get(0).path("value").asLong();
+    }
+
+    private JsonNode get(String path) {
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + path))
+                    .timeout(Duration.ofSeconds(2)).GET().build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                return mapper.missingNode();
+            }
+            return mapper.readTree(response.body());
+        } catch (Exception e) {
+            return mapper.missingNode();
+        }
+    }
+
+    private HttpRequest multipart(String path) {
+        // JPEG结束标记之后的字节不影响解码，只改变内容摘要，绕过结果缓存
+        byte[] content = new byte[image.length + 16];
+        System.arraycopy(image, 0, content, 0, image.length);
+        byte[] salt = new byte[16];
+        ThreadLocalRandom.current().nextBytes(salt);
+        System.arraycopy(salt, 0, content, image.length, salt.length);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(content.length + 512);
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"question\"\r\n\r\n"
+                + "请分析这张图片\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"probe.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .timeout(Duration.ofMinutes(5))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    /**
+     * 逐行接收响应体，记录SSE中的 error 事件
+     */
+    private static class EventCounter implements Flow.Subscriber<String> {
+        private volatile boolean failed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (line.startsWith("data: ") && line.contains("\"type\":\"error\"")) {
+                failed = true;
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failed = true;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private static class Sample {
+        long active;
+        long threads;
+        long heapBytes;
+        long rssBytes;
+    }
+
+    /**
+     * 一档的统计
+     */
+    private static class StepStats {
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicLong peakActive = new AtomicLong();
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong peakThreads = new AtomicLong();
+        final AtomicLong peakHeapBytes = new AtomicLong();
+        final AtomicLong peakRssBytes = new AtomicLong();
+        final List<Long> latencyNanos = Collections.synchronizedList(new ArrayList<>());
+
+        void peak(Sample sample) {
+            peakActive.accumulateAndGet(sample.active, Math::max);
+            peakThreads.accumulateAndGet(sample.threads, Math::max);
+            peakHeapBytes.accumulateAndGet(sample.heapBytes, Math::max);
+            peakRssBytes.accumulateAndGet(sample.rssBytes, Math::max);
+        }
+    }
+}
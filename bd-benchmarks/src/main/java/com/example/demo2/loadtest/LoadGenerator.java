@@ -0,0 +1,352 @@
+package com.example.demo2.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 压测工具：按目标RPS（开环，不等待响应）请求 /upload-image、/stream-analyze 和 /history，
+ * 结束后输出各接口的p50/p99延迟、首token时间、吞吐量，以及服务端堆内存使用
+ *
+ * 参数：
+ * --url           服务地址，默认 http://localhost:8080
+ * --rps           目标每秒请求数，默认 10
+ * --duration      持续秒数，默认 60
+ * --mix           各接口权重，默认 upload=1,stream=1,history=1
+ * --image         上传的图片文件，默认生成一张 1280x960 的JPEG
+ * --same-image    每次上传同一张图片（测缓存命中）；默认在图片末尾追加随机字节，使每次摘要不同
+ * --max-in-flight 同时进行的请求上限，超出的请求计为 skipped，默认 1000
+ * --drain         结束后等待未完成请求的秒数，默认 60
+ */
+public class LoadGenerator {
+
+    private static final String BOUNDARY = "----demo2-load-boundary";
+
+    private final String baseUrl;
+    private final byte[] image;
+    private final boolean sameImage;
+    private final Semaphore inFlight;
+    private final HttpClient client;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+    private final AtomicLong heapSamples = new AtomicLong();
+    private final AtomicLong heapTotalBytes = new AtomicLong();
+    private final AtomicLong heapMaxBytes = new AtomicLong();
+
+    LoadGenerator(String baseUrl, byte[] image, boolean sameImage, int maxInFlight, ExecutorService executor) {
+        this.baseUrl = baseUrl;
+        this.image = image;
+        this.sameImage = sameImage;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.client = HttpClient.newBuilder()
+                .executor(executor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        String baseUrl = options.getOrDefault("url", "http://localhost:8080");
+        double rps = Double.parseDouble(options.getOrDefault("rps", "10"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int drain = Integer.parseInt(options.getOrDefault("drain", "60"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "1000"));
+        byte[] image = options.containsKey("image")
+                ? Files.readAllBytes(Paths.get(options.get("image")))
+                : generateImage();
+        List<String> schedule = buildSchedule(options.getOrDefault("mix", "upload=1,stream=1,history=1"));
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        LoadGenerator generator = new LoadGenerator(baseUrl, image, options.containsKey("same-image"), maxInFlight, executor);
+        for (String endpoint : schedule) {
+            generator.stats.putIfAbsent(endpoint, new EndpointStats());
+        }
+
+        System.out.printf("压测 %s: %.1f rps, %d 秒, 图片 %d KB, 接口 %s%n",
+                baseUrl, rps, duration, image.length / 1024, generator.stats.keySet());
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        AtomicLong tick = new AtomicLong();
+        long periodNanos = Math.max(1, Math.round(1_000_000_000L / rps));
+        long started = System.nanoTime();
+        scheduler.scheduleAtFixedRate(
+                () -> generator.fire(schedule.get((int) (tick.getAndIncrement() % schedule.size()))),
+                0, periodNanos, TimeUnit.NANOSECONDS);
+        scheduler.scheduleAtFixedRate(generator::sampleHeap, 0, 1, TimeUnit.SECONDS);
+
+        Thread.sleep(duration * 1000L);
+        scheduler.shutdownNow();
+        long elapsedNanos = System.nanoTime() - started;
+
+        // 等待已发出的请求完成
+        if (!generator.inFlight.tryAcquire(maxInFlight, drain, TimeUnit.SECONDS)) {
+            System.out.println("等待超时，仍有 " + (maxInFlight - generator.inFlight.availablePermits()) + " 个请求未完成");
+        }
+        generator.report(elapsedNanos);
+        executor.shutdownNow();
+    }
+
+    private void fire(String endpoint) {
+        EndpointStats endpointStats = stats.get(endpoint);
+        if (!inFlight.tryAcquire()) {
+            endpointStats.skipped.incrementAndGet();
+            return;
+        }
+        endpointStats.sent.incrementAndGet();
+        long start = System.nanoTime();
+        switch (endpoint) {
+            case "upload" -> client.sendAsync(multipart("/api/ai/upload-image"), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, error) -> {
+                        endpointStats.finish(start, error == null ? response.statusCode() : -1);
+                        inFlight.release();
+                    });
+            case "stream" -> client.sendAsync(multipart("/api/ai/stream-analyze"), HttpResponse.BodyHandlers.ofLines())
+                    .thenApply(response -> readStream(response, start, endpointStats))
+                    .whenComplete((status, error) -> {
+                        endpointStats.finish(start, error == null ? status : -1);
+                        inFlight.release();
+                    });
+            case "history" -> client.sendAsync(HttpRequest.newBuilder(URI.create(baseUrl + "/api/ai/history?limit=20")).GET().build(),
+                            HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, error) -> {
+                        endpointStats.finish(start, error == null ? response.statusCode() : -1);
+                        inFlight.release();
+                    });
+            default -> throw new IllegalArgumentException("未知接口: " + endpoint);
+        }
+    }
+
+    /**
+     * 逐行读取SSE，"AI分析结果："之后的第一个 stream 事件即为首token
+     * @return HTTP状态码，收到 error 事件时返回 -1
+     */
+    private static int readStream(HttpResponse<Stream<String>> response, long start, EndpointStats endpointStats) {
+        if (response.statusCode() != 200) {
+            response.body().close();
+            return response.statusCode();
+        }
+        boolean headerSeen = false;
+        boolean firstToken = true;
+        boolean failed = false;
+        try (Stream<String> lines = response.body()) {
+            for (String line : (Iterable<String>) lines::iterator) {
+                if (!line.startsWith("data: ")) {
+                    continue;
+                }
+                if (line.contains("\"type\":\"error\"")) {
+                    failed = true;
+                } else if (line.contains("\"type\":\"stream\"")) {
+                    if (headerSeen && firstToken) {
+                        firstToken = false;
+                        endpointStats.ttftNanos.add(System.nanoTime() - start);
+                    }
+                    if (line.contains("AI分析结果：")) {
+                        headerSeen = true;
+                    }
+                }
+            }
+        }
+        return failed ? -1 : 200;
+    }
+
+    private HttpRequest multipart(String path) {
+        byte[] content = image;
+        if (!sameImage) {
+            // JPEG结束标记之后的字节不影响解码，只改变内容摘要
+            content = new byte[image.length + 16];
+            System.arraycopy(image, 0, content, 0, image.length);
+            byte[] salt = new byte[16];
+            ThreadLocalRandom.current().nextBytes(salt);
+            System.arraycopy(salt, 0, content, image.length, salt.length);
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(content.length + 512);
+        write(body, "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"question\"\r\n\r\n"
+                + "请分析这张图片\r\n");
+        write(body, "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"load.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n");
+        body.writeBytes(content);
+        write(body, "\r\n--" + BOUNDARY + "--\r\n");
+
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    /**
+     * 通过 Actuator 采样服务端堆内存使用
+     */
+    private void sampleHeap() {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/metrics/jvm.memory.used?tag=area:heap"))
+                    .timeout(Duration.ofSeconds(2))
+                    .GET()
+                    .build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                return;
+            }
+            JsonNode measurements = mapper.readTree(response.body()).path("measurements");
+            long used = measurements.isEmpty() ? 0 : measurements.get(0).path("value").asLong();
+            heapSamples.incrementAndGet();
+            heapTotalBytes.addAndGet(used);
+            heapMaxBytes.accumulateAndGet(used, Math::max);
+        } catch (Exception e) {
+            // 采样失败不影响压测
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("%-8s %7s %7s %7s %7s %7s %9s %9s %9s %10s %10s%n",
+                "接口", "发送", "成功", "失败", "429", "跳过", "吞吐/s", "p50(ms)", "p99(ms)", "TTFT p50", "TTFT p99");
+        for (Map.Entry<String, EndpointStats> entry : stats.entrySet()) {
+            EndpointStats s = entry.getValue();
+            List<Long> latencies = s.sorted(s.latencyNanos);
+            List<Long> ttft = s.sorted(s.ttftNanos);
+            System.out.printf("%-8s %7d %7d %7d %7d %7d %9.1f %9s %9s %10s %10s%n",
+                    entry.getKey(), s.sent.get(), s.ok.get(), s.failed.get(), s.rejected.get(), s.skipped.get(),
+                    s.ok.get() / seconds,
+                    millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)),
+                    millis(percentile(ttft, 0.50)), millis(percentile(ttft, 0.99)));
+        }
+        long samples = heapSamples.get();
+        if (samples > 0) {
+            System.out.printf("%n服务端堆内存: 平均 %d MB, 峰值 %d MB（%d 次采样）%n",
+                    heapTotalBytes.get() / samples / (1024 * 1024), heapMaxBytes.get() / (1024 * 1024), samples);
+        } else {
+            System.out.println("\n未能采样服务端堆内存，请确认 /actuator/metrics 已开放");
+        }
+    }
+
+    static Long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return null;
+        }
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    static String millis(Long nanos) {
+        return nanos == null ? "-" : String.valueOf(nanos / 1_000_000);
+    }
+
+    /**
+     * 按权重展开为轮转顺序，例如 upload=1,history=2 -> [upload, history, history]
+     */
+    private static List<String> buildSchedule(String mix) {
+        List<String> schedule = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                schedule.add(kv[0].trim());
+            }
+        }
+        if (schedule.isEmpty()) {
+            throw new IllegalArgumentException("--mix 至少需要一个接口");
+        }
+        return schedule;
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("无法识别的参数: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    static byte[] generateImage() throws IOException {
+        BufferedImage generated = new BufferedImage(1280, 960, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = generated.createGraphics();
+        try {
+            g.setPaint(new GradientPaint(0, 0, Color.ORANGE, 1280, 960, Color.BLUE));
+            g.fillRect(0, 0, 1280, 960);
+        } finally {
+            g.dispose();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(generated, "jpeg", out);
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 单个接口的统计
+     */
+    private static class EndpointStats {
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        final List<Long> latencyNanos = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> ttftNanos = Collections.synchronizedList(new ArrayList<>());
+
+        void finish(long start, int status) {
+            long elapsed = System.nanoTime() - start;
+            if (status == 200) {
+                ok.incrementAndGet();
+                latencyNanos.add(elapsed);
+            } else if (status == 429) {
+                rejected.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+        }
+
+        List<Long> sorted(List<Long> values) {
+            List<Long> copy;
+            synchronized (values) {
+                copy = new ArrayList<>(values);
+            }
+            copy.sort(null);
+            return copy;
+        }
+    }
+}
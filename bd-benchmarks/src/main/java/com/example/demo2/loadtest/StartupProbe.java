@@ -0,0 +1,193 @@
+package com.example.demo2.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 启动耗时探测：多次启动服务端进程，测量从启动进程到第一个请求返回200的时间和此时的进程RSS，输出中位数和范围
+ * 服务端命令写在 -- 之后，必须直接启动 java（不经过 shell），进程号才是JVM本身
+ *
+ * 参数：
+ * --url      服务地址，默认 http://localhost:8080
+ * --path     第一个请求的路径，默认 /actuator/health/readiness（ApplicationReadyEvent 处理完之后才返回200）
+ * --runs     计入统计的启动次数，默认 5；之前另启动一次预热文件缓存，不计入统计
+ * --timeout  每次等待返回200的秒数，默认 120
+ * --settle   返回200之后再等待的秒数，之后再读一次RSS（包括后台的数据库初始化），默认 5
+ * --log      服务端输出文件，默认 target/startup-probe.log
+ *
+ * 例: java -cp target/benchmarks.jar com.example.demo2.loadtest.StartupProbe -- \
+ *         java -jar ../bd/target/demo2-0.0.1-SNAPSHOT-exec.jar --spring.profiles.active=stub
+ */
+public class StartupProbe {
+
+    // Spring Boot 启动完成时打印的日志
+    private static final Pattern STARTED = Pattern.compile("Started \\S+ in ([0-9.]+) seconds");
+
+    private final URI uri;
+    private final List<String> command;
+    private final Path logFile;
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(200))
+            .build();
+
+    StartupProbe(URI uri, List<String> command, Path logFile) {
+        this.uri = uri;
+        this.command = command;
+        this.logFile = logFile;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int separator = Arrays.asList(args).indexOf("--");
+        if (separator < 0 || separator == args.length - 1) {
+            throw new IllegalArgumentException("服务端启动命令写在 -- 之后");
+        }
+        Map<String, String> options = LoadGenerator.parseArgs(Arrays.copyOfRange(args, 0, separator));
+        List<String> command = Arrays.asList(Arrays.copyOfRange(args, separator + 1, args.length));
+        int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        int timeout = Integer.parseInt(options.getOrDefault("timeout", "120"));
+        int settle = Integer.parseInt(options.getOrDefault("settle", "5"));
+        StartupProbe probe = new StartupProbe(
+                URI.create(options.getOrDefault("url", "http://localhost:8080")
+                        + options.getOrDefault("path", "/actuator/health/readiness")),
+                command, Paths.get(options.getOrDefault("log", "target/startup-probe.log")));
+
+        System.out.println("启动耗时探测 " + probe.uri + ", 命令: " + String.join(" ", command));
+        System.out.printf("%4s %14s %14s %10s %12s%n", "次数", "首个请求(ms)", "Spring启动(ms)", "RSS(MB)", "稳定后RSS(MB)");
+        List<Long> firstRequest = new ArrayList<>();
+        List<Long> springStarted = new ArrayList<>();
+        List<Long> rss = new ArrayList<>();
+        List<Long> settledRss = new ArrayList<>();
+        for (int i = 0; i <= runs; i++) {
+            Run run = probe.run(timeout, settle);
+            System.out.printf("%4s %14s %14s %10s %12s%n", i == 0 ? "预热" : String.valueOf(i),
+                    LoadGenerator.millis(run.firstRequestNanos), LoadGenerator.millis(run.springStartedNanos),
+                    megabytes(run.rssBytes), megabytes(run.settledRssBytes));
+            if (i == 0 || run.firstRequestNanos == null) {
+                continue;
+            }
+            firstRequest.add(run.firstRequestNanos);
+            if (run.springStartedNanos != null) {
+                springStarted.add(run.springStartedNanos);
+            }
+            if (run.rssBytes != null) {
+                rss.add(run.rssBytes);
+            }
+            if (run.settledRssBytes != null) {
+                settledRss.add(run.settledRssBytes);
+            }
+        }
+        System.out.printf("%-14s %10s %10s %10s%n", "", "中位数", "最小", "最大");
+        summary("首个请求(ms)", firstRequest, 1_000_000);
+        summary("Spring启动(ms)", springStarted, 1_000_000);
+        summary("RSS(MB)", rss, 1024 * 1024);
+        summary("稳定后RSS(MB)", settledRss, 1024 * 1024);
+    }
+
+    private Run run(int timeoutSeconds, int settleSeconds) throws Exception {
+        Files.createDirectories(logFile.toAbsolutePath().getParent());
+        Run run = new Run();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile.toFile())
+                .start();
+        try {
+            long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            while (System.nanoTime() < deadline && process.isAlive()) {
+                if (ok()) {
+                    run.firstRequestNanos = System.nanoTime() - start;
+                    break;
+                }
+                Thread.sleep(10);
+            }
+            if (run.firstRequestNanos == null) {
+                System.out.println(process.isAlive() ? "等待超时" : "服务端已退出，输出见 " + logFile);
+                return run;
+            }
+            run.rssBytes = rss(process.pid());
+            Thread.sleep(TimeUnit.SECONDS.toMillis(settleSeconds));
+            run.settledRssBytes = rss(process.pid());
+            run.springStartedNanos = springStarted();
+            return run;
+        } finally {
+            process.descendants().forEach(ProcessHandle::destroy);
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private boolean ok() {
+        try {
+            HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofSeconds(1)).GET().build(), HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() == 200;
+        } catch (IOException e) {
+            // 端口尚未监听
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 日志中 Spring Boot 报告的启动耗时，未找到时返回null
+     */
+    private Long springStarted() throws IOException {
+        Matcher matcher = STARTED.matcher(Files.readString(logFile));
+        return matcher.find() ? Math.round(Double.parseDouble(matcher.group(1)) * 1_000_000_000L) : null;
+    }
+
+    /**
+     * 读取 /proc/<pid>/status 的 VmRSS，非Linux系统返回null
+     */
+    private static Long rss(long pid) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", String.valueOf(pid), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // 非Linux或进程已退出
+        }
+        return null;
+    }
+
+    private static void summary(String name, List<Long> values, long unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        System.out.printf("%-14s %10d %10d %10d%n", name,
+                LoadGenerator.percentile(sorted, 0.5) / unit, sorted.get(0) / unit, sorted.get(sorted.size() - 1) / unit);
+    }
+
+    private static String megabytes(Long bytes) {
+        return bytes == null ? "-" : String.valueOf(bytes / (1024 * 1024));
+    }
+
+    private static class Run {
+        Long firstRequestNanos;
+        Long springStartedNanos;
+        Long rssBytes;
+        Long settledRssBytes;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.demo2.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 基准测试入口
+ * 始终启用GC分析器（分配速率），结果写入 target/jmh-result.json，
+ * 并与基线文件逐项对比耗时和每次操作的分配量
+ *
+ * 系统属性：
+ * baseline.file        基线文件，默认 baseline/jmh-baseline.json
+ * baseline.threshold   判定为回退的增幅，默认 0.10
+ * baseline.update      为 true 时用本次结果覆盖基线
+ * baseline.failOnRegression 为 true 时出现回退以退出码1结束
+ */
+public class BenchmarkRunner {
+
+    private static final String RESULT_FILE = "target/jmh-result.json";
+
+    private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws Exception {
+        Path result = Paths.get(RESULT_FILE);
+        Files.createDirectories(result.getParent());
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.toString())
+                .build();
+        new Runner(options).run();
+
+        Path baseline = Paths.get(System.getProperty("baseline.file", "baseline/jmh-baseline.json"));
+        if (Boolean.getBoolean("baseline.update")) {
+            Files.createDirectories(baseline.toAbsolutePath().getParent());
+            Files.copy(result, baseline, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("基线已更新: " + baseline);
+            return;
+        }
+        if (!Files.exists(baseline)) {
+            System.out.println("未找到基线文件 " + baseline + "，使用 -Dbaseline.update=true 生成");
+            return;
+        }
+
+        double threshold = Double.parseDouble(System.getProperty("baseline.threshold", "0.10"));
+        int regressions = compare(baseline, result, threshold);
+        if (regressions > 0 && Boolean.getBoolean("baseline.failOnRegression")) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 打印与基线的对比，返回回退的项数
+     */
+    static int compare(Path baselineFile, Path resultFile, double threshold) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, JsonNode> baseline = index(mapper.readTree(baselineFile.toFile()));
+        Map<String, JsonNode> current = index(mapper.readTree(resultFile.toFile()));
+
+        int regressions = 0;
+        System.out.println();
+        System.out.println("与基线对比 (" + baselineFile + ", 阈值 " + Math.round(threshold * 100) + "%)");
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println("  [新增] " + entry.getKey());
+                continue;
+            }
+            double timeChange = change(score(before), score(entry.getValue()));
+            double allocChange = change(allocation(before), allocation(entry.getValue()));
+            boolean regressed = timeChange > threshold || allocChange > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("  %s %s 耗时 %+.1f%%, 分配/op %+.1f%%%n",
+                    regressed ? "[回退]" : "[正常]", entry.getKey(), timeChange * 100, allocChange * 100);
+        }
+        return regressions;
+    }
+
+    private static Map<String, JsonNode> index(JsonNode results) {
+        Map<String, JsonNode> byKey = new LinkedHashMap<>();
+        for (JsonNode run : results) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+            Iterator<Map.Entry<String, JsonNode>> params = run.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            byKey.put(key.toString(), run);
+        }
+        return byKey;
+    }
+
+    private static double score(JsonNode run) {
+        return run.path("primaryMetric").path("score").asDouble();
+    }
+
+    private static double allocation(JsonNode run) {
+        // 不同JMH版本的指标名可能带有前缀
+        Iterator<Map.Entry<String, JsonNode>> metrics = run.path("secondaryMetrics").fields();
+        while (metrics.hasNext()) {
+            Map.Entry<String, JsonNode> metric = metrics.next();
+            if (metric.getKey().endsWith(ALLOC_METRIC)) {
+                return metric.getValue().path("score").asDouble();
+            }
+        }
+        return 0;
+    }
+
+    private static double change(double before, double after) {
+        return before > 0 ? (after - before) / before : 0;
+    }
+}
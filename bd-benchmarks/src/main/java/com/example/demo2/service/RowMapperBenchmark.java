@@ -0,0 +1,103 @@
+package com.example.demo2.service;
+
+import com.example.demo2.entity.ImageRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.RowMapper;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImageRecordService 的 RowMapper 映射开销
+ * 结果集由JDK的 CachedRowSet 在内存中提供，不含驱动和网络
+ * fullRecords: 旧版 /history 使用的完整记录映射（含 result_text）
+ * summaries: 当前分页接口使用的摘要映射（result_preview）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMapperBenchmark {
+
+    private static final int PREVIEW_LENGTH = 100;
+
+    @Param({"20", "100"})
+    private int rows;
+
+    @Param({"500", "8000"})
+    private int resultChars;
+
+    private final ImageRecordService service = new ImageRecordService();
+    private CachedRowSet resultSet;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+        meta.setColumnCount(6);
+        meta.setColumnName(1, "id");
+        meta.setColumnType(1, Types.INTEGER);
+        meta.setColumnName(2, "image_path");
+        meta.setColumnType(2, Types.VARCHAR);
+        meta.setColumnName(3, "result_text");
+        meta.setColumnType(3, Types.LONGVARCHAR);
+        meta.setColumnName(4, "result_preview");
+        meta.setColumnType(4, Types.VARCHAR);
+        meta.setColumnName(5, "created_at");
+        meta.setColumnType(5, Types.TIMESTAMP);
+        meta.setColumnName(6, "reused_from");
+        meta.setColumnType(6, Types.CHAR);
+
+        resultSet = RowSetProvider.newFactory().createCachedRowSet();
+        resultSet.setMetaData(meta);
+        String resultText = "这是一段图片分析结果。".repeat(resultChars / 11 + 1).substring(0, resultChars);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < rows; i++) {
+            resultSet.moveToInsertRow();
+            resultSet.updateInt(1, i + 1);
+            resultSet.updateString(2, "upload_" + i + ".jpg");
+            resultSet.updateString(3, resultText);
+            resultSet.updateString(4, resultText.substring(0, Math.min(PREVIEW_LENGTH, resultText.length())));
+            resultSet.updateTimestamp(5, new Timestamp(now - i * 1000L));
+            resultSet.updateNull(6);
+            resultSet.insertRow();
+            resultSet.moveToCurrentRow();
+        }
+    }
+
+    @Benchmark
+    public void fullRecords(Blackhole bh) throws SQLException {
+        map(service.rowMapper, bh);
+    }
+
+    @Benchmark
+    public void summaries(Blackhole bh) throws SQLException {
+        map(service.summaryRowMapper, bh);
+    }
+
+    private void map(RowMapper<ImageRecord> mapper, Blackhole bh) throws SQLException {
+        resultSet.beforeFirst();
+        int rowNum = 0;
+        while (resultSet.next()) {
+            bh.consume(mapper.mapRow(resultSet, rowNum++));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.demo2.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次流式回答的SSE帧构建开销（不含网络写出）
+ * legacy: 旧版 streamQwenResponse 按句号正则切分，每句两次 replace
+ * deltas: 当前按模型增量输出，经 SseEventWriter 逐段编码 stream 事件，最后发送 result 事件
+ * deltasWithoutFullResult: 同上，result 事件不重复携带全文（ai.sse.include-full-result=false）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseFramingBenchmark {
+
+    // 增量输出时每段的大致字符数
+    private static final int DELTA_CHARS = 12;
+
+    private static final String[] FRAGMENTS = {
+            "图片中是一只橘色的猫", "趴在木质窗台上", "背景是\"晴朗的\"天空",
+            "光线从左侧照射进来", "猫的眼睛半闭着", "整体色调温暖\n", "画面构图简洁",
+            "可以看到窗框上有少许灰尘", "左下角有一盆绿植"
+    };
+
+    private static final String[] PUNCTUATION = {"，", "。", "！", "？", "；"};
+
+    @Param({"2000", "20000"})
+    private int answerChars;
+
+    private String answer;
+    private List<String> deltas;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(answerChars + 32);
+        while (sb.length() < answerChars) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            sb.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+        }
+        answer = sb.toString();
+
+        deltas = new ArrayList<>();
+        for (int i = 0; i < answer.length(); i += DELTA_CHARS) {
+            deltas.add(answer.substring(i, Math.min(answer.length(), i + DELTA_CHARS)));
+        }
+    }
+
+    @Benchmark
+    public void legacySentenceSplit(Blackhole bh) {
+        String[] sentences = answer.split("(?<=[。！？；])");
+        for (int i = 0; i < sentences.length; i++) {
+            String sentence = sentences[i].trim();
+            if (!sentence.isEmpty()) {
+                bh.consume("data: {\"type\":\"stream\",\"content\":\"" +
+                           sentence.replace("\"", "\\\"").replace("\n", "\\n") + "\"}\n\n");
+            }
+        }
+        bh.consume("data: {\"type\":\"result\",\"stage\":\"complete\",\"message\":\"分析完成\",\"progress\":100,\"result\":\"" +
+                   answer.replace("\"", "\\\"").replace("\n", "\\n") + "\"}\n\n");
+    }
+
+    @Benchmark
+    public void deltas(Blackhole bh) throws IOException {
+        SseEventWriter events = new SseEventWriter(new DiscardingEmitter(bh));
+        for (String delta : deltas) {
+            events.stream(delta);
+        }
+        events.result(answer);
+    }
+
+    @Benchmark
+    public void deltasWithoutFullResult(Blackhole bh) throws IOException {
+        SseEventWriter events = new SseEventWriter(new DiscardingEmitter(bh));
+        for (String delta : deltas) {
+            events.stream(delta);
+        }
+        events.result(null);
+    }
+
+    /**
+     * 只接收编码好的帧，不写出
+     */
+    private static class DiscardingEmitter extends ResponseBodyEmitter {
+        private final Blackhole bh;
+
+        DiscardingEmitter(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public synchronized void send(Object object, MediaType mediaType) {
+            bh.consume(object);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.demo2.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 上传图片进入分析前的处理开销
+ * legacy: 旧版 AiController 中 getBytes() + Base64 data URL
+ * spool: 当前的 ImageSpooler，边复制边计算摘要（包含写临时文件的磁盘I/O）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class UploadEncodingBenchmark {
+
+    @Param({"102400", "1048576", "10485760"})
+    private int sizeBytes;
+
+    private MultipartFile file;
+    private ImageSpooler spooler;
+    private Path spoolDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] content = new byte[sizeBytes];
+        new Random(42).nextBytes(content);
+        file = new InMemoryMultipartFile("photo.jpg", "image/jpeg", content);
+
+        spoolDir = Files.createTempDirectory("bench-spool");
+        spooler = new ImageSpooler();
+        ReflectionTestUtils.setField(spooler, "spoolDir", spoolDir.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(spoolDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public String legacyBase64DataUrl() throws IOException {
+        byte[] imageBytes = file.getBytes();
+        return "data:" + file.getContentType() + ";base64," +
+               Base64.getEncoder().encodeToString(imageBytes);
+    }
+
+    @Benchmark
+    public String spool() throws IOException {
+        try (SpooledImage image = spooler.spool(file)) {
+            return image.getDigest();
+        }
+    }
+}
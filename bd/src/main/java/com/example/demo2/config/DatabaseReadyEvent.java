@@ -0,0 +1,23 @@
+package com.example.demo2.config;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 数据库结构初始化结束（无论成功与否）后发布，需要读取数据库的启动任务监听此事件而不是 ApplicationReadyEvent
+ */
+public class DatabaseReadyEvent extends ApplicationEvent {
+
+    private final boolean schemaInitialized;
+
+    public DatabaseReadyEvent(Object source, boolean schemaInitialized) {
+        super(source);
+        this.schemaInitialized = schemaInitialized;
+    }
+
+    /**
+     * 数据库结构是否初始化成功，数据库不可用时为false
+     */
+    public boolean isSchemaInitialized() {
+        return schemaInitialized;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.demo2.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 启动时补齐 image_records 表所需的列、索引和全文索引，并创建 analysis_jobs 表，完成后发布 DatabaseReadyEvent
+ * 默认在后台线程执行：建立第一个数据库连接、创建索引以及之后的分析任务恢复和相似图片索引重建都不推迟服务就绪
+ * 每一步单独执行，某一步失败（如 MySQL 不支持 ngram 全文索引）只打印错误，其余步骤照常执行；数据库不可用时不影响服务启动
+ */
+@Component
+public class DatabaseSchemaInitializer {
+
+    @Value("${ai.startup.async-database-init:true}")
+    private boolean asyncInit;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * ai.startup.async-database-init=false 时在启动线程上执行，服务就绪前完成
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!asyncInit) {
+            initializeAndPublish();
+            return;
+        }
+        Thread thread = new Thread(this::initializeAndPublish, "database-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void initializeAndPublish() {
+        long start = System.nanoTime();
+        boolean initialized = initialize();
+        if (initialized) {
+            System.out.println("数据库结构初始化完成，耗时 " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+        // 监听器在本线程上依次执行
+        eventPublisher.publishEvent(new DatabaseReadyEvent(this, initialized));
+    }
+
+    /**
+     * @return 是否全部成功，任一步失败或数据库不可用时返回false
+     */
+    boolean initialize() {
+        boolean ok = true;
+        ok &= step("image_records.cache_key", () -> addColumnIfMissing("image_records", "cache_key", "CHAR(64) NULL"));
+        ok &= step("idx_image_records_cache_key", () -> addIndexIfMissing("image_records", "idx_image_records_cache_key", "(cache_key)"));
+        // 相似图片检测，启动时按这两列重建内存索引
+        ok &= step("image_records.phash", () -> addColumnIfMissing("image_records", "phash", "BIGINT NULL"));
+        ok &= step("image_records.question_key", () -> addColumnIfMissing("image_records", "question_key", "CHAR(64) NULL"));
+        ok &= step("image_records.reused_from", () -> addColumnIfMissing("image_records", "reused_from", "CHAR(64) NULL"));
+        // 历史记录游标分页
+        ok &= step("idx_image_records_created_at_id", () -> addIndexIfMissing("image_records", "idx_image_records_created_at_id", "(created_at, id)"));
+        // 历史记录全文检索，ngram 分词支持中文；首次在大表上创建会比较慢
+        ok &= step("ft_image_records_result_text", () -> addFullTextIndexIfMissing("image_records", "ft_image_records_result_text", "(result_text)"));
+        // 异步分析任务
+        ok &= step("analysis_jobs", () -> jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS analysis_jobs ("
+                + "id CHAR(32) NOT NULL PRIMARY KEY, "
+                + "status VARCHAR(16) NOT NULL, "
+                + "image_digest CHAR(64) NOT NULL, "
+                + "question TEXT NOT NULL, "
+                + "result_text MEDIUMTEXT NULL, "
+                + "error_message VARCHAR(1000) NULL, "
+                + "attempts INT NOT NULL DEFAULT 0, "
+                + "created_at DATETIME(3) NOT NULL, "
+                + "started_at DATETIME(3) NULL, "
+                + "finished_at DATETIME(3) NULL, "
+                + "INDEX idx_analysis_jobs_status_created_at (status, created_at)"
+                + ") DEFAULT CHARSET = utf8mb4"));
+        return ok;
+    }
+
+    private boolean step(String name, Runnable ddl) {
+        try {
+            ddl.run();
+            return true;
+        } catch (Exception e) {
+            System.err.println("初始化数据库结构失败: " + name + " - " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void addColumnIfMissing(String table, String column, String definition) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?",
+                Integer.class, table, column);
+        if (count != null && count == 0) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            System.out.println("已添加列: " + table + "." + column);
+        }
+    }
+
+    private void addIndexIfMissing(String table, String index, String columns) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?",
+                Integer.class, table, index);
+        if (count != null && count == 0) {
+            jdbcTemplate.execute("CREATE INDEX " + index + " ON " + table + " " + columns);
+            System.out.println("已创建索引: " + index);
+        }
+    }
+
+    private void addFullTextIndexIfMissing(String table, String index, String columns) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?",
+                Integer.class, table, index);
+        if (count != null && count == 0) {
+            jdbcTemplate.execute("CREATE FULLTEXT INDEX " + index + " ON " + table + " " + columns + " WITH PARSER ngram");
+            System.out.println("已创建全文索引: " + index);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.demo2.config;
+
+import com.example.demo2.service.AiTaskExecutor;
+import com.example.demo2.service.AnalysisCache;
+import com.example.demo2.service.AnalysisJobRunner;
+import com.example.demo2.service.ImageRecordWriter;
+import com.example.demo2.service.InFlightAnalyses;
+import com.example.demo2.service.ModelRoute;
+import com.example.demo2.service.ModelRouter;
+import com.example.demo2.service.ResilientModelClient;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 将各组件已有的内部计数注册为 Micrometer 指标
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder aiExecutorMetrics(AiTaskExecutor executor) {
+        return registry -> {
+            Gauge.builder("ai.executor.active", executor, AiTaskExecutor::getActiveCount)
+                    .description("AI线程池正在执行的任务数").register(registry);
+            Gauge.builder("ai.executor.queue.size", executor, AiTaskExecutor::getQueueSize)
+                    .description("AI线程池等待队列长度").register(registry);
+            FunctionCounter.builder("ai.executor.rejected", executor, AiTaskExecutor::getRejectedCount)
+                    .description("因队列已满被拒绝的任务数").register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder historyWriterMetrics(ImageRecordWriter writer) {
+        return registry -> {
+            Gauge.builder("ai.history.queue.depth", writer, ImageRecordWriter::getQueueDepth)
+                    .description("待写入的历史记录数").register(registry);
+            FunctionCounter.builder("ai.history.written", writer, ImageRecordWriter::getWrittenCount)
+                    .register(registry);
+            FunctionCounter.builder("ai.history.dropped", writer, ImageRecordWriter::getDroppedCount)
+                    .description("队列已满被丢弃的记录数").register(registry);
+            FunctionCounter.builder("ai.history.failed", writer, ImageRecordWriter::getFailedCount)
+                    .description("重试后仍写入失败的记录数").register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder analysisCacheMetrics(AnalysisCache cache, InFlightAnalyses inFlightAnalyses) {
+        return registry -> {
+            FunctionCounter.builder("ai.cache.requests", cache, AnalysisCache::getHitCount)
+                    .tag("result", "hit").register(registry);
+            FunctionCounter.builder("ai.cache.requests", cache, AnalysisCache::getDbHitCount)
+                    .tag("result", "db_hit").register(registry);
+            FunctionCounter.builder("ai.cache.requests", cache, AnalysisCache::getMissCount)
+                    .tag("result", "miss").register(registry);
+            Gauge.builder("ai.cache.size", cache, AnalysisCache::size).register(registry);
+            Gauge.builder("ai.inflight", inFlightAnalyses, InFlightAnalyses::size)
+                    .description("正在进行的模型调用数").register(registry);
+            FunctionCounter.builder("ai.inflight.coalesced", inFlightAnalyses, InFlightAnalyses::getCoalescedCount)
+                    .description("合并到已有调用的重复请求数").register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder modelRouterMetrics(ModelRouter router) {
+        return registry -> {
+            for (ModelRoute route : router.getRoutes()) {
+                Gauge.builder("ai.router.limit", route, r -> r.getLimiter().getLimit())
+                        .tag("route", route.getName()).description("通道当前的自适应并发上限").register(registry);
+                Gauge.builder("ai.router.inflight", route, r -> r.getLimiter().getInFlight())
+                        .tag("route", route.getName()).register(registry);
+                FunctionCounter.builder("ai.router.throttled", route, ModelRoute::getThrottledCount)
+                        .tag("route", route.getName()).description("被服务端限流的次数").register(registry);
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder modelResilienceMetrics(ResilientModelClient client) {
+        return registry -> Gauge.builder("ai.model.circuit.state", client, ResilientModelClient::getCircuitState)
+                .description("熔断器状态：0 关闭，1 半开，2 打开").register(registry);
+    }
+
+    @Bean
+    public MeterBinder analysisJobMetrics(AnalysisJobRunner runner) {
+        return registry -> {
+            Gauge.builder("ai.jobs.active", runner, AnalysisJobRunner::getActiveCount)
+                    .description("本实例排队或执行中的任务数").register(registry);
+            FunctionCounter.builder("ai.jobs.finished", runner, AnalysisJobRunner::getSucceededCount)
+                    .tag("outcome", "succeeded").register(registry);
+            FunctionCounter.builder("ai.jobs.finished", runner, AnalysisJobRunner::getFailedCount)
+                    .tag("outcome", "failed").register(registry);
+        };
+    }
+}
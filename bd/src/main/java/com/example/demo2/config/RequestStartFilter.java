@@ -0,0 +1,29 @@
+package com.example.demo2.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * 记录请求进入容器的时间，用于计算 multipart 解析等进入控制器之前的耗时
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestStartFilter extends OncePerRequestFilter {
+
+    public static final String START_NANOS_ATTRIBUTE = "requestStartNanos";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        request.setAttribute(START_NANOS_ATTRIBUTE, System.nanoTime());
+        filterChain.doFilter(request, response);
+    }
+}
@@ -1,71 +1,196 @@
 package com.example.demo2.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import com.example.demo2.config.RequestStartFilter;
+import com.example.demo2.service.AiMetrics;
 import com.example.demo2.service.AiService;
+import com.example.demo2.service.AiTaskExecutor;
+import com.example.demo2.service.AnalysisFailedException;
+import com.example.demo2.service.AnalysisCache;
+import com.example.demo2.service.AnalysisResult;
+import com.example.demo2.service.AnalysisJobRunner;
+import com.example.demo2.service.BatchAnalysisService;
+import com.example.demo2.service.ImageBlobStore;
+import com.example.demo2.service.ImagePreprocessor;
+import com.example.demo2.service.InFlightAnalyses;
 import com.example.demo2.service.ImageRecordService;
+import com.example.demo2.service.ImageRecordWriter;
+import com.example.demo2.service.ImageSpooler;
+import com.example.demo2.service.ModelClient;
+import com.example.demo2.service.PreparedImage;
+import com.example.demo2.service.SimilarImageIndex;
+import com.example.demo2.service.SpooledImage;
+import com.example.demo2.service.SseEventWriter;
+import com.example.demo2.entity.AnalysisJob;
 import com.example.demo2.entity.ImageRecord;
-import java.util.Base64;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/ai")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = {AiController.REUSED_FROM_HEADER, AiController.REUSED_DISTANCE_HEADER})
 public class AiController {
     
+    private static final int MAX_HISTORY_PAGE_SIZE = 100;
+    
+    // 复用相似图片结果时的响应头：相似图片摘要、哈希距离
+    static final String REUSED_FROM_HEADER = "X-Reused-From";
+    static final String REUSED_DISTANCE_HEADER = "X-Reused-Distance";
+    
+    // Tomcat 的 sendfile 请求属性
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+    
+    // 原图按摘要寻址，内容不会变化；缩略图随 ai.blob.thumbnail-edge/thumbnail-quality 变化，过期后按ETag重新验证
+    private static final CacheControl ORIGINAL_CACHE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+    private static final CacheControl THUMBNAIL_CACHE = CacheControl.maxAge(1, TimeUnit.HOURS).cachePublic();
+    
+    // 全文检索只翻到前N条，更深的分页需要对全部匹配行排序
+    private static final int MAX_SEARCH_RESULTS = 1000;
+    
     @Autowired
     private AiService aiService;
     
     @Autowired
     private ImageRecordService imageRecordService;
     
+    @Autowired
+    private ImageRecordWriter imageRecordWriter;
+    
+    @Autowired
+    private AnalysisCache analysisCache;
+    
+    @Autowired
+    private AiTaskExecutor aiTaskExecutor;
+    
+    @Autowired
+    private ImageSpooler imageSpooler;
+    
+    @Autowired
+    private ImagePreprocessor imagePreprocessor;
+    
+    @Autowired
+    private InFlightAnalyses inFlightAnalyses;
+    
+    @Autowired
+    private BatchAnalysisService batchAnalysisService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private AiMetrics aiMetrics;
+    
+    @Autowired
+    private ModelClient modelClient;
+    
+    @Autowired
+    private AnalysisJobRunner analysisJobRunner;
+    
+    @Autowired
+    private ImageBlobStore imageBlobStore;
+    
+    @Autowired
+    private SimilarImageIndex similarImageIndex;
+    
     @GetMapping("/analyze")
     public String analyzeDefaultImage() {
         return aiService.getDefaultAnalysis();
     }
     
     @PostMapping("/analyze")
-    public String analyzeImage(@RequestParam String imageUrl, @RequestParam String question) {
-        return aiService.analyzeImage(imageUrl, question);
+    public ResponseEntity<String> analyzeImage(@RequestParam String imageUrl, @RequestParam String question) {
+        if (!PreparedImage.isRemoteUrl(imageUrl)) {
+            return ResponseEntity.badRequest().body("只支持 http/https 图片URL");
+        }
+        return ResponseEntity.ok(aiService.analyzeImage(imageUrl, question).getText());
     }
     
     @PostMapping("/upload-image")
     public String uploadAndAnalyzeImage(@RequestParam("image") MultipartFile imageFile, 
-                                       @RequestParam(value = "question", defaultValue = "请分析这张图片") String question) {
-        try {
-            // 将图片转换为Base64格式
-            byte[] imageBytes = imageFile.getBytes();
-            String base64Image = "data:" + imageFile.getContentType() + ";base64," + 
-                               Base64.getEncoder().encodeToString(imageBytes);
+                                       @RequestParam(value = "question", defaultValue = "请分析这张图片") String question,
+                                       @RequestAttribute(name = RequestStartFilter.START_NANOS_ATTRIBUTE, required = false) Long requestStartNanos,
+                                       HttpServletResponse response) {
+        long enteredNanos = System.nanoTime();
+        long startNanos = requestStartNanos != null ? requestStartNanos : enteredNanos;
+        aiMetrics.recordStage("upload-image", "multipart", enteredNanos - startNanos);
+        
+        // 将图片写入临时文件，模型通过 file:// 路径读取，不在堆中保留整张图片
+        try (SpooledImage image = imageSpooler.spool(imageFile)) {
+            long submittedNanos = System.nanoTime();
+            aiMetrics.recordStage("upload-image", "spool", submittedNanos - enteredNanos);
             
-            // 调用AI服务分析图片
-            String result;
+            // 在AI线程池中保存原图并分析，与已分析过的图片足够相似时直接复用结果；队列已满时直接返回429
+            AnalysisResult result;
             try {
-                result = aiService.analyzeImage(base64Image, question);
-            } catch (Exception e) {
-                // 如果AI服务失败，使用模拟结果进行测试
-                result = "模拟AI分析结果：这是一张图片，包含" + question;
-                System.err.println("AI服务调用失败: " + e.getMessage());
+                result = aiTaskExecutor.supply(() -> {
+                    aiMetrics.recordStage("upload-image", "queue-wait", System.nanoTime() - submittedNanos);
+                    try {
+                        return aiService.analyzeUpload(image, question);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).get();
+            } catch (RejectedExecutionException e) {
+                throw e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "错误: AI分析被中断";
+            } catch (ExecutionException e) {
+                // 模型通道繁忙由 handleBusy 返回429，其余失败不保存历史记录，由 handleAnalysisFailed 返回502
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    throw (RejectedExecutionException) e.getCause();
+                }
+                if (e.getCause() instanceof AnalysisFailedException) {
+                    throw (AnalysisFailedException) e.getCause();
+                }
+                throw new AnalysisFailedException(e.getCause().getMessage(), e.getCause());
             }
-            
-            // 保存历史记录 - 只保存文件名而不是完整的Base64数据
-            try {
-                String imageIdentifier = "图片_" + System.currentTimeMillis() + ".jpg";
-                imageRecordService.saveImageRecord(imageIdentifier, result);
-            } catch (Exception e) {
-                // 如果保存历史记录失败，记录错误但不影响返回结果
-                System.err.println("保存历史记录失败: " + e.getMessage());
+            if (result.isReused()) {
+                response.setHeader(REUSED_FROM_HEADER, result.getReusedFrom());
+                response.setHeader(REUSED_DISTANCE_HEADER, String.valueOf(result.getReusedDistance()));
             }
             
-            return result;
+            // 异步保存历史记录 - 只保存图片摘要而不是图片内容，不阻塞请求线程
+            recordHistory(image.getDigest(), question, result);
+            
+            aiMetrics.recordStage("upload-image", "total", System.nanoTime() - startNanos);
+            return result.getText();
         } catch (IOException e) {
             return "错误: 图片处理失败 - " + e.getMessage();
+        } catch (RejectedExecutionException | AnalysisFailedException e) {
+            throw e;
         } catch (Exception e) {
             return "错误: AI分析失败 - " + e.getMessage();
         }
@@ -73,40 +198,47 @@ public class AiController {
     
     @PostMapping("/stream-analyze")
     public ResponseBodyEmitter streamAnalyzeImage(@RequestParam("image") MultipartFile imageFile, 
-                                                 @RequestParam(value = "question", defaultValue = "请分析这张图片") String question) {
+                                                 @RequestParam(value = "question", defaultValue = "请分析这张图片") String question,
+                                                 @RequestAttribute(name = RequestStartFilter.START_NANOS_ATTRIBUTE, required = false) Long requestStartNanos) {
+        long enteredNanos = System.nanoTime();
+        aiMetrics.recordStage("stream-analyze", "multipart", enteredNanos - (requestStartNanos != null ? requestStartNanos : enteredNanos));
+        
         // 设置超时时间为5分钟
         ResponseBodyEmitter emitter = new ResponseBodyEmitter(300000L);
+        SseEventWriter events = new SseEventWriter(emitter);
         
         // 用于存储完整的AI分析结果
-        final String[] aiResult = new String[1];
+        final AnalysisResult[] aiResult = new AnalysisResult[1];
         
         try {
-            // 将图片转换为Base64格式
-            byte[] imageBytes = imageFile.getBytes();
-            String base64Image = "data:" + imageFile.getContentType() + ";base64," + 
-                               Base64.getEncoder().encodeToString(imageBytes);
+            // 将图片写入临时文件，分析结束后由AiService删除
+            SpooledImage image = imageSpooler.spool(imageFile);
+            String imageDigest = image.getDigest();
+            aiMetrics.recordStage("stream-analyze", "spool", System.nanoTime() - enteredNanos);
             
-            // 启动流式分析，使用回调函数接收AI分析结果
-            aiService.analyzeImageStream(base64Image, question, emitter, (result) -> {
-                aiResult[0] = result;
-            });
+            // 启动流式分析，原图保存和相似图片查找都在AI线程中进行，使用回调函数接收AI分析结果；
+            // 线程池已满时抛出异常，由 handleBusy 返回429
+            try {
+                aiService.analyzeUploadStream(image, question, events, (result) -> {
+                    aiResult[0] = result;
+                });
+            } catch (RejectedExecutionException e) {
+                image.close();
+                throw e;
+            }
             
-            // 异步保存历史记录
+            // 异步保存历史记录，分析失败时不保存
             emitter.onCompletion(() -> {
-                try {
-                    String imageIdentifier = "图片_" + System.currentTimeMillis() + ".jpg";
-                    // 使用实际的AI分析结果，如果没有则使用默认文本
-                    String resultToSave = aiResult[0] != null ? aiResult[0] : "流式分析结果";
-                    imageRecordService.saveImageRecord(imageIdentifier, resultToSave);
-                } catch (Exception e) {
-                    System.err.println("保存历史记录失败: " + e.getMessage());
+                if (aiResult[0] == null) {
+                    return;
                 }
+                recordHistory(imageDigest, question, aiResult[0]);
             });
             
             // 添加超时处理
             emitter.onTimeout(() -> {
                 try {
-                    emitter.send("data: {\"type\":\"error\",\"message\":\"请求超时，请重试\"}\n\n");
+                    events.error("请求超时，请重试");
                     emitter.complete();
                 } catch (IOException e) {
                     emitter.completeWithError(e);
@@ -116,7 +248,7 @@ public class AiController {
             // 添加错误处理
             emitter.onError((ex) -> {
                 try {
-                    emitter.send("data: {\"type\":\"error\",\"message\":\"处理过程中发生错误: " + ex.getMessage().replace("\"", "\\\"") + "\"}\n\n");
+                    events.error("处理过程中发生错误: " + ex.getMessage());
                     emitter.complete();
                 } catch (IOException e) {
                     // 忽略错误
@@ -125,7 +257,7 @@ public class AiController {
             
         } catch (IOException e) {
             try {
-                emitter.send("data: {\"type\":\"error\",\"message\":\"图片处理失败: " + e.getMessage().replace("\"", "\\\"") + "\"}\n\n");
+                events.error("图片处理失败: " + e.getMessage());
                 emitter.complete();
             } catch (IOException ex) {
                 emitter.completeWithError(ex);
@@ -135,11 +267,377 @@ public class AiController {
         return emitter;
     }
     
+    /**
+     * 异步保存历史记录
+     */
+    private void recordHistory(String imageDigest, String question, AnalysisResult result) {
+        imageRecordWriter.submit(historyRecord(imageDigest, question, result));
+    }
+    
+    /**
+     * 构建历史记录，缓存键和问题键按实际回答的模型计算；带图片哈希时同时加入相似图片索引
+     * 复用相似图片结果的记录只记来源图片，不带缓存键和哈希：借来的结果不能作为本图片的缓存结果，
+     * 也不能沿着一串逐渐变化的图片继续传递
+     */
+    private ImageRecord historyRecord(String imageDigest, String question, AnalysisResult result) {
+        if (result.isReused()) {
+            ImageRecord record = new ImageRecord(imageDigest, result.getText(), null);
+            record.setReusedFrom(result.getReusedFrom());
+            return record;
+        }
+        String model = result.getModel();
+        String cacheKey = aiService.cacheKey(imageDigest, question, model);
+        ImageRecord record = new ImageRecord(imageDigest, result.getText(), cacheKey);
+        Long phash = result.getPhash();
+        if (phash != null) {
+            String questionKey = aiService.questionKey(question, model);
+            record.setPhash(phash);
+            record.setQuestionKey(questionKey);
+            similarImageIndex.add(imageDigest, phash, questionKey, cacheKey);
+        }
+        return record;
+    }
+    
+    /**
+     * 对同一张图片回答多个问题，图片只上传、保存和预处理一次，各问题并行调用模型
+     * 与相似图片同一问题的结果直接复用；成功的回答作为一批历史记录写入
+     * @param questions 问题列表（重复的 questions 参数），空白问题忽略，相同问题只回答一次
+     */
+    @PostMapping("/analyze-questions")
+    public Map<String, Object> analyzeQuestions(@RequestParam("image") MultipartFile imageFile,
+                                                @RequestParam("questions") List<String> questions) {
+        Map<String, Object> response = new HashMap<>();
+        List<String> distinct = questions.stream().map(String::trim).filter(q -> !q.isEmpty()).distinct().toList();
+        if (distinct.isEmpty()) {
+            response.put("success", false);
+            response.put("message", "请至少提供一个问题");
+            return response;
+        }
+        if (distinct.size() > aiService.getMaxQuestions()) {
+            response.put("success", false);
+            response.put("message", "一次最多回答 " + aiService.getMaxQuestions() + " 个问题");
+            return response;
+        }
+        
+        long start = System.currentTimeMillis();
+        try (SpooledImage image = imageSpooler.spool(imageFile)) {
+            // 线程池已满时抛出 RejectedExecutionException，由 handleBusy 返回429
+            List<AiService.QuestionAnswer> answers = aiService.analyzeUpload(image, distinct);
+            
+            List<Map<String, Object>> data = new ArrayList<>(distinct.size());
+            List<ImageRecord> records = new ArrayList<>(distinct.size());
+            for (AiService.QuestionAnswer answer : answers) {
+                String question = answer.getQuestion();
+                Map<String, Object> item = new HashMap<>();
+                item.put("question", question);
+                if (answer.isSuccess()) {
+                    AnalysisResult result = answer.getResult();
+                    item.put("success", true);
+                    item.put("result", result.getText());
+                    if (result.isReused()) {
+                        item.put("reusedFrom", result.getReusedFrom());
+                        item.put("reusedDistance", result.getReusedDistance());
+                    }
+                    records.add(historyRecord(image.getDigest(), question, result));
+                } else {
+                    item.put("success", false);
+                    item.put("message", answer.getError());
+                }
+                data.add(item);
+            }
+            imageRecordWriter.submitAll(records);
+            
+            response.put("success", true);
+            response.put("data", data);
+            response.put("tookMillis", System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            response.put("success", false);
+            response.put("message", "图片处理失败: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.put("success", false);
+            response.put("message", "AI分析被中断");
+        }
+        return response;
+    }
+    
+    /**
+     * 批量分析多张图片或图片URL，按完成顺序以NDJSON逐行返回每项结果，最后一行为汇总
+     * 上传的图片合计受 spring.servlet.multipart.max-request-size 限制，超过时返回413，图片较多时使用 imageUrls
+     * @param parallelism 本批次最大并发数，不超过 ai.batch.max-parallelism
+     */
+    @PostMapping("/batch-analyze")
+    public ResponseEntity<ResponseBodyEmitter> batchAnalyze(@RequestParam(value = "images", required = false) List<MultipartFile> images,
+                                                            @RequestParam(value = "imageUrls", required = false) List<String> imageUrls,
+                                                            @RequestParam(value = "question", defaultValue = "请分析这张图片") String question,
+                                                            @RequestParam(value = "parallelism", required = false) Integer parallelism) {
+        // 批量任务可能持续较长时间，超时时间设为1小时
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(3600000L);
+        MediaType ndjson = MediaType.APPLICATION_NDJSON;
+        int imageCount = images != null ? images.size() : 0;
+        int urlCount = imageUrls != null ? imageUrls.size() : 0;
+        if (imageCount + urlCount == 0 || imageCount + urlCount > batchAnalysisService.getMaxItems()) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "图片数量必须在1到" + batchAnalysisService.getMaxItems() + "之间");
+            sendLine(emitter, response);
+            emitter.complete();
+            return ResponseEntity.badRequest().contentType(ndjson).body(emitter);
+        }
+        // 图片URL原样交给模型SDK，SDK会读取并上传 file:// 等本地路径，只接受 http/https
+        for (int i = 0; i < urlCount; i++) {
+            if (!PreparedImage.isRemoteUrl(imageUrls.get(i))) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", false);
+                response.put("message", "只支持 http/https 图片URL: " + imageUrls.get(i));
+                sendLine(emitter, response);
+                emitter.complete();
+                return ResponseEntity.badRequest().contentType(ndjson).body(emitter);
+            }
+        }
+        
+        // 上传的图片必须在请求线程中落盘，请求结束后multipart临时文件即失效
+        List<BatchAnalysisService.BatchItem> items = new ArrayList<>(imageCount + urlCount);
+        try {
+            for (int i = 0; i < imageCount; i++) {
+                MultipartFile file = images.get(i);
+                SpooledImage image = imageSpooler.spool(file);
+                items.add(BatchAnalysisService.BatchItem.ofImage(i, file.getOriginalFilename(), image));
+                imageBlobStore.store(image);
+            }
+        } catch (IOException e) {
+            items.forEach(BatchAnalysisService.BatchItem::close);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "图片处理失败: " + e.getMessage());
+            sendLine(emitter, response);
+            emitter.complete();
+            return ResponseEntity.badRequest().contentType(ndjson).body(emitter);
+        }
+        for (int i = 0; i < urlCount; i++) {
+            items.add(BatchAnalysisService.BatchItem.ofUrl(imageCount + i, imageUrls.get(i)));
+        }
+        
+        batchAnalysisService.analyze(items, question, batchAnalysisService.resolveParallelism(parallelism),
+                line -> sendLine(emitter, line),
+                summary -> {
+                    sendLine(emitter, summary);
+                    emitter.complete();
+                });
+        return ResponseEntity.ok().contentType(ndjson).body(emitter);
+    }
+    
+    /**
+     * 提交异步分析任务，立即返回任务ID；任务持久化保存，客户端断开或服务重启后继续执行
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<Map<String, Object>> submitJob(@RequestParam("image") MultipartFile imageFile,
+                                                         @RequestParam(value = "question", defaultValue = "请分析这张图片") String question) {
+        Map<String, Object> response = new HashMap<>();
+        // 任务从图片存储读取原图，临时文件在返回前删除
+        try (SpooledImage image = imageSpooler.spool(imageFile)) {
+            AnalysisJob job = analysisJobRunner.submit(image, question);
+            Map<String, Object> data = new HashMap<>();
+            data.put("id", job.getId());
+            data.put("status", job.getStatus());
+            data.put("statusUrl", "/api/ai/jobs/" + job.getId());
+            data.put("eventsUrl", "/api/ai/jobs/" + job.getId() + "/events");
+            response.put("success", true);
+            response.put("data", data);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (IOException e) {
+            response.put("success", false);
+            response.put("message", "图片处理失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * 查询任务状态，完成时返回结果，执行中返回已生成的内容
+     */
+    @GetMapping("/jobs/{id}")
+    public Map<String, Object> getJob(@PathVariable String id) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            Map<String, Object> job = analysisJobRunner.describe(id);
+            if (job != null) {
+                response.put("success", true);
+                response.put("data", job);
+            } else {
+                response.put("success", false);
+                response.put("message", "任务不存在");
+            }
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "查询任务失败: " + e.getMessage());
+        }
+        return response;
+    }
+    
+    /**
+     * 订阅任务的SSE事件，断线重连时通过 offset 传入已收到内容的字符数，只补发之后的内容
+     */
+    @GetMapping("/jobs/{id}/events")
+    public ResponseBodyEmitter subscribeJob(@PathVariable String id,
+                                            @RequestParam(value = "offset", defaultValue = "0") int offset) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(300000L);
+        SseEventWriter events = new SseEventWriter(emitter);
+        try {
+            if (!analysisJobRunner.attach(id, Math.max(0, offset), events)) {
+                events.error("任务不存在");
+                events.complete();
+            }
+        } catch (Exception e) {
+            try {
+                events.error("订阅任务失败: " + e.getMessage());
+                events.complete();
+            } catch (IOException ex) {
+                events.completeWithError(ex);
+            }
+        }
+        return emitter;
+    }
+    
+    /**
+     * 异步分析任务统计
+     */
+    @GetMapping("/job-stats")
+    public Map<String, Object> jobStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", analysisJobRunner.getStats());
+        return response;
+    }
+    
+    private void sendLine(ResponseBodyEmitter emitter, Map<String, Object> line) {
+        try {
+            emitter.send(objectMapper.writeValueAsString(line) + "\n", MediaType.APPLICATION_NDJSON);
+        } catch (Exception e) {
+            // 客户端断开后继续完成剩余分析，结果仍会写入历史记录
+            System.err.println("批量结果发送失败: " + e.getMessage());
+        }
+    }
+    
     @GetMapping("/health")
     public String health() {
         return "AI服务运行正常";
     }
     
+    /**
+     * AI线程池状态
+     */
+    @GetMapping("/executor-stats")
+    public Map<String, Object> executorStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", aiTaskExecutor.getStats());
+        return response;
+    }
+    
+    /**
+     * 正在进行的模型调用及合并的重复请求数
+     */
+    @GetMapping("/inflight-stats")
+    public Map<String, Object> inFlightStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", inFlightAnalyses.getStats());
+        return response;
+    }
+    
+    /**
+     * 历史记录异步写入状态
+     */
+    @GetMapping("/history-writer-stats")
+    public Map<String, Object> historyWriterStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", imageRecordWriter.getStats());
+        return response;
+    }
+    
+    /**
+     * 获取相似图片索引统计
+     */
+    @GetMapping("/similar-stats")
+    public Map<String, Object> getSimilarStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", similarImageIndex.getStats());
+        return response;
+    }
+    
+    /**
+     * 图片预处理统计
+     */
+    @GetMapping("/preprocess-stats")
+    public Map<String, Object> preprocessStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", imagePreprocessor.getStats());
+        return response;
+    }
+    
+    /**
+     * 模型客户端及连接池状态
+     */
+    @GetMapping("/model-client-stats")
+    public Map<String, Object> modelClientStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", modelClient.getStats());
+        return response;
+    }
+    
+    /**
+     * AI线程池已满或模型通道繁忙时快速拒绝
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public Map<String, Object> handleBusy(RejectedExecutionException e) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "服务繁忙，请稍后重试");
+        return response;
+    }
+    
+    /**
+     * 上传文件或整个请求超过 spring.servlet.multipart 的大小限制
+     * 需要 spring.servlet.multipart.resolve-lazily=true，multipart 在绑定参数时解析，异常才会交给这里处理
+     */
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    @ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+    public Map<String, Object> handleUploadTooLarge(MaxUploadSizeExceededException e) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "上传内容过大，批量分析较多图片时请使用 imageUrls 提交");
+        return response;
+    }
+    
+    /**
+     * 模型调用失败（重试后仍失败、超时或熔断）
+     */
+    @ExceptionHandler(AnalysisFailedException.class)
+    @ResponseStatus(HttpStatus.BAD_GATEWAY)
+    public Map<String, Object> handleAnalysisFailed(AnalysisFailedException e) {
+        System.err.println("AI服务调用失败: " + e.getMessage());
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "AI分析失败: " + e.getMessage());
+        return response;
+    }
+    
+    /**
+     * 分析结果缓存统计
+     */
+    @GetMapping("/cache-stats")
+    public Map<String, Object> cacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", analysisCache.getStats());
+        return response;
+    }
+    
 
     
     /**
@@ -149,11 +647,11 @@ public class AiController {
     public Map<String, Object> testDatabase() {
         Map<String, Object> response = new HashMap<>();
         try {
-            // 尝试获取记录数量来测试数据库连接
-            List<ImageRecord> records = imageRecordService.getAllRecords();
+            // 使用 COUNT(*) 测试数据库连接，不加载记录内容
+            long recordCount = imageRecordService.countRecords();
             response.put("success", true);
             response.put("message", "数据库连接正常");
-            response.put("recordCount", records.size());
+            response.put("recordCount", recordCount);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "数据库连接失败: " + e.getMessage());
@@ -163,16 +661,170 @@ public class AiController {
     }
     
     /**
-     * 获取所有历史记录
+     * 分页获取历史记录摘要
+     * @param cursor 上一页返回的 nextCursor，为空时获取第一页
+     * @param limit 每页数量，最大100
+     * @param order desc 为最新优先，asc 为最早优先
      */
     @GetMapping("/history")
-    public Map<String, Object> getHistoryRecords() {
+    public Map<String, Object> getHistoryRecords(@RequestParam(value = "cursor", required = false) String cursor,
+                                                 @RequestParam(value = "limit", defaultValue = "20") int limit,
+                                                 @RequestParam(value = "order", defaultValue = "desc") String order) {
         Map<String, Object> response = new HashMap<>();
         try {
-            List<ImageRecord> records = imageRecordService.getAllRecords();
+            int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE_SIZE));
+            boolean newestFirst = !"asc".equalsIgnoreCase(order);
+            Date cursorCreatedAt = null;
+            Integer cursorId = null;
+            if (cursor != null && !cursor.isEmpty()) {
+                String[] parts = cursor.split("_", 2);
+                if (parts.length != 2) {
+                    response.put("success", false);
+                    response.put("message", "无效的分页游标");
+                    return response;
+                }
+                cursorCreatedAt = new Date(Long.parseLong(parts[0]));
+                cursorId = Integer.valueOf(parts[1]);
+            }
+            
+            // 多取一条用于判断是否还有下一页
+            List<ImageRecord> records = imageRecordService.getRecordSummaries(cursorCreatedAt, cursorId, pageSize + 1, newestFirst);
+            boolean hasMore = records.size() > pageSize;
+            if (hasMore) {
+                records = records.subList(0, pageSize);
+            }
+            String nextCursor = null;
+            if (hasMore) {
+                ImageRecord last = records.get(records.size() - 1);
+                nextCursor = last.getCreatedAt().getTime() + "_" + last.getId();
+            }
+            
             response.put("success", true);
             response.put("data", records);
+            response.put("hasMore", hasMore);
+            response.put("nextCursor", nextCursor);
             response.put("message", "获取历史记录成功");
+        } catch (NumberFormatException e) {
+            response.put("success", false);
+            response.put("message", "无效的分页游标");
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "获取历史记录失败: " + e.getMessage());
+        }
+        return response;
+    }
+    
+    /**
+     * 按分析结果全文检索历史记录，按相关度排序
+     * @param q 空格分隔的关键词，结果需包含全部关键词
+     * @param page 页码，从0开始
+     * @param size 每页数量，最大100
+     */
+    @GetMapping("/history/search")
+    public Map<String, Object> searchHistoryRecords(@RequestParam("q") String q,
+                                                    @RequestParam(value = "page", defaultValue = "0") int page,
+                                                    @RequestParam(value = "size", defaultValue = "20") int size) {
+        Map<String, Object> response = new HashMap<>();
+        int pageSize = Math.max(1, Math.min(size, MAX_HISTORY_PAGE_SIZE));
+        int pageIndex = Math.max(0, page);
+        if ((long) pageIndex * pageSize >= MAX_SEARCH_RESULTS) {
+            response.put("success", false);
+            response.put("message", "最多返回前" + MAX_SEARCH_RESULTS + "条结果，请缩小检索范围");
+            return response;
+        }
+        try {
+            long start = System.nanoTime();
+            // 多取一条用于判断是否还有下一页
+            List<ImageRecord> records = imageRecordService.searchRecords(q, pageIndex * pageSize, pageSize + 1);
+            boolean hasMore = records.size() > pageSize && (long) (pageIndex + 1) * pageSize < MAX_SEARCH_RESULTS;
+            if (records.size() > pageSize) {
+                records = records.subList(0, pageSize);
+            }
+            response.put("success", true);
+            response.put("data", records);
+            response.put("page", pageIndex);
+            response.put("hasMore", hasMore);
+            response.put("tookMillis", (System.nanoTime() - start) / 1_000_000);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "检索历史记录失败: " + e.getMessage());
+        }
+        return response;
+    }
+    
+    /**
+     * 历史记录的原图，image_path 为图片摘要；内容按摘要寻址不会变化，允许客户端长期缓存
+     */
+    @GetMapping("/history/images/{digest}")
+    public void getHistoryImage(@PathVariable String digest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        sendBlob(imageBlobStore.getOriginal(digest), "\"" + digest + "\"", ORIGINAL_CACHE, request, response);
+    }
+    
+    /**
+     * 历史记录的缩略图，只短期缓存：缩略图参数修改后，客户端最迟在 max-age 过期后重新验证时拿到新图
+     */
+    @GetMapping("/history/images/{digest}/thumbnail")
+    public void getHistoryThumbnail(@PathVariable String digest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 缩略图尺寸或质量变化后ETag随之变化
+        String etag = "\"" + digest + "-t" + imageBlobStore.getThumbnailVariant() + "\"";
+        sendBlob(imageBlobStore.getThumbnail(digest), etag, THUMBNAIL_CACHE, request, response);
+    }
+    
+    /**
+     * 发送图片文件：If-None-Match 命中时返回304；Tomcat 支持 sendfile 时由容器直接从文件发送到套接字，
+     * 否则通过 FileChannel.transferTo 写出
+     */
+    private void sendBlob(Path file, String etag, CacheControl cacheControl, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (file == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || "*".equals(ifNoneMatch.trim()))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        long size = Files.size(file);
+        response.setContentType(ImageBlobStore.detectContentType(file));
+        response.setContentLengthLong(size);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, 0L);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, size);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        }
+    }
+    
+    /**
+     * 获取单条历史记录的完整内容
+     */
+    @GetMapping("/history/{id}")
+    public Map<String, Object> getHistoryRecord(@PathVariable Integer id) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            ImageRecord record = imageRecordService.getRecordById(id);
+            if (record != null) {
+                response.put("success", true);
+                response.put("data", record);
+            } else {
+                response.put("success", false);
+                response.put("message", "记录不存在");
+            }
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "获取历史记录失败: " + e.getMessage());
@@ -0,0 +1,131 @@
+package com.example.demo2.entity;
+
+import java.util.Date;
+
+/**
+ * 异步分析任务，对应 analysis_jobs 表
+ */
+public class AnalysisJob {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED;
+
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED;
+        }
+    }
+
+    private String id;
+
+    private Status status;
+
+    // 图片在 ImageBlobStore 中的键
+    private String imageDigest;
+
+    private String question;
+
+    private String resultText;
+
+    private String errorMessage;
+
+    // 已开始执行的次数，服务重启后重新排队的任务会再次计数
+    private int attempts;
+
+    private Date createdAt;
+
+    private Date startedAt;
+
+    private Date finishedAt;
+
+    public AnalysisJob() {}
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getImageDigest() {
+        return imageDigest;
+    }
+
+    public void setImageDigest(String imageDigest) {
+        this.imageDigest = imageDigest;
+    }
+
+    public String getQuestion() {
+        return question;
+    }
+
+    public void setQuestion(String question) {
+        this.question = question;
+    }
+
+    public String getResultText() {
+        return resultText;
+    }
+
+    public void setResultText(String resultText) {
+        this.resultText = resultText;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Date getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Date startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Date getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Date finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "AnalysisJob{" +
+                "id='" + id + '\'' +
+                ", status=" + status +
+                ", attempts=" + attempts +
+                ", createdAt=" + createdAt +
+                '}';
+    }
+}
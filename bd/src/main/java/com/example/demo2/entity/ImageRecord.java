@@ -1,5 +1,7 @@
 package com.example.demo2.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.Date;
 
 public class ImageRecord {
@@ -10,6 +12,24 @@ public class ImageRecord {
     
     private String resultText;
     
+    // 列表查询时只返回结果摘要，resultText为空
+    private String resultPreview;
+    
+    // 以下三列只用于缓存和相似图片索引，不出现在接口返回的JSON中
+    private String cacheKey;
+    
+    // 图片的dHash，用于查找相似图片；无法解码的图片为空
+    private Long phash;
+    
+    // 问题+模型的哈希，相似图片只在问题相同时复用结果
+    private String questionKey;
+    
+    // 复用了相似图片的结果时为来源图片摘要，此时没有缓存键，结果不作为本图片的缓存结果
+    private String reusedFrom;
+    
+    // 全文检索的相关度，仅检索结果有值
+    private Double score;
+    
     private Date createdAt;
     
     // 构造函数
@@ -20,6 +40,13 @@ public class ImageRecord {
         this.resultText = resultText;
     }
     
+    public ImageRecord(String imagePath, String resultText, String cacheKey) {
+        this.imagePath = imagePath;
+        this.resultText = resultText;
+        this.cacheKey = cacheKey;
+        this.createdAt = new Date();
+    }
+    
     // Getter和Setter方法
     public Integer getId() {
         return id;
@@ -45,6 +72,57 @@ public class ImageRecord {
         this.resultText = resultText;
     }
     
+    public String getResultPreview() {
+        return resultPreview;
+    }
+    
+    public void setResultPreview(String resultPreview) {
+        this.resultPreview = resultPreview;
+    }
+    
+    @JsonIgnore
+    public String getCacheKey() {
+        return cacheKey;
+    }
+    
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+    
+    @JsonIgnore
+    public Long getPhash() {
+        return phash;
+    }
+    
+    public void setPhash(Long phash) {
+        this.phash = phash;
+    }
+    
+    @JsonIgnore
+    public String getQuestionKey() {
+        return questionKey;
+    }
+    
+    public void setQuestionKey(String questionKey) {
+        this.questionKey = questionKey;
+    }
+    
+    public String getReusedFrom() {
+        return reusedFrom;
+    }
+    
+    public void setReusedFrom(String reusedFrom) {
+        this.reusedFrom = reusedFrom;
+    }
+    
+    public Double getScore() {
+        return score;
+    }
+    
+    public void setScore(Double score) {
+        this.score = score;
+    }
+    
     public Date getCreatedAt() {
         return createdAt;
     }
@@ -0,0 +1,99 @@
+package com.example.demo2.service;
+
+/**
+ * AIMD并发限制
+ * 调用成功且并发已接近上限时，上限每轮增加约1；遇到限流(429)或首token延迟明显高于平均值时按比例收缩
+ */
+public class AdaptiveLimiter {
+
+    // 延迟均值的平滑系数
+    private static final double ALPHA = 0.1;
+    // 统计足够样本后才判断延迟突增
+    private static final int WARMUP_SAMPLES = 10;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private double averageLatencyMillis;
+    private long samples;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencyTolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * 未达到上限时占用一个并发
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    public synchronized void release() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+    }
+
+    /**
+     * 记录一次首token延迟，延迟突增时收缩上限
+     */
+    public synchronized void onLatency(long millis) {
+        boolean spike = samples >= WARMUP_SAMPLES && millis > averageLatencyMillis * latencyTolerance;
+        averageLatencyMillis = samples == 0 ? millis : averageLatencyMillis + ALPHA * (millis - averageLatencyMillis);
+        samples++;
+        if (spike) {
+            decrease();
+        }
+    }
+
+    /**
+     * 调用成功，仅在并发接近上限时增加，避免空闲时上限无意义地增长
+     */
+    public synchronized void onSuccess() {
+        if (inFlight + 1 >= (int) limit) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * 被服务端限流
+     */
+    public synchronized void onThrottled() {
+        decrease();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * 剩余可用并发数
+     */
+    public synchronized int getHeadroom() {
+        return (int) limit - inFlight;
+    }
+
+    public synchronized long getAverageLatencyMillis() {
+        return Math.round(averageLatencyMillis);
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.demo2.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 分析链路的监控指标
+ * 各阶段耗时、模型调用、流式首字节时间及JDBC耗时，统一通过 /actuator/prometheus 导出
+ */
+@Service
+public class AiMetrics {
+
+    private final MeterRegistry registry;
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    @Autowired
+    public AiMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("ai.stream.active", activeStreams, AtomicInteger::get)
+                .description("正在进行的流式分析数")
+                .register(registry);
+    }
+
+    /**
+     * 记录请求某个阶段的耗时
+     * @param endpoint upload-image、stream-analyze 等
+     * @param stage multipart、spool、queue-wait、total 等
+     */
+    public void recordStage(String endpoint, String stage, long nanos) {
+        registry.timer("ai.request.stage", "endpoint", endpoint, "stage", stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录图片预处理耗时
+     * @param outcome processed、stripped（只去掉元数据）、skipped 或 failed
+     */
+    public void recordPreprocess(String outcome, long millis) {
+        registry.timer("ai.preprocess", "outcome", outcome).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次模型调用耗时
+     */
+    public void recordModelCall(boolean success, long nanos) {
+        registry.timer("ai.model.call", "outcome", success ? "success" : "error").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 按异常类型统计模型调用错误
+     */
+    public void recordModelError(Throwable error) {
+        // blockingForEach 会把受检异常包装为 RuntimeException
+        Throwable cause = error;
+        if (cause.getClass() == RuntimeException.class && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        registry.counter("ai.model.errors", "type", cause.getClass().getSimpleName()).increment();
+    }
+
+    /**
+     * 模型调用重试次数
+     */
+    public void recordModelRetry() {
+        registry.counter("ai.model.retries").increment();
+    }
+
+    /**
+     * 模型调用超时次数
+     * @param phase first-token 或 call
+     */
+    public void recordModelTimeout(String phase) {
+        registry.counter("ai.model.timeouts", "phase", phase).increment();
+    }
+
+    /**
+     * 对冲请求统计
+     * @param outcome fired 或 won
+     */
+    public void recordModelHedge(String outcome) {
+        registry.counter("ai.model.hedges", "outcome", outcome).increment();
+    }
+
+    /**
+     * 熔断器打开期间被直接拒绝的调用次数
+     */
+    public void recordModelCircuitRejected() {
+        registry.counter("ai.model.circuit.rejected").increment();
+    }
+
+    /**
+     * 流式请求从开始到发出第一个字节的时间
+     */
+    public void recordTimeToFirstByte(long nanos) {
+        registry.timer("ai.stream.ttfb").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 流式请求从开始到发出第一段模型内容的时间
+     */
+    public void recordTimeToFirstToken(long nanos) {
+        registry.timer("ai.stream.ttft").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次SSE发送耗时
+     */
+    public void recordEmit(long nanos) {
+        registry.timer("ai.stream.emit").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次历史记录批量写入（含重试）的耗时和批量大小
+     */
+    public void recordHistoryFlush(int batchSize, long millis) {
+        registry.timer("ai.history.flush").record(millis, TimeUnit.MILLISECONDS);
+        registry.counter("ai.history.flush.records").increment(batchSize);
+    }
+
+    /**
+     * 记录一次缩略图生成
+     * @param outcome generated、failed 或 dropped（后台队列已满，读取时再生成）
+     */
+    public void recordThumbnail(String outcome) {
+        registry.counter("ai.blob.thumbnail", "outcome", outcome).increment();
+    }
+
+    public void streamStarted() {
+        activeStreams.incrementAndGet();
+    }
+
+    public void streamFinished() {
+        activeStreams.decrementAndGet();
+    }
+
+    /**
+     * 记录JDBC操作耗时
+     */
+    public <T> T timeJdbc(String operation, Supplier<T> action) {
+        return registry.timer("ai.jdbc", "operation", operation).record(action);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+}
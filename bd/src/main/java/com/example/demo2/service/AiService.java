@@ -1,152 +1,563 @@
 package com.example.demo2.service;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
-import com.alibaba.dashscope.aigc.multimodalconversation.MultiModalConversation;
-import com.alibaba.dashscope.aigc.multimodalconversation.MultiModalConversationParam;
-import com.alibaba.dashscope.aigc.multimodalconversation.MultiModalConversationResult;
-import com.alibaba.dashscope.common.MultiModalMessage;
-import com.alibaba.dashscope.common.Role;
-import com.alibaba.dashscope.exception.ApiException;
-import com.alibaba.dashscope.exception.NoApiKeyException;
-import com.alibaba.dashscope.exception.UploadFileException;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 @Service
 public class AiService {
     
-    public String analyzeImage(String imageUrl, String question) {
+    // 默认使用的通义千问模型
+    public static final String MODEL = "qwen-vl-max-latest";
+    
+    @Autowired
+    private AnalysisCache analysisCache;
+    
+    @Autowired
+    private AiTaskExecutor aiTaskExecutor;
+    
+    @Autowired
+    private ImagePreprocessor imagePreprocessor;
+    
+    @Autowired
+    private InFlightAnalyses inFlightAnalyses;
+    
+    @Autowired
+    private SseDeliveryExecutor sseDeliveryExecutor;
+    
+    @Autowired
+    private AiMetrics aiMetrics;
+    
+    @Autowired
+    private ModelClient modelClient;
+    
+    @Autowired
+    private ImageBlobStore imageBlobStore;
+    
+    @Autowired
+    private SimilarImageIndex similarImageIndex;
+    
+    @Value("${ai.sse.include-full-result:true}")
+    private boolean sseIncludeFullResult;
+    
+    @Value("${ai.multi-question.max-questions:8}")
+    private int maxQuestions;
+    
+    /**
+     * 分析图片，以图片URL本身的哈希作为图片摘要
+     */
+    public AnalysisResult analyzeImage(String imageUrl, String question) {
+        return analyzeImage(digestOf(imageUrl), imageUrl, question);
+    }
+    
+    /**
+     * 分析图片，命中缓存时直接返回缓存结果
+     * @param imageDigest 图片内容的SHA-256摘要
+     * @throws AnalysisFailedException 模型调用失败或没有返回内容
+     * @throws RejectedExecutionException 所有模型通道在等待时间内都没有空闲
+     */
+    public AnalysisResult analyzeImage(String imageDigest, String imageUrl, String question) {
+        return analyzeImage(imageDigest, () -> PreparedImage.ofUrl(imageUrl), null, question, null);
+    }
+    
+    /**
+     * 分析已落盘的上传图片，未命中缓存时先预处理再通过 file:// 路径交给模型
+     */
+    public AnalysisResult analyzeImage(SpooledImage image, String question) {
+        return analyzeImage(image, question, null);
+    }
+    
+    /**
+     * 分析已落盘的上传图片，发起或加入模型调用时先把 AnalysisFlight 交给 onFlight，便于订阅增量内容
+     * 命中缓存时不调用 onFlight
+     */
+    public AnalysisResult analyzeImage(SpooledImage image, String question, Consumer<AnalysisFlight> onFlight) {
+        return analyzeImage(image.getDigest(), () -> imagePreprocessor.preprocess(image), null, question, onFlight);
+    }
+    
+    /**
+     * 分析接口收到的上传图片，在AI线程池中调用
+     * 先保存原图并查结果缓存；未命中时计算图片哈希，同一问题下有足够相似的已分析图片时直接复用其结果，
+     * 都未命中才预处理并调用模型。命中结果缓存时不解码图片
+     * @throws IOException 原图保存失败
+     */
+    public AnalysisResult analyzeUpload(SpooledImage image, String question) throws IOException {
+        Upload upload = new Upload(image);
+        upload.store();
+        return analyzeImage(image.getDigest(), () -> imagePreprocessor.preprocess(image), upload, question, null);
+    }
+    
+    /**
+     * 对同一张上传图片回答多个问题
+     * 图片只保存、计算哈希和预处理一次，所有问题共享；各问题分别查缓存和相似图片，未命中的在AI线程池中并行调用模型，
+     * 总耗时约为最慢的一个问题
+     * @return 与 questions 顺序一致的回答，单个问题失败不影响其他问题
+     * @throws RejectedExecutionException 第一个问题就无法提交（线程池等待队列已满）
+     */
+    public List<QuestionAnswer> analyzeUpload(SpooledImage image, List<String> questions) throws InterruptedException {
+        Upload upload = new Upload(image);
+        SharedImageSource shared = new SharedImageSource(() -> imagePreprocessor.preprocess(image));
+        List<CompletableFuture<AnalysisResult>> futures = new ArrayList<>(questions.size());
         try {
-            MultiModalConversation conv = new MultiModalConversation();
-            MultiModalMessage systemMessage = MultiModalMessage.builder().role(Role.SYSTEM.getValue())
-                    .content(Arrays.asList(
-                            Collections.singletonMap("text", "You are a helpful assistant."))).build();
-            MultiModalMessage userMessage = MultiModalMessage.builder().role(Role.USER.getValue())
-                    .content(Arrays.asList(
-                            Collections.singletonMap("image", imageUrl),
-                            Collections.singletonMap("text", question))).build();
-            MultiModalConversationParam param = MultiModalConversationParam.builder()
-                    .apiKey(System.getenv("DASHSCOPE_API_KEY"))
-                    .model("qwen-vl-max-latest")
-                    .messages(Arrays.asList(systemMessage, userMessage))
-                    .build();
-            MultiModalConversationResult result = conv.call(param);
-            Object textContent = result.getOutput().getChoices().get(0).getMessage().getContent().get(0).get("text");
-            return textContent != null ? textContent.toString() : "无法获取分析结果";
-        } catch (ApiException | NoApiKeyException | UploadFileException e) {
-            return "错误: " + e.getMessage();
-        }
-    }
-    
-    public void analyzeImageStream(String imageUrl, String question, ResponseBodyEmitter emitter, Consumer<String> resultCallback) {
-        System.out.println("开始流式分析，图片URL长度: " + (imageUrl != null ? imageUrl.length() : 0));
-        
-        CompletableFuture.runAsync(() -> {
-            try {
-                // 阶段1: 开始分析
-                System.out.println("发送阶段1消息");
-                emitter.send("data: {\"type\":\"progress\",\"stage\":\"start\",\"message\":\"开始分析图片...\",\"progress\":10}\n\n");
-                
-                // 阶段2: 图片处理
-                System.out.println("发送阶段2消息");
-                emitter.send("data: {\"type\":\"progress\",\"stage\":\"processing\",\"message\":\"正在处理图片...\",\"progress\":30}\n\n");
-                
-                // 阶段3: AI分析 - 使用真正的流式输出
-                System.out.println("发送阶段3消息");
-                emitter.send("data: {\"type\":\"progress\",\"stage\":\"analyzing\",\"message\":\"AI正在分析图片内容...\",\"progress\":60}\n\n");
-                
-                // 使用千问大模型的流式输出
-                System.out.println("开始调用AI分析");
-                streamQwenResponse(imageUrl, question, emitter, resultCallback);
-                
-            } catch (Exception e) {
-                System.err.println("流式分析过程中发生错误: " + e.getMessage());
-                e.printStackTrace();
+            for (String question : questions) {
                 try {
-                    emitter.send("data: {\"type\":\"error\",\"message\":\"分析失败: " + e.getMessage().replace("\"", "\\\"") + "\"}\n\n");
-                    emitter.complete();
-                } catch (IOException ex) {
-                    emitter.completeWithError(ex);
+                    futures.add(aiTaskExecutor.supply(() -> {
+                        try {
+                            upload.store();
+                        } catch (IOException e) {
+                            throw new AnalysisFailedException("图片保存失败: " + e.getMessage(), e);
+                        }
+                        return analyzeImage(image.getDigest(), shared, upload, question, null);
+                    }));
+                } catch (RejectedExecutionException e) {
+                    if (futures.isEmpty()) {
+                        throw e;
+                    }
+                    futures.add(CompletableFuture.failedFuture(e));
                 }
             }
-        });
+            
+            List<QuestionAnswer> answers = new ArrayList<>(questions.size());
+            for (int i = 0; i < questions.size(); i++) {
+                try {
+                    answers.add(new QuestionAnswer(questions.get(i), futures.get(i).get(), null));
+                } catch (ExecutionException e) {
+                    answers.add(new QuestionAnswer(questions.get(i), null, e.getCause().getMessage()));
+                }
+            }
+            return answers;
+        } finally {
+            // 所有问题都结束后才删除共享的预处理文件，调用方被中断时由最后结束的问题清理
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((ignored, error) -> shared.close());
+        }
     }
     
-    private void streamQwenResponse(String imageUrl, String question, ResponseBodyEmitter emitter, Consumer<String> resultCallback) {
+    public int getMaxQuestions() {
+        return maxQuestions;
+    }
+    
+    /**
+     * @param upload 上传图片，不为空时未命中缓存先查找相似图片；图片URL、异步任务和批量分析为空
+     */
+    private AnalysisResult analyzeImage(String imageDigest, ImageSource source, Upload upload, String question, Consumer<AnalysisFlight> onFlight) {
+        // 只查主模型的缓存，备用模型的结果不作为主模型的结果返回
+        String cacheKey = cacheKey(imageDigest, question);
+        String cached = analysisCache.get(cacheKey);
+        if (cached != null) {
+            return new AnalysisResult(cached, modelClient.getModel());
+        }
+        AnalysisResult similar = findSimilar(imageDigest, upload, question);
+        if (similar != null) {
+            return similar;
+        }
+        
+        // 相同的并发请求共享同一次模型调用
+        InFlightAnalyses.Join join = inFlightAnalyses.join(cacheKey);
+        if (onFlight != null) {
+            onFlight.accept(join.getFlight());
+        }
+        if (join.isOwner()) {
+            runFlight(join.getFlight(), cacheKey, imageDigest, source, question);
+        }
         try {
-            // 先发送一个测试消息，确保流式输出机制工作
-            emitter.send("data: {\"type\":\"stream\",\"content\":\"正在连接AI服务...\"}\n\n");
-            Thread.sleep(500);
+            String result = join.getFlight().getResult().get();
+            if (result.isEmpty()) {
+                throw new AnalysisFailedException("无法获取分析结果");
+            }
+            return new AnalysisResult(result, join.getFlight().getModel(), upload != null ? upload.hash() : null);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                // 模型通道等待超时，与线程池已满一样属于服务繁忙
+                throw (RejectedExecutionException) e.getCause();
+            }
+            throw new AnalysisFailedException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnalysisFailedException("分析被中断", e);
+        }
+    }
+    
+    /**
+     * 查找同一问题下足够相似的已分析图片并复用其结果，按主模型的问题键查找，只复用主模型的结果
+     * @return 不是上传图片、图片无法计算哈希或没有足够相似的图片时返回null
+     */
+    private AnalysisResult findSimilar(String imageDigest, Upload upload, String question) {
+        Long phash = upload != null ? upload.hash() : null;
+        if (phash == null) {
+            return null;
+        }
+        SimilarImageIndex.Match match = similarImageIndex.findReusable(phash, questionKey(question), imageDigest);
+        if (match == null) {
+            return null;
+        }
+        return new AnalysisResult(match.getResultText(), modelClient.getModel(), phash, match.getImageDigest(), match.getDistance());
+    }
+    
+    /**
+     * 计算图片+问题+主模型对应的缓存键
+     */
+    public String cacheKey(String imageDigest, String question) {
+        return cacheKey(imageDigest, question, modelClient.getModel());
+    }
+    
+    /**
+     * 计算图片+问题+指定模型对应的缓存键，保存结果时使用实际回答的模型
+     */
+    public String cacheKey(String imageDigest, String question, String model) {
+        return analysisCache.buildKey(imageDigest, question, model);
+    }
+    
+    /**
+     * 计算问题+主模型对应的问题键
+     */
+    public String questionKey(String question) {
+        return questionKey(question, modelClient.getModel());
+    }
+    
+    /**
+     * 计算问题+指定模型对应的问题键
+     */
+    public String questionKey(String question, String model) {
+        return analysisCache.buildQuestionKey(question, model);
+    }
+    
+    /**
+     * 执行模型调用，把增量内容发布给所有订阅者；完成后按实际回答的模型写入缓存，再移除登记
+     * @param cacheKey 主模型的缓存键，也是 single-flight 的登记键
+     */
+    private void runFlight(AnalysisFlight flight, String cacheKey, String imageDigest, ImageSource source, String question) {
+        try (PreparedImage prepared = source.prepare()) {
+            flight.preprocessed(prepared);
             
-            // 直接使用多模态对话API进行图片分析
-            String fullResult = analyzeImage(imageUrl, question);
+            // 模型每生成一段就立即发布
+            long start = System.nanoTime();
+            String model;
+            try {
+                model = modelClient.streamAnalyze(prepared.getUrl(), question, flight::publish);
+            } catch (Exception e) {
+                aiMetrics.recordModelCall(false, System.nanoTime() - start);
+                aiMetrics.recordModelError(e);
+                throw e;
+            }
+            long elapsed = System.nanoTime() - start;
+            aiMetrics.recordModelCall(true, elapsed);
+            analysisCache.recordModelLatency(TimeUnit.NANOSECONDS.toMillis(elapsed));
             
-            // 检查结果是否为空或错误
-            if (fullResult == null || fullResult.isEmpty() || fullResult.startsWith("错误:")) {
-                emitter.send("data: {\"type\":\"error\",\"message\":\"AI分析失败: " + fullResult.replace("\"", "\\\"") + "\"}\n\n");
-                emitter.complete();
-                return;
+            String fullResult = flight.getText();
+            if (!fullResult.isEmpty()) {
+                analysisCache.put(cacheKey(imageDigest, question, model), fullResult);
             }
+            flight.answeredBy(model);
+            inFlightAnalyses.complete(cacheKey, flight);
+        } catch (Exception e) {
+            inFlightAnalyses.fail(cacheKey, flight, e);
+        }
+    }
+    
+    public void analyzeImageStream(String imageUrl, String question, SseEventWriter events, Consumer<AnalysisResult> resultCallback) {
+        analyzeImageStream(digestOf(imageUrl), imageUrl, question, events, resultCallback);
+    }
+    
+    /**
+     * 在AI线程池中执行流式分析
+     * @throws java.util.concurrent.RejectedExecutionException 线程池等待队列已满
+     */
+    public void analyzeImageStream(String imageDigest, String imageUrl, String question, SseEventWriter events, Consumer<AnalysisResult> resultCallback) {
+        analyzeImageStream(imageDigest, () -> PreparedImage.ofUrl(imageUrl), null, question, events, resultCallback, null);
+    }
+    
+    /**
+     * 流式分析接口收到的上传图片，分析结束后删除临时文件
+     * 保存原图、查缓存、查找相似图片都在AI线程中执行，处理方式同 analyzeUpload
+     * @throws java.util.concurrent.RejectedExecutionException 线程池等待队列已满，此时临时文件由调用方负责关闭
+     */
+    public void analyzeUploadStream(SpooledImage image, String question, SseEventWriter events, Consumer<AnalysisResult> resultCallback) {
+        analyzeImageStream(image.getDigest(), () -> imagePreprocessor.preprocess(image), new Upload(image), question, events, resultCallback, image::close);
+    }
+    
+    private void analyzeImageStream(String imageDigest, ImageSource source, Upload upload, String question, SseEventWriter events, Consumer<AnalysisResult> resultCallback, Runnable cleanup) {
+        System.out.println("开始流式分析，图片: " + imageDigest);
+        long streamStartNanos = System.nanoTime();
+        aiMetrics.streamStarted();
+        events.getEmitter().onCompletion(aiMetrics::streamFinished);
+        
+        try {
+            aiTaskExecutor.execute(() -> runStream(imageDigest, source, upload, question, events, resultCallback, cleanup, streamStartNanos));
+        } catch (RejectedExecutionException e) {
+            aiMetrics.streamFinished();
+            throw e;
+        }
+    }
+    
+    private void runStream(String imageDigest, ImageSource source, Upload upload, String question, SseEventWriter events, Consumer<AnalysisResult> resultCallback, Runnable cleanup, long streamStartNanos) {
+        aiMetrics.recordStage("stream-analyze", "queue-wait", System.nanoTime() - streamStartNanos);
+        try {
+            // 阶段1: 开始分析
+            events.progress("start", "开始分析图片...", 10);
+            aiMetrics.recordTimeToFirstByte(System.nanoTime() - streamStartNanos);
             
-            // 发送分析开始消息
-            emitter.send("data: {\"type\":\"stream\",\"content\":\"AI分析结果：\"}\n\n");
-            Thread.sleep(300);
+            // 阶段2: 图片处理
+            events.progress("processing", "正在处理图片...", 30);
             
-            // 模拟流式输出效果 - 将结果分段发送
-            String[] sentences = fullResult.split("(?<=[。！？；])");
-            StringBuilder streamedContent = new StringBuilder();
+            // 阶段3: AI分析 - 使用真正的流式输出
+            events.progress("analyzing", "AI正在分析图片内容...", 60);
             
-            for (int i = 0; i < sentences.length; i++) {
-                String sentence = sentences[i].trim();
-                if (!sentence.isEmpty()) {
-                    streamedContent.append(sentence);
-                    
-                    // 发送流式数据
-                    try {
-                        emitter.send("data: {\"type\":\"stream\",\"content\":\"" + 
-                                   sentence.replace("\"", "\\\"").replace("\n", "\\n") + "\"}\n\n");
-                        
-                        // 模拟真实的流式延迟
-                        Thread.sleep(200 + (int)(Math.random() * 300));
-                        
-                    } catch (IOException e) {
-                        // 如果发送失败，可能是客户端断开连接
-                        System.err.println("流式数据发送失败: " + e.getMessage());
-                        return;
-                    }
-                }
-            }
+            // 使用千问大模型的流式输出
+            streamQwenResponse(imageDigest, source, upload, question, events, resultCallback, streamStartNanos);
             
-            // 发送完成信号，包含完整的AI分析结果
-            emitter.send("data: {\"type\":\"result\",\"stage\":\"complete\",\"message\":\"分析完成\",\"progress\":100,\"result\":\"" + 
-                       fullResult.replace("\"", "\\\"").replace("\n", "\\n") + "\"}\n\n");
+        } catch (Exception e) {
+            System.err.println("流式分析过程中发生错误: " + e.getMessage());
+            e.printStackTrace();
+            try {
+                events.error("分析失败: " + e.getMessage());
+                events.complete();
+            } catch (IOException ex) {
+                events.completeWithError(ex);
+            }
+        } finally {
+            if (cleanup != null) {
+                cleanup.run();
+            }
+        }
+    }
+    
+    private void streamQwenResponse(String imageDigest, ImageSource source, Upload upload, String question, SseEventWriter events, Consumer<AnalysisResult> resultCallback, long streamStartNanos) throws IOException {
+        events.stream("正在连接AI服务...");
+        if (upload != null) {
+            upload.store();
+        }
+        
+        String cacheKey = cacheKey(imageDigest, question);
+        String cached = analysisCache.get(cacheKey);
+        if (cached != null) {
+            // 命中缓存，一次性发送完整结果
+            events.stream("AI分析结果：");
+            events.stream(cached);
+            aiMetrics.recordTimeToFirstToken(System.nanoTime() - streamStartNanos);
+            finishStream(events, new AnalysisResult(cached, modelClient.getModel()), resultCallback);
+            return;
+        }
+        
+        AnalysisResult similar = findSimilar(imageDigest, upload, question);
+        if (similar != null) {
+            events.progress("reused", "与历史图片相似（哈希距离 " + similar.getReusedDistance() + "），复用其识别结果", 100);
+            events.stream("AI分析结果：");
+            events.stream(similar.getText());
+            aiMetrics.recordTimeToFirstToken(System.nanoTime() - streamStartNanos);
+            finishStream(events, similar, resultCallback);
+            return;
+        }
+        Long phash = upload != null ? upload.hash() : null;
+        
+        events.stream("AI分析结果：");
+        
+        // 相同的并发请求共享同一次模型调用，后加入的订阅者先收到已生成的内容
+        InFlightAnalyses.Join join = inFlightAnalyses.join(cacheKey);
+        AnalysisFlight flight = join.getFlight();
+        sseDeliveryExecutor.subscribe(flight, new AnalysisFlight.Listener() {
+            private boolean firstToken = true;
             
-            // 调用回调函数，传递完整的AI分析结果
-            if (resultCallback != null) {
-                resultCallback.accept(fullResult);
+            @Override
+            public void onPreprocessed(PreparedImage image) throws IOException {
+                if (image.isDerived()) {
+                    events.progress("preprocessed", "图片已压缩: " + image.getOriginalBytes() / 1024 + "KB -> "
+                            + image.getPreparedBytes() / 1024 + "KB", 60);
+                }
             }
             
-            emitter.complete();
+            @Override
+            public void onDelta(String delta) throws IOException {
+                long sendStart = System.nanoTime();
+                events.stream(delta);
+                long sent = System.nanoTime();
+                aiMetrics.recordEmit(sent - sendStart);
+                if (firstToken) {
+                    firstToken = false;
+                    aiMetrics.recordTimeToFirstToken(sent - streamStartNanos);
+                }
+            }
             
-        } catch (Exception e) {
+            @Override
+            public void onFinished(String fullResult, Throwable error) {
+                try {
+                    if (error != null) {
+                        events.error("流式输出失败: " + error.getMessage());
+                        events.complete();
+                    } else if (fullResult.isEmpty()) {
+                        events.error("AI分析失败: 无法获取分析结果");
+                        events.complete();
+                    } else {
+                        finishStream(events, new AnalysisResult(fullResult, flight.getModel(), phash), resultCallback);
+                    }
+                } catch (IOException e) {
+                    // 客户端已断开连接
+                    System.err.println("流式数据发送失败: " + e.getMessage());
+                }
+            }
+        });
+        
+        if (join.isOwner()) {
+            runFlight(flight, cacheKey, imageDigest, source, question);
+        }
+    }
+    
+    private void finishStream(SseEventWriter events, AnalysisResult result, Consumer<AnalysisResult> resultCallback) throws IOException {
+        // 发送完成信号，客户端已通过 stream 事件拼出全文时可不再重复发送
+        events.result(sseIncludeFullResult ? result.getText() : null);
+        
+        // 调用回调函数，传递完整的AI分析结果及实际回答的模型
+        if (resultCallback != null) {
+            resultCallback.accept(result);
+        }
+        
+        events.complete();
+    }
+    
+    /**
+     * 延迟获取待分析的图片，命中缓存时不做预处理
+     */
+    @FunctionalInterface
+    private interface ImageSource {
+        PreparedImage prepare();
+    }
+    
+    /**
+     * 接口收到的上传图片：原图只保存一次，dHash 在第一个未命中结果缓存的问题中计算，之后复用
+     * 计算哈希需要解码图片，用 ReentrantLock 而不是 synchronized
+     */
+    private class Upload {
+        private final SpooledImage image;
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean stored;
+        private boolean hashed;
+        private Long hash;
+        
+        Upload(SpooledImage image) {
+            this.image = image;
+        }
+        
+        void store() throws IOException {
+            lock.lock();
             try {
-                emitter.send("data: {\"type\":\"error\",\"message\":\"流式输出失败: " + e.getMessage().replace("\"", "\\\"") + "\"}\n\n");
-                emitter.complete();
-            } catch (IOException ex) {
-                emitter.completeWithError(ex);
+                if (!stored) {
+                    imageBlobStore.store(image);
+                    stored = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * @return 未启用相似图片检测或图片无法解码时返回null
+         */
+        Long hash() {
+            lock.lock();
+            try {
+                if (!hashed) {
+                    hash = similarImageIndex.hash(image);
+                    hashed = true;
+                }
+                return hash;
+            } finally {
+                lock.unlock();
             }
         }
     }
     
+    /**
+     * 多个问题共享的图片：第一个未命中缓存的问题调用时预处理，之后都返回同一结果的视图，全部结束后统一清理
+     * 各问题传给模型客户端的是同一个本地文件地址，DashScope 客户端按通道只上传一次（见 ImageUploads）
+     * 预处理会读写文件，用 ReentrantLock 而不是 synchronized
+     */
+    private static class SharedImageSource implements ImageSource, AutoCloseable {
+        private final ImageSource source;
+        private final ReentrantLock lock = new ReentrantLock();
+        private PreparedImage prepared;
+        
+        SharedImageSource(ImageSource source) {
+            this.source = source;
+        }
+        
+        @Override
+        public PreparedImage prepare() {
+            lock.lock();
+            try {
+                if (prepared == null) {
+                    prepared = source.prepare();
+                }
+                return prepared.share();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (prepared != null) {
+                    prepared.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * 多问题分析中一个问题的回答，result 和 error 只有一个不为空
+     */
+    public static class QuestionAnswer {
+        private final String question;
+        private final AnalysisResult result;
+        private final String error;
+        
+        QuestionAnswer(String question, AnalysisResult result, String error) {
+            this.question = question;
+            this.result = result;
+            this.error = error;
+        }
+        
+        public String getQuestion() {
+            return question;
+        }
+        
+        /**
+         * 回答内容、实际回答的模型及相似图片复用信息，失败时为空
+         */
+        public AnalysisResult getResult() {
+            return result;
+        }
+        
+        public String getError() {
+            return error;
+        }
+        
+        public boolean isSuccess() {
+            return result != null;
+        }
+    }
+    
+    private static String digestOf(String imageUrl) {
+        return AnalysisCache.sha256Hex(imageUrl.getBytes(StandardCharsets.UTF_8));
+    }
+    
     public String getDefaultAnalysis() {
         return analyzeImage(
             "https://help-static-aliyun-doc.aliyuncs.com/file-manage-files/zh-CN/20241022/emyrja/dog_and_girl.jpeg",
             "图中描绘的是什么景象?"
-        );
+        ).getText();
     }
 }
\ No newline at end of file
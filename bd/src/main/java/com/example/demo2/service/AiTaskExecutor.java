@@ -0,0 +1,135 @@
+package com.example.demo2.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * AI调用专用线程池
+ * 最大并发数和等待队列都有上限，队列满时立即抛出 RejectedExecutionException，
+ * 由调用方转换为429或SSE错误事件，避免请求在公共线程池中无限堆积
+ *
+ * spring.threads.virtual.enabled=true 且运行在 Java 21 及以上时，工作线程为虚拟线程：
+ * 并发上限和队列语义不变（限制的是模型调用并发），但阻塞在模型HTTP调用上的任务不占用平台线程
+ */
+@Service
+public class AiTaskExecutor {
+
+    @Value("${ai.executor.max-concurrency:16}")
+    private int maxConcurrency;
+
+    @Value("${ai.executor.queue-capacity:32}")
+    private int queueCapacity;
+
+    @Value("${ai.executor.keep-alive-seconds:60}")
+    private long keepAliveSeconds;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    private boolean virtualThreads;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        virtualThreads = virtualThreadsEnabled && Runtime.version().feature() >= 21;
+        ThreadFactory threadFactory;
+        if (virtualThreads) {
+            threadFactory = new VirtualThreadTaskExecutor("ai-exec-").getVirtualThreadFactory();
+        } else {
+            AtomicInteger threadIndex = new AtomicInteger();
+            threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "ai-exec-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+        executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                keepAliveSeconds, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory,
+                (runnable, pool) -> {
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException("AI任务队列已满");
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交任务，队列已满时抛出 RejectedExecutionException
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * 提交有返回值的任务，队列已满时抛出 RejectedExecutionException
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    /**
+     * 线程池状态
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxConcurrency", maxConcurrency);
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("virtualThreads", virtualThreads);
+        stats.put("activeCount", executor.getActiveCount());
+        stats.put("queueSize", executor.getQueue().size());
+        stats.put("completedTasks", executor.getCompletedTaskCount());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * 已关闭时提交任务总是被拒绝，不应再重试
+     */
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.demo2.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片分析结果缓存
+ * 以 图片内容哈希 + 规范化问题 + 模型名 作为键，内存层按容量和TTL淘汰，
+ * 可选回退到 image_records 表按 cache_key 查询
+ */
+@Service
+public class AnalysisCache {
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.cache.max-size:1000}")
+    private int maxSize;
+
+    @Value("${ai.cache.ttl-seconds:3600}")
+    private long ttlSeconds;
+
+    @Value("${ai.cache.db-fallback:false}")
+    private boolean dbFallback;
+
+    @Autowired
+    private ImageRecordService imageRecordService;
+
+    // accessOrder=true，迭代顺序即LRU顺序
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong dbHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong missTotalMillis = new AtomicLong();
+
+    /**
+     * 构建缓存键
+     */
+    public String buildKey(String imageDigest, String question, String model) {
+        return sha256Hex((imageDigest + "\n" + model + "\n" + normalizeQuestion(question))
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 构建问题键，与图片无关，用于判断两次分析是否为同一问题
+     */
+    public String buildQuestionKey(String question, String model) {
+        return sha256Hex((model + "\n" + normalizeQuestion(question)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 查询缓存，未命中返回null
+     */
+    public String get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired()) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+
+        if (dbFallback) {
+            try {
+                String stored = imageRecordService.findResultByCacheKey(key);
+                if (stored != null) {
+                    dbHits.incrementAndGet();
+                    putInMemory(key, stored);
+                    return stored;
+                }
+            } catch (Exception e) {
+                System.err.println("缓存回退查询数据库失败: " + e.getMessage());
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入缓存
+     */
+    public void put(String key, String value) {
+        if (!enabled || value == null) {
+            return;
+        }
+        putInMemory(key, value);
+    }
+
+    /**
+     * 记录一次未命中时实际调用模型的耗时，用于估算缓存节省的时间
+     */
+    public void recordModelLatency(long millis) {
+        missCount.incrementAndGet();
+        missTotalMillis.addAndGet(millis);
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get() + dbHits.get();
+        long total = hitCount + misses.get();
+        long calls = missCount.get();
+        long avgModelMillis = calls > 0 ? missTotalMillis.get() / calls : 0;
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("size", size());
+        stats.put("maxSize", maxSize);
+        stats.put("ttlSeconds", ttlSeconds);
+        stats.put("dbFallback", dbFallback);
+        stats.put("hits", hits.get());
+        stats.put("dbHits", dbHits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("hitRate", total > 0 ? (double) hitCount / total : 0.0);
+        stats.put("avgModelMillis", avgModelMillis);
+        stats.put("estimatedSavedMillis", hitCount * avgModelMillis);
+        return stats;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getDbHitCount() {
+        return dbHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void putInMemory(String key, String value) {
+        long expiresAt = System.currentTimeMillis() + ttlSeconds * 1000;
+        synchronized (entries) {
+            entries.put(key, new CacheEntry(value, expiresAt));
+            // 按LRU顺序淘汰超出容量的项
+            if (entries.size() > maxSize) {
+                Iterator<CacheEntry> it = entries.values().iterator();
+                while (it.hasNext() && entries.size() > maxSize) {
+                    it.next();
+                    it.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    static String normalizeQuestion(String question) {
+        if (question == null) {
+            return "";
+        }
+        return question.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 计算SHA-256十六进制摘要
+     */
+    public static String sha256Hex(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private static class CacheEntry {
+        final String value;
+        final long expiresAt;
+
+        CacheEntry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.demo2.service;
+
+/**
+ * 图片分析失败（模型调用出错、超时或没有返回内容）
+ * 失败结果不会写入缓存和历史记录
+ */
+public class AnalysisFailedException extends RuntimeException {
+
+    public AnalysisFailedException(String message) {
+        super(message);
+    }
+
+    public AnalysisFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
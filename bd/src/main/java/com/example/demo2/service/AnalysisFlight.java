@@ -0,0 +1,305 @@
+package com.example.demo2.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一次正在进行的模型调用
+ * 相同请求的多个调用方共享同一个 AnalysisFlight：阻塞调用方等待 getResult()，
+ * 流式调用方订阅后先收到已生成的内容，再按顺序收到后续增量
+ *
+ * 模型调用线程在锁内只把增量追加到各订阅者自己的缓冲区，由订阅时指定的 Executor 在锁外推送，
+ * 慢客户端不阻塞模型调用和其他订阅者；缓冲的内容超过上限时该订阅者被移除，并收到失败的 onFinished
+ */
+public class AnalysisFlight {
+
+    /**
+     * 增量内容订阅者，同一订阅者的回调依次执行；抛出异常时（例如客户端断开）不再推送，不影响其他订阅者
+     */
+    public interface Listener {
+
+        default void onPreprocessed(PreparedImage image) throws IOException {
+        }
+
+        void onDelta(String delta) throws IOException;
+
+        /**
+         * 所有增量之后调用一次；error 不为空时为调用失败，或本订阅者接收过慢已被移除
+         */
+        default void onFinished(String fullText, Throwable error) throws IOException {
+        }
+    }
+
+    private final StringBuilder text = new StringBuilder();
+
+    private final List<Subscriber> subscribers = new ArrayList<>();
+
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    private boolean done;
+
+    private Throwable error;
+
+    // 实际回答的模型，成功完成前设置
+    private volatile String model;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 订阅增量内容，已生成的内容会先作为一个增量补发
+     * @param delivery 执行推送的线程
+     * @param maxBufferedChars 尚未推送的增量字符数上限，补发的内容不计入
+     */
+    public void subscribe(Listener listener, Executor delivery, int maxBufferedChars) {
+        Subscriber subscriber = new Subscriber(listener, delivery, maxBufferedChars);
+        lock.lock();
+        try {
+            if (text.length() > 0) {
+                subscriber.replay(text.toString());
+            }
+            if (done) {
+                subscriber.finish(text.toString(), error);
+            } else {
+                subscribers.add(subscriber);
+            }
+        } finally {
+            lock.unlock();
+        }
+        subscriber.schedule();
+    }
+
+    /**
+     * 模型调用的最终结果，完成时为完整文本
+     */
+    public CompletableFuture<String> getResult() {
+        return result;
+    }
+
+    void preprocessed(PreparedImage image) {
+        List<Subscriber> targets;
+        lock.lock();
+        try {
+            targets = new ArrayList<>(subscribers);
+            subscribers.removeIf(subscriber -> !subscriber.preprocessed(image));
+        } finally {
+            lock.unlock();
+        }
+        targets.forEach(Subscriber::schedule);
+    }
+
+    void publish(String delta) {
+        List<Subscriber> targets;
+        lock.lock();
+        try {
+            text.append(delta);
+            targets = new ArrayList<>(subscribers);
+            subscribers.removeIf(subscriber -> !subscriber.offer(delta));
+        } finally {
+            lock.unlock();
+        }
+        targets.forEach(Subscriber::schedule);
+    }
+
+    /**
+     * 实际回答的模型，getResult() 成功完成后可用
+     */
+    public String getModel() {
+        return model;
+    }
+
+    void answeredBy(String model) {
+        this.model = model;
+    }
+
+    String getText() {
+        lock.lock();
+        try {
+            return text.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void complete() {
+        String fullText = finish(null);
+        result.complete(fullText);
+    }
+
+    void fail(Throwable error) {
+        finish(error);
+        result.completeExceptionally(error);
+    }
+
+    private String finish(Throwable error) {
+        List<Subscriber> targets;
+        String fullText;
+        lock.lock();
+        try {
+            done = true;
+            this.error = error;
+            fullText = text.toString();
+            targets = new ArrayList<>(subscribers);
+            subscribers.clear();
+            for (Subscriber subscriber : targets) {
+                subscriber.finish(fullText, error);
+            }
+        } finally {
+            lock.unlock();
+        }
+        targets.forEach(Subscriber::schedule);
+        return fullText;
+    }
+
+    /**
+     * 一个订阅者待推送的内容，连续的增量合并为一次推送；同一时间最多一个推送任务在执行
+     */
+    private static class Subscriber implements Runnable {
+        private final Listener listener;
+        private final Executor delivery;
+        private final int maxBufferedChars;
+        private final ReentrantLock lock = new ReentrantLock();
+        private PreparedImage image;
+        private final StringBuilder pending = new StringBuilder();
+        private boolean finished;
+        private String fullText;
+        private Throwable error;
+        private boolean scheduled;
+        private boolean closed;
+
+        Subscriber(Listener listener, Executor delivery, int maxBufferedChars) {
+            this.listener = listener;
+            this.delivery = delivery;
+            this.maxBufferedChars = maxBufferedChars;
+        }
+
+        void replay(String text) {
+            pending.append(text);
+        }
+
+        /**
+         * @return false 表示订阅者已断开，应移除
+         */
+        boolean preprocessed(PreparedImage image) {
+            lock.lock();
+            try {
+                this.image = image;
+                return !closed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return false 表示订阅者已断开或缓冲已满，应移除
+         */
+        boolean offer(String delta) {
+            lock.lock();
+            try {
+                if (closed || finished) {
+                    return false;
+                }
+                if (pending.length() + delta.length() > maxBufferedChars) {
+                    pending.setLength(0);
+                    finished = true;
+                    error = new IOException("客户端接收过慢，已停止推送");
+                    return false;
+                }
+                pending.append(delta);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void finish(String fullText, Throwable error) {
+            lock.lock();
+            try {
+                if (!finished) {
+                    finished = true;
+                    this.fullText = fullText;
+                    this.error = error;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 有待推送的内容且没有推送任务在执行时提交一个
+         */
+        void schedule() {
+            lock.lock();
+            try {
+                if (scheduled || closed || (image == null && pending.length() == 0 && !finished)) {
+                    return;
+                }
+                scheduled = true;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                delivery.execute(this);
+            } catch (RejectedExecutionException e) {
+                // 服务正在关闭
+                close();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                PreparedImage image;
+                String delta;
+                boolean last;
+                lock.lock();
+                try {
+                    image = this.image;
+                    this.image = null;
+                    delta = pending.length() > 0 ? pending.toString() : null;
+                    pending.setLength(0);
+                    last = finished;
+                    if (image == null && delta == null && !last) {
+                        scheduled = false;
+                        return;
+                    }
+                    if (last) {
+                        closed = true;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    if (image != null) {
+                        listener.onPreprocessed(image);
+                    }
+                    if (delta != null) {
+                        listener.onDelta(delta);
+                    }
+                    if (last) {
+                        listener.onFinished(fullText, error);
+                        return;
+                    }
+                } catch (Exception e) {
+                    close();
+                    return;
+                }
+            }
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                closed = true;
+                image = null;
+                pending.setLength(0);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,534 @@
+package com.example.demo2.service;
+
+import com.example.demo2.config.DatabaseReadyEvent;
+import com.example.demo2.entity.AnalysisJob;
+import com.example.demo2.entity.ImageRecord;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 异步分析任务的提交、执行和订阅
+ *
+ * 任务持久化在 analysis_jobs 表中，图片保存在 ImageBlobStore，提交后立即返回任务ID。
+ * 工作线程从表中认领排队的任务并执行，客户端断开不影响执行；服务关闭时执行中的任务重新排队，
+ * 启动时把上次异常退出时仍在执行的任务重新排队（按单实例部署设计）。
+ * 执行中的任务通过 AnalysisFlight 缓存已生成的内容，订阅者可从任意偏移量开始接收。
+ */
+@Service
+public class AnalysisJobRunner {
+
+    @Value("${ai.jobs.workers:4}")
+    private int workers;
+
+    @Value("${ai.jobs.poll-millis:5000}")
+    private long pollMillis;
+
+    @Value("${ai.jobs.max-queued:1000}")
+    private long maxQueued;
+
+    @Value("${ai.jobs.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${ai.jobs.retention-hours:24}")
+    private long retentionHours;
+
+    @Value("${ai.sse.include-full-result:true}")
+    private boolean sseIncludeFullResult;
+
+    @Autowired
+    private AnalysisJobService jobService;
+
+    @Autowired
+    private AiService aiService;
+
+    @Autowired
+    private ImageRecordWriter imageRecordWriter;
+
+    @Autowired
+    private ImageBlobStore imageBlobStore;
+
+    @Autowired
+    private SseDeliveryExecutor sseDeliveryExecutor;
+
+    // 本实例正在排队或执行的任务，结束并更新数据库后移除
+    private final Map<String, JobHandle> handles = new ConcurrentHashMap<>();
+
+    // 新提交任务的唤醒队列，任务本身以数据库为准
+    private final BlockingQueue<String> ready = new LinkedBlockingQueue<>();
+
+    private final List<Thread> workerThreads = new ArrayList<>();
+
+    private ScheduledExecutorService cleaner;
+
+    private volatile boolean running;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong succeededCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong recoveredCount = new AtomicLong();
+
+    /**
+     * 数据库结构初始化之后启动工作线程
+     */
+    @EventListener(DatabaseReadyEvent.class)
+    public void start() {
+        try {
+            int recovered = jobService.requeueAllRunning();
+            recoveredCount.addAndGet(recovered);
+            if (recovered > 0) {
+                System.out.println("已重新排队 " + recovered + " 个未完成的分析任务");
+            }
+        } catch (Exception e) {
+            System.err.println("恢复分析任务失败: " + e.getMessage());
+        }
+
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::runWorker, "analysis-job-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workerThreads.add(worker);
+        }
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "analysis-job-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        cleaner.scheduleWithFixedDelay(this::deleteExpired, 1, 60, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 提交分析任务，图片先存入 ImageBlobStore
+     * @throws RejectedExecutionException 排队任务数已达上限
+     */
+    public AnalysisJob submit(SpooledImage image, String question) throws IOException {
+        if (jobService.countQueued() >= maxQueued) {
+            throw new RejectedExecutionException("分析任务队列已满");
+        }
+        AnalysisJob job = new AnalysisJob();
+        job.setId(UUID.randomUUID().toString().replace("-", ""));
+        job.setStatus(AnalysisJob.Status.QUEUED);
+        job.setImageDigest(imageBlobStore.store(image));
+        job.setQuestion(question);
+        job.setCreatedAt(new Date());
+        // 插入前登记 handle：插入后空闲的工作线程可能立即认领并结束任务，之后再登记会留下无人移除的 handle
+        String id = job.getId();
+        JobHandle handle = new JobHandle();
+        handles.put(id, handle);
+        try {
+            jobService.insert(job);
+        } catch (RuntimeException e) {
+            handles.remove(id, handle);
+            throw e;
+        }
+        submittedCount.incrementAndGet();
+        ready.offer(id);
+        return job;
+    }
+
+    /**
+     * 查询任务，执行中的任务附带已生成的内容
+     */
+    public Map<String, Object> describe(String id) {
+        AnalysisJob job = jobService.findById(id);
+        if (job == null) {
+            return null;
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", job.getId());
+        data.put("status", job.getStatus());
+        data.put("question", job.getQuestion());
+        data.put("attempts", job.getAttempts());
+        data.put("createdAt", job.getCreatedAt());
+        data.put("startedAt", job.getStartedAt());
+        data.put("finishedAt", job.getFinishedAt());
+        if (job.getStatus() == AnalysisJob.Status.SUCCEEDED) {
+            data.put("result", job.getResultText());
+        } else if (job.getStatus() == AnalysisJob.Status.FAILED) {
+            data.put("error", job.getErrorMessage());
+        } else {
+            JobHandle handle = handles.get(id);
+            String partial = handle != null ? handle.getPartialText() : null;
+            if (partial != null) {
+                data.put("partialResult", partial);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 订阅任务事件：先补发 offset 之后已生成的内容，再接收后续增量，任务结束时发送完成或错误事件
+     * @param offset 客户端已收到内容的字符数，断线重连时传入
+     * @return 任务不存在时返回false
+     */
+    public boolean attach(String id, int offset, SseEventWriter events) throws IOException {
+        JobHandle handle = handles.get(id);
+        if (handle != null) {
+            handle.attach(events, offset);
+            return true;
+        }
+        AnalysisJob job = jobService.findById(id);
+        if (job == null) {
+            return false;
+        }
+        if (job.getStatus() == AnalysisJob.Status.QUEUED) {
+            // 重启后恢复的任务，认领时使用同一个 handle
+            handle = handles.computeIfAbsent(id, k -> new JobHandle());
+            // 读取状态之后任务可能已被认领并结束（finish 先更新数据库再移除 handle），重新读取，已结束时不留下 handle
+            try {
+                job = jobService.findById(id);
+            } catch (RuntimeException e) {
+                handles.remove(id, handle);
+                throw e;
+            }
+            if (job != null && !job.getStatus().isFinished()) {
+                handle.attach(events, offset);
+                return true;
+            }
+            handles.remove(id, handle);
+            if (job == null) {
+                return false;
+            }
+        }
+        if (job.getStatus().isFinished()) {
+            events.progress(job.getStatus().name().toLowerCase(), "任务已结束", 100);
+            replay(events, offset, job.getResultText(), job.getErrorMessage());
+        } else {
+            events.progress("running", "任务正在其他实例执行，请稍后查询结果", 60);
+            events.complete();
+        }
+        return true;
+    }
+
+    /**
+     * 任务执行统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("workers", workers);
+        stats.put("active", handles.size());
+        stats.put("submitted", submittedCount.get());
+        stats.put("succeeded", succeededCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("recovered", recoveredCount.get());
+        return stats;
+    }
+
+    public int getActiveCount() {
+        return handles.size();
+    }
+
+    public long getSucceededCount() {
+        return succeededCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 停止工作线程，执行中的任务被中断后重新排队，下次启动时继续
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (cleaner != null) {
+            cleaner.shutdownNow();
+        }
+        workerThreads.forEach(Thread::interrupt);
+        for (Thread worker : workerThreads) {
+            try {
+                worker.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runWorker() {
+        while (running) {
+            try {
+                String id = ready.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (id != null) {
+                    tryRun(id);
+                    continue;
+                }
+                // 定期扫描，兜底处理重启后恢复的任务
+                for (AnalysisJob job : jobService.findQueued(workers)) {
+                    if (!running) {
+                        break;
+                    }
+                    tryRun(job.getId());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                System.err.println("分析任务调度失败: " + e.getMessage());
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void tryRun(String id) {
+        if (!jobService.claim(id)) {
+            return;
+        }
+        AnalysisJob job = jobService.findById(id);
+        if (job == null) {
+            return;
+        }
+        JobHandle handle = handles.computeIfAbsent(id, k -> new JobHandle());
+        Path imagePath = imageBlobStore.getOriginal(job.getImageDigest());
+        if (job.getAttempts() > maxAttempts) {
+            finish(job, handle, null, null, "超过最大执行次数");
+            return;
+        }
+        if (imagePath == null) {
+            finish(job, handle, null, null, "图片文件不存在");
+            return;
+        }
+
+        handle.running();
+        AnalysisResult result = null;
+        String error = null;
+        try {
+            SpooledImage image = new SpooledImage(imagePath, job.getImageDigest(), Files.size(imagePath), null);
+            result = aiService.analyzeImage(image, job.getQuestion(), handle::started);
+        } catch (AnalysisFailedException | RejectedExecutionException | IOException e) {
+            error = e.getMessage();
+        } catch (Exception e) {
+            // 意外异常也要结束任务，否则任务停留在 RUNNING 且 handle 不会移除，订阅者一直等待
+            System.err.println("分析任务执行异常: " + id + " - " + e);
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        if (result == null && !running) {
+            // 服务关闭打断了执行，重启后继续
+            try {
+                jobService.requeue(id);
+            } catch (Exception e) {
+                System.err.println("任务重新排队失败: " + id + " - " + e.getMessage());
+            }
+            return;
+        }
+        if (result != null) {
+            finish(job, handle, result.getText(), result.getModel(), error);
+        } else {
+            finish(job, handle, null, null, error);
+        }
+    }
+
+    /**
+     * 先更新数据库再通知订阅者并移除 handle，之后的订阅直接从数据库读取结果
+     */
+    private void finish(AnalysisJob job, JobHandle handle, String result, String model, String error) {
+        try {
+            if (result != null) {
+                jobService.markSucceeded(job.getId(), result);
+                String cacheKey = aiService.cacheKey(job.getImageDigest(), job.getQuestion(), model);
+                imageRecordWriter.submit(new ImageRecord(job.getImageDigest(), result, cacheKey));
+                succeededCount.incrementAndGet();
+            } else {
+                jobService.markFailed(job.getId(), error);
+                failedCount.incrementAndGet();
+            }
+        } catch (Exception e) {
+            System.err.println("保存任务状态失败: " + job.getId() + " - " + e.getMessage());
+        }
+        handle.finish(result, error);
+        handles.remove(job.getId());
+    }
+
+    private void deleteExpired() {
+        try {
+            int deleted = jobService.deleteFinishedBefore(new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours)));
+            if (deleted > 0) {
+                System.out.println("已清理过期分析任务: " + deleted);
+            }
+        } catch (Exception e) {
+            System.err.println("清理过期分析任务失败: " + e.getMessage());
+        }
+    }
+
+    private void replay(SseEventWriter events, int offset, String result, String error) {
+        try {
+            if (result != null && offset < result.length()) {
+                events.stream(result.substring(Math.max(0, offset)));
+            }
+        } catch (IOException e) {
+            return;
+        }
+        sendOutcome(events, result, error);
+    }
+
+    private void sendOutcome(SseEventWriter events, String result, String error) {
+        try {
+            if (error != null) {
+                events.error("AI分析失败: " + error);
+            } else if (result == null || result.isEmpty()) {
+                events.error("AI分析失败: 无法获取分析结果");
+            } else {
+                events.result(sseIncludeFullResult ? result : null);
+            }
+            events.complete();
+        } catch (IOException e) {
+            // 客户端已断开，任务不受影响
+        }
+    }
+
+    /**
+     * 从指定偏移量开始转发增量内容，订阅时补发的已生成内容会被截掉前 offset 个字符，结束时发送结果
+     */
+    AnalysisFlight.Listener fromOffset(SseEventWriter events, int offset) {
+        return new AnalysisFlight.Listener() {
+            private long position;
+
+            @Override
+            public void onDelta(String delta) throws IOException {
+                long end = position + delta.length();
+                if (end > offset) {
+                    events.stream(position >= offset ? delta : delta.substring((int) (offset - position)));
+                }
+                position = end;
+            }
+
+            @Override
+            public void onFinished(String fullText, Throwable error) {
+                sendOutcome(events, fullText, error != null ? error.getMessage() : null);
+            }
+        };
+    }
+
+    /**
+     * 本实例中一个任务的运行状态和等待中的订阅者
+     * 持锁期间会写进度事件，用 ReentrantLock，虚拟线程等锁时不占住载体线程；
+     * ResponseBodyEmitter.send 是 synchronized 方法，写入阻塞期间载体线程仍被占住。增量内容由推送线程在锁外发送
+     */
+    private class JobHandle {
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean started;
+        private AnalysisFlight flight;
+        private boolean finished;
+        private String result;
+        private String error;
+        private final List<Pending> pending = new ArrayList<>();
+
+        void running() {
+            lock.lock();
+            try {
+                started = true;
+                for (Pending p : pending) {
+                    try {
+                        p.events.progress("running", "任务开始执行", 30);
+                    } catch (IOException e) {
+                        // 客户端已断开
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void started(AnalysisFlight flight) {
+            lock.lock();
+            try {
+                this.flight = flight;
+                for (Pending p : pending) {
+                    subscribe(p.events, p.offset);
+                }
+                pending.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void finish(String result, String error) {
+            List<Pending> waiting;
+            lock.lock();
+            try {
+                this.finished = true;
+                this.result = result;
+                this.error = error;
+                waiting = new ArrayList<>(pending);
+                pending.clear();
+            } finally {
+                lock.unlock();
+            }
+            for (Pending p : waiting) {
+                replay(p.events, p.offset, result, error);
+            }
+        }
+
+        void attach(SseEventWriter events, int offset) throws IOException {
+            lock.lock();
+            try {
+                if (!finished) {
+                    events.progress(started ? "running" : "queued", started ? "任务执行中" : "任务排队中", started ? 30 : 10);
+                    if (flight != null) {
+                        subscribe(events, offset);
+                    } else {
+                        pending.add(new Pending(events, offset));
+                    }
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            replay(events, offset, result, error);
+        }
+
+        String getPartialText() {
+            lock.lock();
+            try {
+                return flight != null ? flight.getText() : null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void subscribe(SseEventWriter events, int offset) {
+            try {
+                events.progress("analyzing", "AI正在分析图片内容...", 60);
+            } catch (IOException e) {
+                return;
+            }
+            sseDeliveryExecutor.subscribe(flight, fromOffset(events, offset));
+        }
+    }
+
+    private static class Pending {
+        private final SseEventWriter events;
+        private final int offset;
+
+        Pending(SseEventWriter events, int offset) {
+            this.events = events;
+            this.offset = offset;
+        }
+    }
+}
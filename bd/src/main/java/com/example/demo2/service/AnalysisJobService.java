@@ -0,0 +1,118 @@
+package com.example.demo2.service;
+
+import com.example.demo2.entity.AnalysisJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * analysis_jobs 表的读写
+ * 任务状态只通过带原状态条件的 UPDATE 变更，多个工作线程同时认领同一任务时只有一个成功
+ */
+@Service
+public class AnalysisJobService {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private AiMetrics aiMetrics;
+
+    // 错误信息列长度
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final RowMapper<AnalysisJob> rowMapper = (rs, rowNum) -> {
+        AnalysisJob job = new AnalysisJob();
+        job.setId(rs.getString("id"));
+        job.setStatus(AnalysisJob.Status.valueOf(rs.getString("status")));
+        job.setImageDigest(rs.getString("image_digest"));
+        job.setQuestion(rs.getString("question"));
+        job.setResultText(rs.getString("result_text"));
+        job.setErrorMessage(rs.getString("error_message"));
+        job.setAttempts(rs.getInt("attempts"));
+        job.setCreatedAt(rs.getTimestamp("created_at"));
+        job.setStartedAt(rs.getTimestamp("started_at"));
+        job.setFinishedAt(rs.getTimestamp("finished_at"));
+        return job;
+    };
+
+    /**
+     * 新建排队中的任务
+     */
+    public void insert(AnalysisJob job) {
+        String sql = "INSERT INTO analysis_jobs (id, status, image_digest, question, attempts, created_at) VALUES (?, ?, ?, ?, 0, ?)";
+        aiMetrics.timeJdbc("job-insert", () -> jdbcTemplate.update(sql, job.getId(), AnalysisJob.Status.QUEUED.name(),
+                job.getImageDigest(), job.getQuestion(), job.getCreatedAt()));
+    }
+
+    public AnalysisJob findById(String id) {
+        String sql = "SELECT * FROM analysis_jobs WHERE id = ?";
+        List<AnalysisJob> results = aiMetrics.timeJdbc("job-find-by-id", () -> jdbcTemplate.query(sql, rowMapper, id));
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     * 按提交顺序获取排队中的任务
+     */
+    public List<AnalysisJob> findQueued(int limit) {
+        String sql = "SELECT * FROM analysis_jobs WHERE status = 'QUEUED' ORDER BY created_at, id LIMIT ?";
+        return aiMetrics.timeJdbc("job-find-queued", () -> jdbcTemplate.query(sql, rowMapper, limit));
+    }
+
+    public long countQueued() {
+        Long count = aiMetrics.timeJdbc("job-count-queued",
+                () -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM analysis_jobs WHERE status = 'QUEUED'", Long.class));
+        return count != null ? count : 0;
+    }
+
+    /**
+     * 认领排队中的任务
+     * @return 是否认领成功，任务已被其他线程认领时返回false
+     */
+    public boolean claim(String id) {
+        String sql = "UPDATE analysis_jobs SET status = 'RUNNING', attempts = attempts + 1, started_at = ? WHERE id = ? AND status = 'QUEUED'";
+        return aiMetrics.timeJdbc("job-claim", () -> jdbcTemplate.update(sql, new Date(), id)) > 0;
+    }
+
+    public void markSucceeded(String id, String resultText) {
+        String sql = "UPDATE analysis_jobs SET status = 'SUCCEEDED', result_text = ?, error_message = NULL, finished_at = ? WHERE id = ? AND status = 'RUNNING'";
+        aiMetrics.timeJdbc("job-finish", () -> jdbcTemplate.update(sql, resultText, new Date(), id));
+    }
+
+    public void markFailed(String id, String errorMessage) {
+        String message = errorMessage != null && errorMessage.length() > MAX_ERROR_LENGTH
+                ? errorMessage.substring(0, MAX_ERROR_LENGTH) : errorMessage;
+        String sql = "UPDATE analysis_jobs SET status = 'FAILED', error_message = ?, finished_at = ? WHERE id = ? AND status IN ('QUEUED', 'RUNNING')";
+        aiMetrics.timeJdbc("job-finish", () -> jdbcTemplate.update(sql, message, new Date(), id));
+    }
+
+    /**
+     * 执行中被打断（服务关闭）的任务重新排队
+     */
+    public void requeue(String id) {
+        String sql = "UPDATE analysis_jobs SET status = 'QUEUED' WHERE id = ? AND status = 'RUNNING'";
+        aiMetrics.timeJdbc("job-requeue", () -> jdbcTemplate.update(sql, id));
+    }
+
+    /**
+     * 启动时把上次异常退出时仍在执行的任务重新排队
+     * @return 重新排队的任务数
+     */
+    public int requeueAllRunning() {
+        return aiMetrics.timeJdbc("job-requeue",
+                () -> jdbcTemplate.update("UPDATE analysis_jobs SET status = 'QUEUED' WHERE status = 'RUNNING'"));
+    }
+
+    /**
+     * 删除早于指定时间结束的任务
+     * @return 删除的任务数
+     */
+    public int deleteFinishedBefore(Date finishedBefore) {
+        String sql = "DELETE FROM analysis_jobs WHERE status IN ('SUCCEEDED', 'FAILED') AND finished_at < ?";
+        return aiMetrics.timeJdbc("job-delete", () -> jdbcTemplate.update(sql, finishedBefore));
+    }
+}
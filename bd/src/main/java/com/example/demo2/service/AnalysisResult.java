@@ -0,0 +1,64 @@
+package com.example.demo2.service;
+
+/**
+ * 一次分析的结果文本和实际回答的模型
+ * 主模型通道饱和时可能由备用模型回答，缓存键、历史记录和相似图片索引都按实际模型计算
+ * 分析上传图片时附带图片的dHash；复用相似图片的结果时附带来源图片和哈希距离
+ */
+public class AnalysisResult {
+
+    private final String text;
+
+    private final String model;
+
+    // 上传图片的dHash，未计算（命中结果缓存）或无法解码时为空
+    private final Long phash;
+
+    // 复用结果的相似图片摘要，模型回答或命中缓存时为空
+    private final String reusedFrom;
+
+    private final int reusedDistance;
+
+    public AnalysisResult(String text, String model) {
+        this(text, model, null, null, 0);
+    }
+
+    AnalysisResult(String text, String model, Long phash) {
+        this(text, model, phash, null, 0);
+    }
+
+    AnalysisResult(String text, String model, Long phash, String reusedFrom, int reusedDistance) {
+        this.text = text;
+        this.model = model;
+        this.phash = phash;
+        this.reusedFrom = reusedFrom;
+        this.reusedDistance = reusedDistance;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public Long getPhash() {
+        return phash;
+    }
+
+    public boolean isReused() {
+        return reusedFrom != null;
+    }
+
+    public String getReusedFrom() {
+        return reusedFrom;
+    }
+
+    /**
+     * 与来源图片dHash的汉明距离，0~64
+     */
+    public int getReusedDistance() {
+        return reusedDistance;
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.demo2.service;
+
+import com.example.demo2.entity.ImageRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 批量图片分析
+ * 每个批次由一个分发线程按顺序提交，最多同时执行 parallelism 个分析任务，一个完成后再提交下一个；
+ * AI线程池队列已满时分发线程按指数退避等待后重新提交，批次变慢但不会因此失败。
+ * 结果按完成顺序回调，每一项单独报告成功或失败
+ */
+@Service
+public class BatchAnalysisService {
+
+    @Value("${ai.batch.max-parallelism:4}")
+    private int maxParallelism;
+
+    @Value("${ai.batch.max-items:1000}")
+    private int maxItems;
+
+    @Value("${ai.batch.retry-initial-millis:50}")
+    private long retryInitialMillis;
+
+    @Value("${ai.batch.retry-max-millis:1000}")
+    private long retryMaxMillis;
+
+    private final AtomicInteger dispatcherIndex = new AtomicInteger();
+
+    @Autowired
+    private AiService aiService;
+
+    @Autowired
+    private AiTaskExecutor aiTaskExecutor;
+
+    @Autowired
+    private ImageRecordWriter imageRecordWriter;
+
+    /**
+     * 批次中的一项，上传图片或图片URL二选一
+     */
+    public static class BatchItem {
+
+        private final int index;
+
+        private final String name;
+
+        private final SpooledImage image;
+
+        private final String imageUrl;
+
+        private BatchItem(int index, String name, SpooledImage image, String imageUrl) {
+            this.index = index;
+            this.name = name;
+            this.image = image;
+            this.imageUrl = imageUrl;
+        }
+
+        public static BatchItem ofImage(int index, String name, SpooledImage image) {
+            return new BatchItem(index, name, image, null);
+        }
+
+        public static BatchItem ofUrl(int index, String imageUrl) {
+            return new BatchItem(index, imageUrl, null, imageUrl);
+        }
+
+        public void close() {
+            if (image != null) {
+                image.close();
+            }
+        }
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    /**
+     * 实际使用的并发数
+     */
+    public int resolveParallelism(Integer requested) {
+        if (requested == null || requested <= 0) {
+            return maxParallelism;
+        }
+        return Math.min(requested, maxParallelism);
+    }
+
+    /**
+     * 异步分析整个批次，立即返回
+     * @param onResult 每项完成时回调，可能在不同线程中并发调用
+     * @param onComplete 所有项完成后回调，参数为汇总信息
+     */
+    public void analyze(List<BatchItem> items, String question, int parallelism,
+                        Consumer<Map<String, Object>> onResult, Consumer<Map<String, Object>> onComplete) {
+        BatchRun run = new BatchRun(items, question, parallelism, onResult, onComplete);
+        if (items.isEmpty()) {
+            run.finish();
+            return;
+        }
+        Thread dispatcher = new Thread(run::dispatch, "batch-dispatch-" + dispatcherIndex.incrementAndGet());
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    private class BatchRun {
+
+        private final List<BatchItem> items;
+        private final String question;
+        private final Consumer<Map<String, Object>> onResult;
+        private final Consumer<Map<String, Object>> onComplete;
+
+        // 本批次正在执行或排队的任务名额
+        private final Semaphore permits;
+        private final AtomicInteger remaining;
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final long startTime = System.currentTimeMillis();
+
+        BatchRun(List<BatchItem> items, String question, int parallelism,
+                 Consumer<Map<String, Object>> onResult, Consumer<Map<String, Object>> onComplete) {
+            this.items = items;
+            this.question = question;
+            this.permits = new Semaphore(parallelism);
+            this.onResult = onResult;
+            this.onComplete = onComplete;
+            this.remaining = new AtomicInteger(items.size());
+        }
+
+        /**
+         * 分发线程：取得名额后提交下一项，线程池已满时退避重试
+         */
+        void dispatch() {
+            int index = 0;
+            try {
+                for (; index < items.size(); index++) {
+                    permits.acquire();
+                    submit(items.get(index));
+                }
+            } catch (InterruptedException e) {
+                // 未提交的项全部按失败处理
+                for (; index < items.size(); index++) {
+                    fail(items.get(index), "批量分析已中断");
+                }
+            }
+        }
+
+        private void submit(BatchItem item) throws InterruptedException {
+            long backoff = retryInitialMillis;
+            while (true) {
+                try {
+                    aiTaskExecutor.execute(() -> {
+                        try {
+                            process(item);
+                        } finally {
+                            item.close();
+                            permits.release();
+                            itemDone();
+                        }
+                    });
+                    return;
+                } catch (RejectedExecutionException e) {
+                    if (aiTaskExecutor.isShutdown()) {
+                        permits.release();
+                        fail(item, "服务正在关闭");
+                        return;
+                    }
+                }
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, retryMaxMillis);
+            }
+        }
+
+        private void fail(BatchItem item, String message) {
+            item.close();
+            report(item, false, message);
+            itemDone();
+        }
+
+        private void process(BatchItem item) {
+            try {
+                AnalysisResult result;
+                String cacheKey;
+                if (item.image != null) {
+                    result = aiService.analyzeImage(item.image, question);
+                    cacheKey = aiService.cacheKey(item.image.getDigest(), question, result.getModel());
+                } else {
+                    result = aiService.analyzeImage(item.imageUrl, question);
+                    cacheKey = null;
+                }
+                // 历史记录由 ImageRecordWriter 按批写入
+                // 上传图片已由控制器存入 ImageBlobStore，以摘要引用
+                String imageIdentifier = item.image != null ? item.image.getDigest() : item.imageUrl;
+                imageRecordWriter.submit(new ImageRecord(imageIdentifier, result.getText(), cacheKey));
+                report(item, true, result.getText());
+            } catch (Exception e) {
+                // 分析失败时抛出 AnalysisFailedException，不写入历史记录
+                report(item, false, "错误: " + e.getMessage());
+            }
+        }
+
+        private void report(BatchItem item, boolean success, String text) {
+            (success ? succeeded : failed).incrementAndGet();
+            Map<String, Object> line = new HashMap<>();
+            line.put("type", "item");
+            line.put("index", item.index);
+            line.put("name", item.name);
+            line.put("success", success);
+            line.put(success ? "result" : "message", text);
+            onResult.accept(line);
+        }
+
+        private void itemDone() {
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        void finish() {
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("type", "summary");
+            summary.put("total", items.size());
+            summary.put("succeeded", succeeded.get());
+            summary.put("failed", failed.get());
+            summary.put("elapsedMillis", System.currentTimeMillis() - startTime);
+            onComplete.accept(summary);
+        }
+    }
+}
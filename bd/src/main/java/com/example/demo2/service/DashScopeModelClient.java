@@ -0,0 +1,283 @@
+package com.example.demo2.service;
+
+import com.alibaba.dashscope.aigc.multimodalconversation.MultiModalConversation;
+import com.alibaba.dashscope.aigc.multimodalconversation.MultiModalConversationParam;
+import com.alibaba.dashscope.aigc.multimodalconversation.MultiModalConversationResult;
+import com.alibaba.dashscope.common.MultiModalMessage;
+import com.alibaba.dashscope.common.Role;
+import com.alibaba.dashscope.common.Status;
+import com.alibaba.dashscope.exception.ApiException;
+import com.alibaba.dashscope.protocol.ConnectionConfigurations;
+import com.alibaba.dashscope.utils.Constants;
+import com.alibaba.dashscope.utils.OSSUtils;
+import io.reactivex.Flowable;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 通义千问多模态模型客户端
+ * 第一次调用时配置SDK共享的HTTP连接池并创建会话对象（SDK及其 OkHttp、RxJava、Gson 依赖的类加载不计入启动时间），
+ * 之后所有请求复用已建立的连接；每次调用使用的 API Key 和模型由 ModelRouter 分配。
+ * 本地图片由本客户端上传到 DashScope 临时存储并缓存地址，同一张图片的多个问题只上传一次
+ */
+@Service
+@Qualifier("modelBackend")
+@ConditionalOnProperty(name = "ai.model.client", havingValue = "dashscope", matchIfMissing = true)
+public class DashScopeModelClient implements ModelClient {
+
+    private static final String OKHTTP_FACTORY = "com.alibaba.dashscope.protocol.okhttp.OkHttpClientFactory";
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    @Value("${ai.dashscope.connect-timeout-seconds:10}")
+    private long connectTimeoutSeconds;
+
+    @Value("${ai.dashscope.read-timeout-seconds:120}")
+    private long readTimeoutSeconds;
+
+    @Value("${ai.dashscope.write-timeout-seconds:60}")
+    private long writeTimeoutSeconds;
+
+    @Value("${ai.dashscope.keep-alive-seconds:300}")
+    private long keepAliveSeconds;
+
+    @Value("${ai.dashscope.connection-pool-size:32}")
+    private int connectionPoolSize;
+
+    @Value("${ai.dashscope.max-requests:64}")
+    private int maxRequests;
+
+    @Value("${ai.dashscope.upload-cache-size:256}")
+    private int uploadCacheSize;
+
+    @Value("${ai.dashscope.upload-ttl-minutes:60}")
+    private long uploadTtlMinutes;
+
+    private ImageUploads imageUploads;
+
+    // 系统消息对所有请求相同，与会话对象一起在第一次调用时构建
+    private volatile MultiModalMessage systemMessage;
+
+    // 只使用 streamCall，实例在线程间共享；创建前为null
+    private volatile MultiModalConversation conversation;
+
+    private final AtomicInteger activeCalls = new AtomicInteger();
+    private final AtomicLong totalCalls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        // 用 lambda 而不是方法引用，OSSUtils 在第一次上传时才加载
+        imageUploads = new ImageUploads((model, filePath, apiKey) -> OSSUtils.upload(model, filePath, apiKey),
+                uploadCacheSize, TimeUnit.MINUTES.toMillis(uploadTtlMinutes));
+        if (modelRouter.getRoutes().stream().allMatch(route -> route.getApiKey().isEmpty())) {
+            System.err.println("未配置 DASHSCOPE_API_KEY，模型调用将失败");
+        }
+    }
+
+    /**
+     * 取得共享的会话对象，第一次调用时创建
+     */
+    private MultiModalConversation conversation() {
+        MultiModalConversation current = conversation;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (conversation == null) {
+                initSdk();
+            }
+            return conversation;
+        }
+    }
+
+    private void initSdk() {
+        long start = System.nanoTime();
+        // 必须在第一次调用前设置，SDK在首次请求时按此配置创建共享的连接池
+        Constants.connectionConfigurations = ConnectionConfigurations.builder()
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+                .readTimeout(Duration.ofSeconds(readTimeoutSeconds))
+                .writeTimeout(Duration.ofSeconds(writeTimeoutSeconds))
+                .connectionIdleTimeout(Duration.ofSeconds(keepAliveSeconds))
+                .connectionPoolSize(connectionPoolSize)
+                .maximumAsyncRequests(maxRequests)
+                .maximumAsyncRequestsPerHost(maxRequests)
+                .build();
+        systemMessage = MultiModalMessage.builder().role(Role.SYSTEM.getValue())
+                .content(Collections.singletonList(
+                        Collections.singletonMap("text", "You are a helpful assistant."))).build();
+        conversation = new MultiModalConversation();
+        System.out.println("DashScope客户端已初始化: 连接池 " + connectionPoolSize + ", keep-alive " + keepAliveSeconds
+                + "s, 耗时 " + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+
+    /**
+     * 通过路由选择 API Key 和模型；首段输出之前被限流时换一个通道重试
+     */
+    @Override
+    public String streamAnalyze(String imageUrl, String question, Consumer<String> onDelta) throws Exception {
+        activeCalls.incrementAndGet();
+        totalCalls.incrementAndGet();
+        try {
+            Set<ModelRoute> throttledRoutes = new HashSet<>();
+            while (true) {
+                ModelRouter.Lease lease = modelRouter.acquire(throttledRoutes);
+                boolean[] emitted = new boolean[1];
+                try {
+                    // 本地图片按通道上传一次，之后的调用直接使用临时存储地址
+                    String resolvedUrl = imageUploads.resolve(lease.getRoute(), imageUrl);
+                    // 使用增量输出，模型每生成一段就立即回调
+                    Flowable<MultiModalConversationResult> flowable = conversation().streamCall(buildParam(lease.getRoute(), resolvedUrl, question));
+                    flowable.blockingForEach(chunk -> {
+                        String delta = extractText(chunk);
+                        if (delta != null && !delta.isEmpty()) {
+                            if (!emitted[0]) {
+                                emitted[0] = true;
+                                lease.firstToken();
+                            }
+                            onDelta.accept(delta);
+                        }
+                    });
+                    lease.success();
+                    return lease.getRoute().getModel();
+                } catch (Exception e) {
+                    if (!isThrottled(e)) {
+                        lease.failed();
+                        throw e;
+                    }
+                    lease.throttled();
+                    throttledRoutes.add(lease.getRoute());
+                    System.err.println("模型通道 " + lease.getRoute().getName() + " 被限流");
+                    // 已经输出过内容时不能换通道重来，其余通道都被限流时放弃
+                    if (emitted[0] || throttledRoutes.containsAll(modelRouter.getRoutes())) {
+                        throw e;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            failedCalls.incrementAndGet();
+            throw e;
+        } finally {
+            activeCalls.decrementAndGet();
+        }
+    }
+
+    /**
+     * 主模型；单次调用可能由备用模型回答，以 streamAnalyze 的返回值为准
+     */
+    @Override
+    public String getModel() {
+        return modelRouter.getPrimaryModel();
+    }
+
+    /**
+     * 客户端配置、调用计数和连接池状态
+     */
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("model", getModel());
+        stats.put("connectionPoolSize", connectionPoolSize);
+        stats.put("keepAliveSeconds", keepAliveSeconds);
+        stats.put("maxRequests", maxRequests);
+        stats.put("activeCalls", activeCalls.get());
+        stats.put("totalCalls", totalCalls.get());
+        stats.put("failedCalls", failedCalls.get());
+        stats.put("sdkInitialized", conversation != null);
+        stats.put("uploads", imageUploads.getStats());
+        // 读取连接池会创建SDK的HTTP客户端，第一次调用之前不读取
+        if (conversation != null) {
+            stats.putAll(connectionPoolStats());
+        }
+        stats.put("routes", modelRouter.getStats());
+        return stats;
+    }
+
+    private MultiModalConversationParam buildParam(ModelRoute route, String imageUrl, String question) {
+        MultiModalMessage userMessage = MultiModalMessage.builder().role(Role.USER.getValue())
+                .content(Arrays.asList(
+                        Collections.singletonMap("image", imageUrl),
+                        Collections.singletonMap("text", question))).build();
+        MultiModalConversationParam param = MultiModalConversationParam.builder()
+                .apiKey(route.getApiKey())
+                .model(route.getModel())
+                .messages(Arrays.asList(systemMessage, userMessage))
+                .incrementalOutput(true)
+                .build();
+        if (imageUrl.startsWith("oss://")) {
+            // 与SDK自行上传后的处理相同，服务端需按此请求头解析临时存储地址
+            param.putHeader("X-DashScope-OssResourceResolve", "enable");
+        }
+        return param;
+    }
+
+    /**
+     * 服务端限流：HTTP 429 或 Throttling 错误码
+     */
+    private static boolean isThrottled(Throwable error) {
+        // blockingForEach 会把受检异常包装为 RuntimeException
+        Throwable cause = error;
+        if (cause.getClass() == RuntimeException.class && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (!(cause instanceof ApiException) || ((ApiException) cause).getStatus() == null) {
+            return false;
+        }
+        Status status = ((ApiException) cause).getStatus();
+        return status.getStatusCode() == 429 || (status.getCode() != null && status.getCode().startsWith("Throttling"));
+    }
+
+    /**
+     * 读取SDK内部OkHttp连接池的连接数，SDK未公开该对象，按反射读取，失败时不返回
+     */
+    private static Map<String, Object> connectionPoolStats() {
+        Map<String, Object> stats = new HashMap<>();
+        try {
+            Object client = Class.forName(OKHTTP_FACTORY).getMethod("getOkHttpClient").invoke(null);
+            Object pool = client.getClass().getMethod("connectionPool").invoke(client);
+            stats.put("pooledConnections", pool.getClass().getMethod("connectionCount").invoke(pool));
+            stats.put("idleConnections", pool.getClass().getMethod("idleConnectionCount").invoke(pool));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // SDK版本不同时内部结构可能变化，忽略
+        }
+        return stats;
+    }
+
+    /**
+     * 取出结果中的文本内容，增量输出时部分分片可能没有文本
+     */
+    private static String extractText(MultiModalConversationResult result) {
+        if (result == null || result.getOutput() == null || result.getOutput().getChoices() == null
+                || result.getOutput().getChoices().isEmpty()) {
+            return null;
+        }
+        MultiModalMessage message = result.getOutput().getChoices().get(0).getMessage();
+        if (message == null || message.getContent() == null) {
+            return null;
+        }
+        for (Map<String, Object> content : message.getContent()) {
+            Object text = content.get("text");
+            if (text != null) {
+                return text.toString();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.demo2.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 按内容寻址的本地图片存储
+ *
+ * 原图以SHA-256摘要命名，按摘要前两级各2个字符分目录（ab/cd/abcd...），相同内容只保存一份。
+ * 写入时优先创建硬链接（与上传临时文件在同一文件系统时不复制数据），否则复制后原子改名。
+ * 缩略图在后台线程生成，读取时不存在则当场生成；文件名带尺寸和质量，修改配置后按新参数重新生成。
+ * 缩略图生成结果计入 ai.blob.thumbnail 指标，失败时记录警告日志
+ */
+@Service
+public class ImageBlobStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageBlobStore.class);
+
+    private static final Pattern DIGEST = Pattern.compile("[0-9a-f]{64}");
+
+    @Value("${ai.blob.dir:data/blobs}")
+    private String blobDir;
+
+    @Value("${ai.blob.thumbnail-edge:256}")
+    private int thumbnailEdge;
+
+    @Value("${ai.blob.thumbnail-quality:0.8}")
+    private float thumbnailQuality;
+
+    @Autowired
+    private AiMetrics aiMetrics;
+
+    private Path root;
+
+    private ThreadPoolExecutor thumbnailExecutor;
+
+    private final AtomicLong storedCount = new AtomicLong();
+    private final AtomicLong deduplicatedCount = new AtomicLong();
+    private final AtomicLong thumbnailCount = new AtomicLong();
+    private final AtomicLong thumbnailFailedCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(blobDir).toAbsolutePath();
+        Files.createDirectories(root);
+        // 队列满时丢弃，读取缩略图时再生成
+        thumbnailExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(1000), r -> {
+            Thread t = new Thread(r, "blob-thumbnail");
+            t.setDaemon(true);
+            return t;
+        }, (r, executor) -> {
+            if (!executor.isShutdown()) {
+                aiMetrics.recordThumbnail("dropped");
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        thumbnailExecutor.shutdownNow();
+    }
+
+    /**
+     * 保存上传图片，内容已存在时直接复用
+     * @return 图片摘要，即存储键
+     */
+    public String store(SpooledImage image) throws IOException {
+        String digest = image.getDigest();
+        Path target = originalPath(digest);
+        if (Files.exists(target)) {
+            deduplicatedCount.incrementAndGet();
+            return digest;
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.createLink(target, image.getPath());
+        } catch (FileAlreadyExistsException e) {
+            deduplicatedCount.incrementAndGet();
+            return digest;
+        } catch (IOException | UnsupportedOperationException e) {
+            // 跨文件系统或不支持硬链接时复制
+            Path temp = Files.createTempFile(target.getParent(), "incoming-", ".tmp");
+            try {
+                Files.copy(image.getPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        storedCount.incrementAndGet();
+        thumbnailExecutor.execute(() -> {
+            try {
+                ensureThumbnail(digest);
+            } catch (IOException e) {
+                log.warn("后台生成缩略图失败，读取时重试: {}", digest, e);
+            }
+        });
+        return digest;
+    }
+
+    /**
+     * 原图路径，摘要无效或图片不存在时返回null
+     */
+    public Path getOriginal(String digest) {
+        if (!isDigest(digest)) {
+            return null;
+        }
+        Path path = originalPath(digest);
+        return Files.exists(path) ? path : null;
+    }
+
+    /**
+     * 缩略图路径，不存在时当场生成；原图不存在或无法解码时返回null
+     */
+    public Path getThumbnail(String digest) {
+        if (getOriginal(digest) == null) {
+            return null;
+        }
+        try {
+            return ensureThumbnail(digest);
+        } catch (IOException e) {
+            log.warn("生成缩略图失败: {}", digest, e);
+            return null;
+        }
+    }
+
+    /**
+     * 缩略图参数标识（最大边长和JPEG质量），用于文件名和ETag
+     */
+    public String getThumbnailVariant() {
+        return thumbnailEdge + "-q" + Math.round(thumbnailQuality * 100);
+    }
+
+    public static boolean isDigest(String value) {
+        return value != null && DIGEST.matcher(value).matches();
+    }
+
+    /**
+     * 根据文件头判断图片类型，无法识别时返回 application/octet-stream
+     */
+    public static String detectContentType(Path path) throws IOException {
+        byte[] header = new byte[12];
+        int read;
+        try (InputStream in = Files.newInputStream(path)) {
+            read = in.readNBytes(header, 0, header.length);
+        }
+        if (read >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return "image/jpeg";
+        }
+        if (read >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+            return "image/png";
+        }
+        if (read >= 6 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F') {
+            return "image/gif";
+        }
+        if (read >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "image/webp";
+        }
+        if (read >= 2 && header[0] == 'B' && header[1] == 'M') {
+            return "image/bmp";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * 存储统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("dir", root.toString());
+        stats.put("stored", storedCount.get());
+        stats.put("deduplicated", deduplicatedCount.get());
+        stats.put("thumbnails", thumbnailCount.get());
+        stats.put("thumbnailFailed", thumbnailFailedCount.get());
+        stats.put("thumbnailQueue", thumbnailExecutor.getQueue().size());
+        return stats;
+    }
+
+    Path originalPath(String digest) {
+        return root.resolve(digest.substring(0, 2)).resolve(digest.substring(2, 4)).resolve(digest);
+    }
+
+    private Path thumbnailPath(String digest) {
+        return originalPath(digest).resolveSibling(digest + ".thumb-" + getThumbnailVariant() + ".jpg");
+    }
+
+    private Path ensureThumbnail(String digest) throws IOException {
+        Path thumbnail = thumbnailPath(digest);
+        if (Files.exists(thumbnail)) {
+            return thumbnail;
+        }
+        Path original = originalPath(digest);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(original.getParent(), "thumb-", ".tmp");
+            BufferedImage scaled = ImagePreprocessor.readScaled(original, thumbnailEdge);
+            ImagePreprocessor.writeJpeg(scaled, temp, thumbnailQuality);
+            Files.move(temp, thumbnail, StandardCopyOption.ATOMIC_MOVE);
+            thumbnailCount.incrementAndGet();
+            aiMetrics.recordThumbnail("generated");
+            return thumbnail;
+        } catch (IOException | RuntimeException e) {
+            // 调用方记录日志
+            thumbnailFailedCount.incrementAndGet();
+            aiMetrics.recordThumbnail("failed");
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        } finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.example.demo2.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上传图片预处理：缩放到最大边长、重新编码为JPEG并去除元数据
+ * 已足够小且无需旋转的JPEG不重新编码，只去掉EXIF（含GPS）等元数据段
+ * 在AI线程池中执行，失败时回退为原图
+ */
+@Service
+public class ImagePreprocessor {
+
+    @Value("${ai.preprocess.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.preprocess.max-edge:1568}")
+    private int maxEdge;
+
+    @Value("${ai.preprocess.jpeg-quality:0.85}")
+    private float jpegQuality;
+
+    @Value("${ai.preprocess.min-bytes:524288}")
+    private long minBytes;
+
+    @Autowired
+    private AiMetrics aiMetrics;
+
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalOriginalBytes = new AtomicLong();
+    private final AtomicLong totalPreparedBytes = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    /**
+     * 预处理上传图片，图片已足够小或无法解码时直接使用原图
+     */
+    public PreparedImage preprocess(SpooledImage image) {
+        long start = System.currentTimeMillis();
+        if (!enabled) {
+            return PreparedImage.original(image, 0);
+        }
+
+        Path output = null;
+        boolean isJpeg = false;
+        int orientation = 1;
+        try (ImageInputStream input = ImageIO.createImageInputStream(image.getPath().toFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return skip(image, start, "无法识别的图片格式", "skipped");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                // 只读取文件头中的尺寸和EXIF方向，不解码像素
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int longEdge = Math.max(width, height);
+                isJpeg = "jpeg".equalsIgnoreCase(reader.getFormatName());
+                orientation = isJpeg ? readExifOrientation(image.getPath()) : 1;
+                if (longEdge <= maxEdge && image.getSize() <= minBytes && isJpeg && orientation == 1) {
+                    return stripMetadata(image, start);
+                }
+
+                // 解码时按整数倍降采样，避免先把整张大图解码到内存
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, longEdge / maxEdge);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+
+                BufferedImage scaled = scaleToRgb(decoded, orientation, maxEdge);
+
+                output = Files.createTempFile(image.getPath().getParent(), "prepared-", ".jpg");
+                writeJpeg(scaled, output, jpegQuality);
+            } finally {
+                reader.dispose();
+            }
+
+            long preparedBytes = Files.size(output);
+            if (preparedBytes >= image.getSize() && orientation == 1) {
+                // 重新编码后反而更大，保留原图（JPEG去掉元数据段）；需要旋转时仍使用重新编码的结果
+                Files.deleteIfExists(output);
+                output = null;
+                return isJpeg ? stripMetadata(image, start) : skip(image, start, null, "skipped");
+            }
+
+            PreparedImage prepared = PreparedImage.derived(output, image.getSize(), System.currentTimeMillis() - start);
+            record(prepared);
+            processedCount.incrementAndGet();
+            aiMetrics.recordPreprocess("processed", prepared.getProcessingMillis());
+            return prepared;
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            if (output != null) {
+                try {
+                    Files.deleteIfExists(output);
+                } catch (IOException ignored) {
+                    // 忽略清理失败
+                }
+            }
+            return skip(image, start, e.getMessage(), "failed");
+        }
+    }
+
+    /**
+     * 预处理统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxEdge", maxEdge);
+        stats.put("jpegQuality", jpegQuality);
+        stats.put("processed", processedCount.get());
+        stats.put("skipped", skippedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("totalOriginalBytes", totalOriginalBytes.get());
+        stats.put("totalPreparedBytes", totalPreparedBytes.get());
+        stats.put("totalMillis", totalMillis.get());
+        return stats;
+    }
+
+    /**
+     * 不重新编码，复制JPEG时去掉元数据段；没有可去掉的内容时直接使用原图
+     */
+    private PreparedImage stripMetadata(SpooledImage image, long start) throws IOException {
+        Path output = Files.createTempFile(image.getPath().getParent(), "prepared-", ".jpg");
+        try {
+            if (!copyWithoutMetadata(image.getPath(), output)) {
+                Files.deleteIfExists(output);
+                return skip(image, start, null, "skipped");
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(output);
+            throw e;
+        }
+        PreparedImage prepared = PreparedImage.derived(output, image.getSize(), System.currentTimeMillis() - start);
+        record(prepared);
+        processedCount.incrementAndGet();
+        aiMetrics.recordPreprocess("stripped", prepared.getProcessingMillis());
+        return prepared;
+    }
+
+    private PreparedImage skip(SpooledImage image, long start, String reason, String outcome) {
+        if (reason != null) {
+            System.err.println("图片预处理跳过，使用原图: " + reason);
+        }
+        PreparedImage prepared = PreparedImage.original(image, System.currentTimeMillis() - start);
+        record(prepared);
+        skippedCount.incrementAndGet();
+        aiMetrics.recordPreprocess(outcome, prepared.getProcessingMillis());
+        return prepared;
+    }
+
+    private void record(PreparedImage prepared) {
+        totalOriginalBytes.addAndGet(prepared.getOriginalBytes());
+        totalPreparedBytes.addAndGet(prepared.getPreparedBytes());
+        totalMillis.addAndGet(prepared.getProcessingMillis());
+    }
+
+    /**
+     * 缩放到最大边长以内，按EXIF方向旋转，并绘制到白底RGB图像上（去除透明通道）
+     */
+    static BufferedImage scaleToRgb(BufferedImage source, int orientation, int maxEdge) {
+        double scale = Math.min(1.0, (double) maxEdge / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        // 5-8 需要交换宽高
+        boolean swap = orientation >= 5 && orientation <= 8;
+
+        BufferedImage target = new BufferedImage(swap ? height : width, swap ? width : height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, target.getWidth(), target.getHeight());
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setTransform(orientationTransform(orientation, width, height));
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * 把 width x height 的原图变换为正向显示的坐标变换，参数依次为 m00, m10, m01, m11, m02, m12
+     * 2 水平翻转，3 旋转180°，4 垂直翻转，5 沿主对角线翻转，6 顺时针90°，7 沿副对角线翻转，8 逆时针90°
+     */
+    static AffineTransform orientationTransform(int orientation, int width, int height) {
+        switch (orientation) {
+            case 2:
+                return new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3:
+                return new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4:
+                return new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5:
+                return new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6:
+                return new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7:
+                return new AffineTransform(0, -1, -1, 0, height, width);
+            case 8:
+                return new AffineTransform(0, -1, 1, 0, 0, width);
+            default:
+                return new AffineTransform();
+        }
+    }
+
+    /**
+     * 解码时按整数倍降采样，再缩放到最大边长以内并按EXIF方向旋转
+     */
+    static BufferedImage readScaled(Path path, int maxEdge) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(path.toFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("无法识别的图片格式");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, longEdge / maxEdge);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                boolean isJpeg = "jpeg".equalsIgnoreCase(reader.getFormatName());
+                int orientation = isJpeg ? readExifOrientation(path) : 1;
+                return scaleToRgb(decoded, orientation, maxEdge);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 写入JPEG，不携带任何元数据
+     */
+    static void writeJpeg(BufferedImage image, Path output, float jpegQuality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(output.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * 复制JPEG，只保留解码需要的 JFIF(APP0)、ICC_PROFILE(APP2)、Adobe(APP14) 段，
+     * 去掉EXIF/XMP/IPTC等其他APPn段、注释段，以及图像结束标记之后附加的数据（如MPF附带的图像）
+     * @return 是否去掉了内容
+     */
+    static boolean copyWithoutMetadata(Path jpeg, Path output) throws IOException {
+        boolean removed = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(jpeg)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            if (in.readUnsignedShort() != 0xFFD8) {
+                throw new IOException("不是JPEG文件");
+            }
+            out.writeShort(0xFFD8);
+            while (true) {
+                int marker = readMarker(in);
+                if (marker == 0xFFD9) {
+                    out.writeShort(marker);
+                    return removed;
+                }
+                int length = in.readUnsignedShort();
+                byte[] segment = new byte[length - 2];
+                in.readFully(segment);
+                if (isMetadata(marker, segment)) {
+                    removed = true;
+                    continue;
+                }
+                out.writeShort(marker);
+                out.writeShort(length);
+                out.write(segment);
+                if (marker == 0xFFDA) {
+                    return copyScans(in, out) || removed;
+                }
+            }
+        }
+    }
+
+    private static int readMarker(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() != 0xFF) {
+            throw new IOException("JPEG段结构错误");
+        }
+        int code = in.readUnsignedByte();
+        // 标记前可以有多个填充的0xFF
+        while (code == 0xFF) {
+            code = in.readUnsignedByte();
+        }
+        return 0xFF00 | code;
+    }
+
+    /**
+     * 复制扫描数据直到图像结束标记；扫描数据中 0xFF 后为 0x00（填充）或 RSTn，
+     * 其他标记是带长度的段（渐进式JPEG各次扫描之间的DHT、SOS等），按长度整体复制
+     * @return 图像结束之后是否还有数据（未复制）
+     */
+    private static boolean copyScans(DataInputStream in, DataOutputStream out) throws IOException {
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+            if (b != 0xFF) {
+                continue;
+            }
+            int code = in.readUnsignedByte();
+            while (code == 0xFF) {
+                code = in.readUnsignedByte();
+            }
+            out.write(code);
+            if (code == 0x00 || (code >= 0xD0 && code <= 0xD7)) {
+                continue;
+            }
+            if (code == 0xD9) {
+                return in.read() != -1;
+            }
+            int length = in.readUnsignedShort();
+            out.writeShort(length);
+            byte[] segment = new byte[length - 2];
+            in.readFully(segment);
+            out.write(segment);
+        }
+        return false;
+    }
+
+    private static boolean isMetadata(int marker, byte[] segment) {
+        if (marker == 0xFFFE) {
+            return true;
+        }
+        if (marker < 0xFFE0 || marker > 0xFFEF) {
+            return false;
+        }
+        switch (marker) {
+            case 0xFFE0:
+                return !startsWith(segment, "JFIF\0");
+            case 0xFFE2:
+                return !startsWith(segment, "ICC_PROFILE\0");
+            case 0xFFEE:
+                return !startsWith(segment, "Adobe");
+            default:
+                return true;
+        }
+    }
+
+    private static boolean startsWith(byte[] segment, String identifier) {
+        byte[] prefix = identifier.getBytes(StandardCharsets.US_ASCII);
+        return segment.length >= prefix.length && Arrays.equals(segment, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * 从JPEG的APP1段读取EXIF方向，读取失败时返回1（不旋转）
+     */
+    static int readExifOrientation(Path jpeg) {
+        try (InputStream raw = Files.newInputStream(jpeg);
+             DataInputStream in = new DataInputStream(raw)) {
+            if (in.readUnsignedShort() != 0xFFD8) {
+                return 1;
+            }
+            while (true) {
+                int marker = in.readUnsignedShort();
+                int length = in.readUnsignedShort() - 2;
+                if (marker == 0xFFE1) {
+                    // APP1 也可能是XMP，不是EXIF时继续查找
+                    byte[] segment = new byte[length];
+                    in.readFully(segment);
+                    if (startsWith(segment, "Exif\0")) {
+                        return parseExifOrientation(segment);
+                    }
+                    continue;
+                }
+                if (marker == 0xFFDA || (marker & 0xFF00) != 0xFF00) {
+                    return 1;
+                }
+                in.skipNBytes(length);
+            }
+        } catch (Exception e) {
+            return 1;
+        }
+    }
+
+    private static int parseExifOrientation(byte[] segment) {
+        if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f') {
+            return 1;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(segment, 6, segment.length - 6).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int ifdOffset = tiff.getInt(4);
+        int entries = tiff.getShort(ifdOffset) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifdOffset + 2 + i * 12;
+            if ((tiff.getShort(entry) & 0xFFFF) == 0x0112) {
+                return tiff.getShort(entry + 8) & 0xFFFF;
+            }
+        }
+        return 1;
+    }
+}
@@ -8,6 +8,8 @@ import org.springframework.stereotype.Service;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -17,41 +19,220 @@ public class ImageRecordService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
-    private final RowMapper<ImageRecord> rowMapper = new RowMapper<ImageRecord>() {
+    @Autowired
+    private AiMetrics aiMetrics;
+    
+    // 列表摘要长度
+    private static final int PREVIEW_LENGTH = 100;
+    
+    // 检索摘要中关键词前保留的字符数
+    private static final int SNIPPET_CONTEXT = 30;
+    
+    // 与 ngram_token_size 默认值一致
+    static final int MIN_KEYWORD_LENGTH = 2;
+    
+    // 包内可见，供基准测试直接调用
+    final RowMapper<ImageRecord> rowMapper = new RowMapper<ImageRecord>() {
         @Override
         public ImageRecord mapRow(ResultSet rs, int rowNum) throws SQLException {
             ImageRecord record = new ImageRecord();
             record.setId(rs.getInt("id"));
             record.setImagePath(rs.getString("image_path"));
             record.setResultText(rs.getString("result_text"));
+            record.setReusedFrom(rs.getString("reused_from"));
             record.setCreatedAt(rs.getTimestamp("created_at"));
             return record;
         }
     };
     
+    final RowMapper<ImageRecord> summaryRowMapper = new RowMapper<ImageRecord>() {
+        @Override
+        public ImageRecord mapRow(ResultSet rs, int rowNum) throws SQLException {
+            ImageRecord record = new ImageRecord();
+            record.setId(rs.getInt("id"));
+            record.setImagePath(rs.getString("image_path"));
+            record.setResultPreview(rs.getString("result_preview"));
+            record.setReusedFrom(rs.getString("reused_from"));
+            record.setCreatedAt(rs.getTimestamp("created_at"));
+            return record;
+        }
+    };
+    
+    private final RowMapper<ImageRecord> searchRowMapper = (rs, rowNum) -> {
+        ImageRecord record = summaryRowMapper.mapRow(rs, rowNum);
+        record.setScore(rs.getDouble("score"));
+        return record;
+    };
+    
     /**
      * 保存图片记录
      */
     public boolean saveImageRecord(String imagePath, String resultText) {
         String sql = "INSERT INTO image_records (image_path, result_text, created_at) VALUES (?, ?, ?)";
-        int result = jdbcTemplate.update(sql, imagePath, resultText, new Date());
+        int result = aiMetrics.timeJdbc("insert", () -> jdbcTemplate.update(sql, imagePath, resultText, new Date()));
         return result > 0;
     }
     
+    /**
+     * 保存图片记录，同时记录分析结果的缓存键
+     */
+    public boolean saveImageRecord(String imagePath, String resultText, String cacheKey) {
+        String sql = "INSERT INTO image_records (image_path, result_text, cache_key, created_at) VALUES (?, ?, ?, ?)";
+        int result = aiMetrics.timeJdbc("insert", () -> jdbcTemplate.update(sql, imagePath, resultText, cacheKey, new Date()));
+        return result > 0;
+    }
+    
+    /**
+     * 批量保存图片记录
+     * @return 写入的记录数
+     */
+    public int saveImageRecords(List<ImageRecord> records) {
+        String sql = "INSERT INTO image_records (image_path, result_text, cache_key, phash, question_key, reused_from, created_at) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        List<Object[]> args = new ArrayList<>(records.size());
+        for (ImageRecord record : records) {
+            Date createdAt = record.getCreatedAt() != null ? record.getCreatedAt() : new Date();
+            args.add(new Object[] {record.getImagePath(), record.getResultText(), record.getCacheKey(),
+                    record.getPhash(), record.getQuestionKey(), record.getReusedFrom(), createdAt});
+        }
+        int[] results = aiMetrics.timeJdbc("batch-insert", () -> jdbcTemplate.batchUpdate(sql, args));
+        int saved = 0;
+        for (int result : results) {
+            // 驱动未返回具体行数时为 SUCCESS_NO_INFO(-2)
+            if (result > 0 || result == Statement.SUCCESS_NO_INFO) {
+                saved++;
+            }
+        }
+        return saved;
+    }
+    
+    /**
+     * 根据缓存键查询最近一次的分析结果
+     */
+    public String findResultByCacheKey(String cacheKey) {
+        String sql = "SELECT result_text FROM image_records WHERE cache_key = ? ORDER BY id DESC LIMIT 1";
+        List<String> results = aiMetrics.timeJdbc("find-by-cache-key", () -> jdbcTemplate.queryForList(sql, String.class, cacheKey));
+        return results.isEmpty() ? null : results.get(0);
+    }
+    
+    /**
+     * 获取最近带有图片哈希的记录，用于重建相似图片索引；不返回结果文本
+     */
+    public List<ImageRecord> getHashedRecords(int limit) {
+        String sql = "SELECT image_path, phash, question_key, cache_key FROM image_records"
+                + " WHERE phash IS NOT NULL AND question_key IS NOT NULL AND cache_key IS NOT NULL ORDER BY id DESC LIMIT ?";
+        return aiMetrics.timeJdbc("find-hashed", () -> jdbcTemplate.query(sql, (rs, rowNum) -> {
+            ImageRecord record = new ImageRecord();
+            record.setImagePath(rs.getString("image_path"));
+            record.setPhash(rs.getLong("phash"));
+            record.setQuestionKey(rs.getString("question_key"));
+            record.setCacheKey(rs.getString("cache_key"));
+            return record;
+        }, limit));
+    }
+    
     /**
      * 获取所有历史记录
+     * @deprecated 全表扫描并返回完整结果文本，请使用 {@link #getRecordSummaries}
      */
+    @Deprecated
     public List<ImageRecord> getAllRecords() {
         String sql = "SELECT * FROM image_records ORDER BY created_at ASC";
         return jdbcTemplate.query(sql, rowMapper);
     }
     
+    /**
+     * 按 (created_at, id) 游标分页获取历史记录摘要，不返回完整结果文本
+     * @param cursorCreatedAt 上一页最后一条记录的创建时间，为空时从头开始
+     * @param cursorId 上一页最后一条记录的ID
+     * @param newestFirst 是否按时间倒序
+     */
+    public List<ImageRecord> getRecordSummaries(Date cursorCreatedAt, Integer cursorId, int limit, boolean newestFirst) {
+        String direction = newestFirst ? "DESC" : "ASC";
+        String comparator = newestFirst ? "<" : ">";
+        StringBuilder sql = new StringBuilder("SELECT id, image_path, LEFT(result_text, ")
+                .append(PREVIEW_LENGTH).append(") AS result_preview, reused_from, created_at FROM image_records");
+        if (cursorCreatedAt != null && cursorId != null) {
+            sql.append(" WHERE created_at ").append(comparator).append(" ?")
+               .append(" OR (created_at = ? AND id ").append(comparator).append(" ?)");
+        }
+        sql.append(" ORDER BY created_at ").append(direction).append(", id ").append(direction).append(" LIMIT ?");
+        
+        if (cursorCreatedAt != null && cursorId != null) {
+            return aiMetrics.timeJdbc("page", () -> jdbcTemplate.query(sql.toString(), summaryRowMapper, cursorCreatedAt, cursorCreatedAt, cursorId, limit));
+        }
+        return aiMetrics.timeJdbc("page", () -> jdbcTemplate.query(sql.toString(), summaryRowMapper, limit));
+    }
+    
+    /**
+     * 按分析结果全文检索，使用 result_text 上的 FULLTEXT(ngram) 索引，按相关度排序
+     * 摘要从第一个关键词出现位置附近截取
+     * @param keywords 空格分隔的关键词，结果需包含全部关键词
+     * @param offset 跳过的条数
+     * @throws IllegalArgumentException 没有有效关键词（关键词至少 MIN_KEYWORD_LENGTH 个字符）
+     */
+    public List<ImageRecord> searchRecords(String keywords, int offset, int limit) {
+        List<String> terms = searchTerms(keywords);
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("关键词至少需要" + MIN_KEYWORD_LENGTH + "个字符");
+        }
+        String query = toBooleanQuery(terms);
+        String sql = "SELECT id, image_path, reused_from, created_at,"
+                + " SUBSTRING(result_text, GREATEST(1, LOCATE(?, result_text) - " + SNIPPET_CONTEXT + "), " + PREVIEW_LENGTH + ") AS result_preview,"
+                + " MATCH(result_text) AGAINST(? IN BOOLEAN MODE) AS score"
+                + " FROM image_records WHERE MATCH(result_text) AGAINST(? IN BOOLEAN MODE)"
+                + " ORDER BY score DESC, id DESC LIMIT ? OFFSET ?";
+        return aiMetrics.timeJdbc("search", () -> jdbcTemplate.query(sql, searchRowMapper, terms.get(0), query, query, limit, offset));
+    }
+    
+    /**
+     * 拆分关键词并去掉全文检索的布尔运算符，过短的关键词无法匹配 ngram 分词，直接忽略
+     * 以 - 开头的关键词表示排除，去掉运算符后会变成必须出现，与原意相反，也忽略
+     */
+    static List<String> searchTerms(String keywords) {
+        List<String> terms = new ArrayList<>();
+        if (keywords == null) {
+            return terms;
+        }
+        for (String raw : keywords.trim().split("\\s+")) {
+            if (raw.startsWith("-")) {
+                continue;
+            }
+            String term = raw.replaceAll("[+\\-<>()~*\"@]", "");
+            if (term.length() >= MIN_KEYWORD_LENGTH) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+    
+    /**
+     * 每个关键词作为必须出现的短语，ngram 分词后要求相邻
+     */
+    static String toBooleanQuery(List<String> terms) {
+        StringBuilder query = new StringBuilder();
+        for (String term : terms) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append("+\"").append(term).append('"');
+        }
+        return query.toString();
+    }
+    
+    /**
+     * 统计记录数量
+     */
+    public long countRecords() {
+        Long count = aiMetrics.timeJdbc("count", () -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM image_records", Long.class));
+        return count != null ? count : 0;
+    }
+    
     /**
      * 根据ID获取记录
      */
     public ImageRecord getRecordById(Integer id) {
         String sql = "SELECT * FROM image_records WHERE id = ?";
-        List<ImageRecord> results = jdbcTemplate.query(sql, rowMapper, id);
+        List<ImageRecord> results = aiMetrics.timeJdbc("find-by-id", () -> jdbcTemplate.query(sql, rowMapper, id));
         return results.isEmpty() ? null : results.get(0);
     }
     
@@ -60,7 +241,7 @@ public class ImageRecordService {
      */
     public boolean deleteRecord(Integer id) {
         String sql = "DELETE FROM image_records WHERE id = ?";
-        int result = jdbcTemplate.update(sql, id);
+        int result = aiMetrics.timeJdbc("delete", () -> jdbcTemplate.update(sql, id));
         return result > 0;
     }
 }
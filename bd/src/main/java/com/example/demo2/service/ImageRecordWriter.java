@@ -0,0 +1,203 @@
+package com.example.demo2.service;
+
+import com.example.demo2.entity.ImageRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 历史记录异步批量写入
+ * 请求线程只把记录放入有界队列，后台线程按批量大小或等待时间批量写入数据库；
+ * 队列已满时丢弃记录并计数，关闭时写完队列中剩余的记录
+ */
+@Service
+public class ImageRecordWriter {
+
+    @Value("${ai.history.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${ai.history.batch-size:100}")
+    private int batchSize;
+
+    @Value("${ai.history.linger-millis:200}")
+    private long lingerMillis;
+
+    @Value("${ai.history.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${ai.history.shutdown-timeout-seconds:30}")
+    private long shutdownTimeoutSeconds;
+
+    @Autowired
+    private ImageRecordService imageRecordService;
+
+    @Autowired
+    private AiMetrics aiMetrics;
+
+    private BlockingQueue<ImageRecord> queue;
+
+    private Thread flusher;
+
+    private volatile boolean running;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTotalMillis = new AtomicLong();
+    private volatile long lastFlushMillis;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        flusher = new Thread(this::runFlushLoop, "history-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 提交一条历史记录，队列已满或已关闭时返回false
+     */
+    public boolean submit(ImageRecord record) {
+        if (!running || !queue.offer(record)) {
+            dropped.incrementAndGet();
+            System.err.println("历史记录队列已满，丢弃记录: " + record.getImagePath());
+            return false;
+        }
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 连续提交多条历史记录，后台线程在同一等待窗口内取出，通常由一次批量写入落库
+     * @return 成功入队的条数
+     */
+    public int submitAll(List<ImageRecord> records) {
+        int accepted = 0;
+        for (ImageRecord record : records) {
+            if (submit(record)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * 写入统计信息
+     */
+    public Map<String, Object> getStats() {
+        long flushes = flushCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("batchSize", batchSize);
+        stats.put("lingerMillis", lingerMillis);
+        stats.put("submitted", submitted.get());
+        stats.put("written", written.get());
+        stats.put("dropped", dropped.get());
+        stats.put("failed", failed.get());
+        stats.put("flushes", flushes);
+        stats.put("lastFlushMillis", lastFlushMillis);
+        stats.put("avgFlushMillis", flushes > 0 ? flushTotalMillis.get() / flushes : 0);
+        return stats;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            System.err.println("关闭时仍有 " + queue.size() + " 条历史记录未写入");
+        }
+    }
+
+    private void runFlushLoop() {
+        List<ImageRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                ImageRecord first = queue.poll(lingerMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 在等待时间内尽量凑满一批
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    ImageRecord next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // 被中断时写完已取出的记录和队列剩余记录后退出
+                queue.drainTo(batch);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<ImageRecord> batch) {
+        long start = System.currentTimeMillis();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                written.addAndGet(imageRecordService.saveImageRecords(batch));
+                break;
+            } catch (Exception e) {
+                if (attempt >= maxRetries) {
+                    failed.addAndGet(batch.size());
+                    System.err.println("批量写入历史记录失败，丢弃 " + batch.size() + " 条记录: " + e.getMessage());
+                    break;
+                }
+                System.err.println("批量写入历史记录失败，第 " + (attempt + 1) + " 次重试: " + e.getMessage());
+                try {
+                    Thread.sleep(100L << attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        lastFlushMillis = System.currentTimeMillis() - start;
+        aiMetrics.recordHistoryFlush(batch.size(), lastFlushMillis);
+        flushCount.incrementAndGet();
+        flushTotalMillis.addAndGet(lastFlushMillis);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.demo2.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 将上传的图片写入临时文件，同时计算SHA-256摘要
+ *
+ * 每个请求的堆内存占用与图片大小无关：只有一个固定大小的复制缓冲区
+ * （SPOOL_BUFFER_SIZE）和摘要状态，不再生成 byte[] 和 Base64 字符串
+ * （之前约为文件大小的2.7倍）。multipart 本身由容器写入磁盘，
+ * 见 spring.servlet.multipart.file-size-threshold。
+ */
+@Service
+public class ImageSpooler {
+
+    static final int SPOOL_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${ai.upload.spool-dir:${java.io.tmpdir}/demo2-uploads}")
+    private String spoolDir;
+
+    /**
+     * 落盘上传文件，调用方负责关闭返回的 SpooledImage
+     */
+    public SpooledImage spool(MultipartFile file) throws IOException {
+        Path dir = Paths.get(spoolDir);
+        Files.createDirectories(dir);
+        Path target = Files.createTempFile(dir, "upload-", extensionOf(file.getOriginalFilename()));
+
+        MessageDigest digest = newDigest();
+        long size = 0;
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest);
+             OutputStream out = Files.newOutputStream(target)) {
+            byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        return new SpooledImage(target, HexFormat.of().formatHex(digest.digest()), size, file.getContentType());
+    }
+
+    private static String extensionOf(String filename) {
+        String extension = StringUtils.getFilenameExtension(filename);
+        return extension != null && extension.matches("[A-Za-z0-9]{1,5}") ? "." + extension.toLowerCase() : ".jpg";
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.demo2.service;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地图片上传到模型服务临时存储后的地址
+ * 上传结果与 API Key 和模型绑定，按 API Key + 模型 + 本地文件 缓存：同一张图片回答多个问题时只上传一次，
+ * 之后的调用直接使用返回的 oss:// 地址；并发的相同上传共享一次结果，上传失败不缓存。
+ * 服务端临时地址48小时后失效，缓存按 ttlMillis 提前淘汰
+ */
+class ImageUploads {
+
+    static final String FILE_SCHEME = "file://";
+
+    /**
+     * 上传本地文件，返回模型调用可直接使用的地址
+     */
+    @FunctionalInterface
+    interface Uploader {
+        String upload(String model, String filePath, String apiKey) throws Exception;
+    }
+
+    private final Uploader uploader;
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    // accessOrder=true，迭代顺序即LRU顺序；只在锁内读写映射，上传在锁外进行
+    private final LinkedHashMap<String, Upload> uploads = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong uploaded = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    ImageUploads(Uploader uploader, int maxSize, long ttlMillis) {
+        this.uploader = uploader;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * 本地文件返回该通道已上传（或现在上传）的地址，其他地址原样返回
+     */
+    String resolve(ModelRoute route, String imageUrl) throws Exception {
+        if (!imageUrl.startsWith(FILE_SCHEME)) {
+            return imageUrl;
+        }
+        String key = route.getApiKey() + "\n" + route.getModel() + "\n" + imageUrl;
+        Upload upload;
+        boolean owner = false;
+        synchronized (uploads) {
+            upload = uploads.get(key);
+            if (upload == null || upload.isExpired()) {
+                upload = new Upload(System.currentTimeMillis() + ttlMillis);
+                uploads.put(key, upload);
+                owner = true;
+                trim();
+            }
+        }
+        if (!owner) {
+            reused.incrementAndGet();
+            try {
+                return upload.url.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        try {
+            String url = uploader.upload(route.getModel(), Paths.get(URI.create(imageUrl)).toString(), route.getApiKey());
+            uploaded.incrementAndGet();
+            upload.url.complete(url);
+            return url;
+        } catch (Exception e) {
+            synchronized (uploads) {
+                uploads.remove(key, upload);
+            }
+            upload.url.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (uploads) {
+            stats.put("size", uploads.size());
+        }
+        stats.put("uploaded", uploaded.get());
+        stats.put("reused", reused.get());
+        return stats;
+    }
+
+    private void trim() {
+        Iterator<Upload> it = uploads.values().iterator();
+        while (uploads.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static class Upload {
+        private final CompletableFuture<String> url = new CompletableFuture<>();
+        private final long expiresAt;
+
+        Upload(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.demo2.service;
+
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 正在进行的模型调用注册表（single-flight）
+ * 以缓存键区分请求，相同的并发请求只发起一次模型调用，调用结束后立即移除
+ */
+@Service
+public class InFlightAnalyses {
+
+    private final ConcurrentHashMap<String, AnalysisFlight> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * 加入已有调用，或登记一个新调用；isOwner() 为 true 时调用方负责执行模型调用
+     */
+    public Join join(String key) {
+        AnalysisFlight created = new AnalysisFlight();
+        AnalysisFlight existing = flights.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return new Join(existing, false);
+        }
+        started.incrementAndGet();
+        return new Join(created, true);
+    }
+
+    /**
+     * 调用成功，先移除再通知等待方，之后的新请求会命中缓存
+     */
+    public void complete(String key, AnalysisFlight flight) {
+        flights.remove(key, flight);
+        flight.complete();
+    }
+
+    public void fail(String key, AnalysisFlight flight, Throwable error) {
+        flights.remove(key, flight);
+        flight.fail(error);
+    }
+
+    public int size() {
+        return flights.size();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("inFlight", flights.size());
+        stats.put("started", started.get());
+        stats.put("coalesced", coalesced.get());
+        return stats;
+    }
+
+    public static class Join {
+
+        private final AnalysisFlight flight;
+
+        private final boolean owner;
+
+        Join(AnalysisFlight flight, boolean owner) {
+            this.flight = flight;
+            this.owner = owner;
+        }
+
+        public AnalysisFlight getFlight() {
+            return flight;
+        }
+
+        public boolean isOwner() {
+            return owner;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.demo2.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 多模态模型客户端
+ * 由 ai.model.client 选择实现：dashscope（默认，调用通义千问）或 stub（本地模拟，用于压测）
+ */
+public interface ModelClient {
+
+    /**
+     * 流式分析图片，模型每生成一段内容回调一次，返回时输出已全部结束
+     * @param imageUrl 图片地址，http(s):// 或 file://
+     * @return 实际输出内容的模型名；路由到备用模型时与 getModel() 不同，缓存键和历史记录按它计算
+     * @throws Exception 模型调用失败
+     */
+    String streamAnalyze(String imageUrl, String question, Consumer<String> onDelta) throws Exception;
+
+    /**
+     * 主模型名，查询缓存时按它计算缓存键
+     */
+    String getModel();
+
+    /**
+     * 客户端状态
+     */
+    default Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("model", getModel());
+        return stats;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.demo2.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个 API Key + 模型 的调用通道，各自有并发上限和token速率额度
+ */
+public class ModelRoute {
+
+    private final String name;
+    private final String apiKey;
+    private final String model;
+    private final boolean fallback;
+    private final AdaptiveLimiter limiter;
+    private final TokenBucket tokenBucket;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public ModelRoute(String name, String apiKey, String model, boolean fallback, AdaptiveLimiter limiter, TokenBucket tokenBucket) {
+        this.name = name;
+        this.apiKey = apiKey;
+        this.model = model;
+        this.fallback = fallback;
+        this.limiter = limiter;
+        this.tokenBucket = tokenBucket;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public boolean isFallback() {
+        return fallback;
+    }
+
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * 并发和token额度都满足时占用一次调用
+     */
+    boolean tryAcquire(long estimatedTokens) {
+        if (!limiter.tryAcquire()) {
+            return false;
+        }
+        if (!tokenBucket.tryTake(estimatedTokens)) {
+            limiter.release();
+            return false;
+        }
+        calls.incrementAndGet();
+        return true;
+    }
+
+    void recordThrottled() {
+        throttled.incrementAndGet();
+    }
+
+    void recordFailed() {
+        failed.incrementAndGet();
+    }
+
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("model", model);
+        stats.put("fallback", fallback);
+        stats.put("limit", limiter.getLimit());
+        stats.put("inFlight", limiter.getInFlight());
+        stats.put("avgFirstTokenMillis", limiter.getAverageLatencyMillis());
+        stats.put("availableTokens", tokenBucket.getAvailable());
+        stats.put("calls", calls.get());
+        stats.put("throttled", throttled.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.demo2.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 在多个 API Key / 模型 之间分配模型调用
+ * 优先选择主模型中剩余并发最多的通道；主模型全部饱和时使用备用模型；
+ * 都不可用时最多等待 acquire-timeout-millis，仍无空闲则拒绝
+ */
+@Service
+public class ModelRouter {
+
+    @Value("${ai.router.api-keys:${ai.dashscope.api-key:}}")
+    private List<String> apiKeys;
+
+    @Value("${ai.router.primary-model:" + AiService.MODEL + "}")
+    private String primaryModel;
+
+    @Value("${ai.router.fallback-model:}")
+    private String fallbackModel;
+
+    @Value("${ai.router.initial-concurrency:4}")
+    private int initialConcurrency;
+
+    @Value("${ai.router.min-concurrency:1}")
+    private int minConcurrency;
+
+    @Value("${ai.router.max-concurrency:16}")
+    private int maxConcurrency;
+
+    @Value("${ai.router.backoff-ratio:0.7}")
+    private double backoffRatio;
+
+    @Value("${ai.router.latency-tolerance:2.0}")
+    private double latencyTolerance;
+
+    @Value("${ai.router.tokens-per-minute:0}")
+    private long tokensPerMinute;
+
+    @Value("${ai.router.estimated-tokens-per-call:1500}")
+    private long estimatedTokensPerCall;
+
+    @Value("${ai.router.acquire-timeout-millis:2000}")
+    private long acquireTimeoutMillis;
+
+    private final List<ModelRoute> routes = new ArrayList<>();
+
+    // 等待通道释放；不用 synchronized + wait，避免 Java 21 虚拟线程等待时占住载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition routeReleased = lock.newCondition();
+
+    @PostConstruct
+    public void init() {
+        List<String> keys = new ArrayList<>();
+        if (apiKeys != null) {
+            for (String key : apiKeys) {
+                if (key != null && !key.isBlank()) {
+                    keys.add(key.trim());
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            // 未配置时保留一个通道，由SDK报告缺少API Key
+            keys.add("");
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            routes.add(newRoute(i, keys.get(i), primaryModel, false));
+        }
+        if (fallbackModel != null && !fallbackModel.isBlank()) {
+            for (int i = 0; i < keys.size(); i++) {
+                routes.add(newRoute(i, keys.get(i), fallbackModel.trim(), true));
+            }
+        }
+        System.out.println("模型路由: " + keys.size() + " 个API Key, 主模型 " + primaryModel
+                + (fallbackModel == null || fallbackModel.isBlank() ? "" : ", 备用模型 " + fallbackModel));
+    }
+
+    /**
+     * 占用一个通道
+     * @param excluded 本次请求已尝试过（被限流）的通道
+     * @return 租约，调用结束后必须通过 success/throttled/failed 之一归还
+     * @throws RejectedExecutionException 等待超时仍无可用通道
+     */
+    public Lease acquire(Collection<ModelRoute> excluded) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                ModelRoute route = pick(false, excluded);
+                if (route == null) {
+                    route = pick(true, excluded);
+                }
+                if (route != null) {
+                    return new Lease(route);
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new RejectedExecutionException("所有模型通道均已达到并发或速率上限");
+                }
+                routeReleased.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 主模型名，参与缓存键计算
+     */
+    public String getPrimaryModel() {
+        return primaryModel;
+    }
+
+    public List<ModelRoute> getRoutes() {
+        return Collections.unmodifiableList(routes);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (ModelRoute route : routes) {
+            stats.put(route.getName(), route.getStats());
+        }
+        return stats;
+    }
+
+    private ModelRoute pick(boolean fallback, Collection<ModelRoute> excluded) {
+        ModelRoute best = null;
+        int bestHeadroom = 0;
+        for (ModelRoute route : routes) {
+            if (route.isFallback() != fallback || excluded.contains(route)) {
+                continue;
+            }
+            int headroom = route.getLimiter().getHeadroom();
+            if (headroom > bestHeadroom) {
+                best = route;
+                bestHeadroom = headroom;
+            }
+        }
+        // 剩余并发最多的通道可能因token额度不足而失败，依次尝试其余通道
+        if (best != null && best.tryAcquire(estimatedTokensPerCall)) {
+            return best;
+        }
+        for (ModelRoute route : routes) {
+            if (route != best && route.isFallback() == fallback && !excluded.contains(route)
+                    && route.tryAcquire(estimatedTokensPerCall)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private ModelRoute newRoute(int keyIndex, String apiKey, String model, boolean fallback) {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(initialConcurrency, minConcurrency, maxConcurrency, backoffRatio, latencyTolerance);
+        return new ModelRoute("key" + keyIndex + "/" + model, apiKey, model, fallback, limiter, new TokenBucket(tokensPerMinute));
+    }
+
+    private void signalReleased() {
+        lock.lock();
+        try {
+            routeReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一次调用对通道的占用
+     */
+    public class Lease {
+
+        private final ModelRoute route;
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        private Lease(ModelRoute route) {
+            this.route = route;
+        }
+
+        public ModelRoute getRoute() {
+            return route;
+        }
+
+        /**
+         * 收到第一段输出，用首token延迟判断服务端是否排队
+         */
+        public void firstToken() {
+            route.getLimiter().onLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+
+        public void success() {
+            route.getLimiter().onSuccess();
+            release();
+        }
+
+        public void throttled() {
+            route.recordThrottled();
+            route.getLimiter().onThrottled();
+            release();
+        }
+
+        public void failed() {
+            route.recordFailed();
+            release();
+        }
+
+        private void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            route.getLimiter().release();
+            signalReleased();
+        }
+    }
+}
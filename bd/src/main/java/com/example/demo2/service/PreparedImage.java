@@ -0,0 +1,112 @@
+package com.example.demo2.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 发送给模型的图片
+ * 可能是预处理后生成的临时文件（关闭时删除），也可能直接引用原图
+ */
+public class PreparedImage implements AutoCloseable {
+
+    private final String url;
+
+    private final Path derivedFile;
+
+    private final long originalBytes;
+
+    private final long preparedBytes;
+
+    private final long processingMillis;
+
+    private PreparedImage(String url, Path derivedFile, long originalBytes, long preparedBytes, long processingMillis) {
+        this.url = url;
+        this.derivedFile = derivedFile;
+        this.originalBytes = originalBytes;
+        this.preparedBytes = preparedBytes;
+        this.processingMillis = processingMillis;
+    }
+
+    /**
+     * 直接使用图片URL，不做预处理
+     * @throws IllegalArgumentException 不是 http/https URL；SDK 会读取并上传 file:// 等本地路径，不能由调用方指定
+     */
+    public static PreparedImage ofUrl(String url) {
+        if (!isRemoteUrl(url)) {
+            throw new IllegalArgumentException("只支持 http/https 图片URL");
+        }
+        return new PreparedImage(url, null, -1, -1, 0);
+    }
+
+    /**
+     * 是否为带主机名的 http/https URL
+     */
+    public static boolean isRemoteUrl(String url) {
+        if (url == null) {
+            return false;
+        }
+        try {
+            URI uri = new URI(url.trim());
+            String scheme = uri.getScheme();
+            return ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) && uri.getHost() != null;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 直接使用原始上传文件
+     */
+    public static PreparedImage original(SpooledImage image, long processingMillis) {
+        return new PreparedImage(image.toFileUrl(), null, image.getSize(), image.getSize(), processingMillis);
+    }
+
+    /**
+     * 使用预处理生成的新文件，关闭时删除
+     */
+    public static PreparedImage derived(Path file, long originalBytes, long processingMillis) throws IOException {
+        return new PreparedImage("file://" + file.toAbsolutePath(), file, originalBytes, Files.size(file), processingMillis);
+    }
+
+    /**
+     * 引用同一图片的视图，关闭时不删除文件，由原对象负责清理；用于多个模型调用共享一次预处理结果
+     */
+    public PreparedImage share() {
+        return new PreparedImage(url, null, originalBytes, preparedBytes, processingMillis);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isDerived() {
+        return derivedFile != null;
+    }
+
+    public long getOriginalBytes() {
+        return originalBytes;
+    }
+
+    public long getPreparedBytes() {
+        return preparedBytes;
+    }
+
+    public long getProcessingMillis() {
+        return processingMillis;
+    }
+
+    @Override
+    public void close() {
+        if (derivedFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(derivedFile);
+        } catch (IOException e) {
+            System.err.println("删除预处理图片失败: " + derivedFile + " - " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package com.example.demo2.service;
+
+import com.alibaba.dashscope.common.Status;
+import com.alibaba.dashscope.exception.ApiException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 模型调用的容错层，包装 ai.model.client 选择的实际客户端
+ * 首token和整体超时、可重试错误的指数退避重试（带随机抖动）、熔断，以及可选的对冲请求：
+ * 首次尝试超过历史首token延迟的p95仍无输出时并行发起第二次，先输出的一方胜出
+ * 已经向调用方输出内容后不再重试或对冲
+ */
+@Service
+@Primary
+public class ResilientModelClient implements ModelClient {
+
+    // ABANDONED：调用方已放弃（失败、被中断或已有结果），不再需要这次尝试的输出
+    private enum CancelReason { FIRST_TOKEN_TIMEOUT, CALL_TIMEOUT, SUPERSEDED, ABANDONED }
+
+    // 用于计算对冲延迟的首token延迟样本数
+    private static final int LATENCY_SAMPLES = 256;
+
+    @Autowired
+    @Qualifier("modelBackend")
+    private ModelClient delegate;
+
+    @Autowired
+    private AiMetrics aiMetrics;
+
+    @Value("${ai.resilience.first-token-timeout-millis:30000}")
+    private long firstTokenTimeoutMillis;
+
+    @Value("${ai.resilience.call-timeout-millis:180000}")
+    private long callTimeoutMillis;
+
+    @Value("${ai.resilience.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${ai.resilience.backoff-initial-millis:200}")
+    private long backoffInitialMillis;
+
+    @Value("${ai.resilience.backoff-max-millis:5000}")
+    private long backoffMaxMillis;
+
+    @Value("${ai.resilience.breaker.window-size:20}")
+    private int breakerWindowSize;
+
+    @Value("${ai.resilience.breaker.minimum-calls:10}")
+    private int breakerMinimumCalls;
+
+    @Value("${ai.resilience.breaker.failure-rate-threshold:0.5}")
+    private double breakerFailureRateThreshold;
+
+    @Value("${ai.resilience.breaker.open-seconds:30}")
+    private long breakerOpenSeconds;
+
+    @Value("${ai.resilience.hedge.enabled:false}")
+    private boolean hedgeEnabled;
+
+    @Value("${ai.resilience.hedge.percentile:0.95}")
+    private double hedgePercentile;
+
+    @Value("${ai.resilience.hedge.min-delay-millis:500}")
+    private long hedgeMinDelayMillis;
+
+    @Value("${ai.resilience.hedge.min-samples:20}")
+    private int hedgeMinSamples;
+
+    @Value("${ai.resilience.hedge.max-threads:32}")
+    private int hedgeMaxThreads;
+
+    private CircuitBreaker circuitBreaker;
+    private ScheduledExecutorService watchdog;
+    private ThreadPoolExecutor hedgeExecutor;
+
+    // 对冲线程池的名额，每个执行中或排队的尝试占用一个；没有名额时不对冲
+    private Semaphore hedgePermits;
+
+    private final long[] firstTokenMillis = new long[LATENCY_SAMPLES];
+    private int latencyPosition;
+    private int latencyCount;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong hedgesFired = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong circuitRejected = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        circuitBreaker = new CircuitBreaker(breakerWindowSize, breakerMinimumCalls, breakerFailureRateThreshold,
+                TimeUnit.SECONDS.toMillis(breakerOpenSeconds));
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "model-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger hedgeThreads = new AtomicInteger();
+        // 先取得名额再提交，队列中不会积压超过线程数的任务
+        hedgeExecutor = new ThreadPoolExecutor(hedgeMaxThreads, hedgeMaxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "model-hedge-" + hedgeThreads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        hedgeExecutor.allowCoreThreadTimeOut(true);
+        hedgePermits = new Semaphore(hedgeMaxThreads);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        hedgeExecutor.shutdownNow();
+    }
+
+    @Override
+    public String streamAnalyze(String imageUrl, String question, Consumer<String> onDelta) throws Exception {
+        AtomicBoolean emitted = new AtomicBoolean();
+        Consumer<String> sink = delta -> {
+            emitted.set(true);
+            onDelta.accept(delta);
+        };
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.tryAcquirePermission()) {
+                circuitRejected.incrementAndGet();
+                aiMetrics.recordModelCircuitRejected();
+                throw new CircuitOpenException("模型服务暂时不可用，请稍后重试");
+            }
+            try {
+                long hedgeDelay = hedgeDelayMillis();
+                String model;
+                // 对冲时主请求也在对冲线程池执行，需要两个名额；不足时不对冲，在当前线程调用
+                if (hedgeDelay > 0 && hedgePermits.tryAcquire()) {
+                    model = runHedged(imageUrl, question, sink, hedgeDelay);
+                } else {
+                    model = runAttempt(new Attempt(), imageUrl, question, sink);
+                }
+                circuitBreaker.onSuccess();
+                return model;
+            } catch (Exception e) {
+                boolean retryable = isRetryable(e);
+                if (retryable) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onIgnored();
+                }
+                if (!retryable || emitted.get() || attempt >= maxAttempts) {
+                    throw e;
+                }
+                long backoff = backoffMillis(attempt);
+                retries.incrementAndGet();
+                aiMetrics.recordModelRetry();
+                System.err.println("模型调用失败，" + backoff + "ms 后第 " + (attempt + 1) + " 次尝试: " + e.getMessage());
+                Thread.sleep(backoff);
+            }
+        }
+    }
+
+    @Override
+    public String getModel() {
+        return delegate.getModel();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>(delegate.getStats());
+        Map<String, Object> resilience = new HashMap<>();
+        resilience.put("circuitBreaker", circuitBreaker.getStats());
+        resilience.put("retries", retries.get());
+        resilience.put("timeouts", timeouts.get());
+        resilience.put("hedgeEnabled", hedgeEnabled);
+        resilience.put("hedgeDelayMillis", hedgeDelayMillis());
+        resilience.put("hedgesFired", hedgesFired.get());
+        resilience.put("hedgesWon", hedgesWon.get());
+        resilience.put("hedgeThreadsBusy", hedgeMaxThreads - hedgePermits.availablePermits());
+        resilience.put("circuitRejected", circuitRejected.get());
+        stats.put("resilience", resilience);
+        return stats;
+    }
+
+    /**
+     * 熔断器状态：0 关闭，1 半开，2 打开
+     */
+    public int getCircuitState() {
+        return circuitBreaker.getState().ordinal();
+    }
+
+    /**
+     * 在当前线程执行一次调用，超时由 watchdog 中断本线程
+     * @return 实际回答的模型
+     */
+    private String runAttempt(Attempt attempt, String imageUrl, String question, Consumer<String> sink) throws Exception {
+        if (!attempt.start()) {
+            throw new CancellationException("调用方已放弃本次调用");
+        }
+        long start = System.nanoTime();
+        ScheduledFuture<?> firstTokenTimer = watchdog.schedule(() -> attempt.cancel(CancelReason.FIRST_TOKEN_TIMEOUT),
+                firstTokenTimeoutMillis, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> callTimer = watchdog.schedule(() -> attempt.cancel(CancelReason.CALL_TIMEOUT),
+                callTimeoutMillis, TimeUnit.MILLISECONDS);
+        Exception failure = null;
+        String model = null;
+        try {
+            model = delegate.streamAnalyze(imageUrl, question, delta -> {
+                if (attempt.firstToken()) {
+                    firstTokenTimer.cancel(false);
+                    recordFirstToken(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+                sink.accept(delta);
+            });
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            firstTokenTimer.cancel(false);
+            callTimer.cancel(false);
+        }
+
+        CancelReason reason = attempt.finish();
+        if (failure == null) {
+            return model;
+        }
+        if (reason == CancelReason.SUPERSEDED) {
+            throw new CancellationException("已由对冲请求完成");
+        }
+        if (reason == CancelReason.ABANDONED) {
+            throw new CancellationException("调用方已放弃本次调用");
+        }
+        if (reason != null) {
+            timeouts.incrementAndGet();
+            String phase = reason == CancelReason.FIRST_TOKEN_TIMEOUT ? "first-token" : "call";
+            aiMetrics.recordModelTimeout(phase);
+            long limit = reason == CancelReason.FIRST_TOKEN_TIMEOUT ? firstTokenTimeoutMillis : callTimeoutMillis;
+            TimeoutException timeout = new TimeoutException("模型调用超时（" + phase + " " + limit + "ms）");
+            timeout.initCause(failure);
+            throw timeout;
+        }
+        throw failure;
+    }
+
+    /**
+     * 首次尝试在对冲延迟内没有输出时，在另一个线程并行发起第二次，先输出的一方胜出，另一方被取消
+     * 调用方已持有一个对冲线程池名额，供主请求使用；对冲请求另取名额，取不到时只等主请求
+     * 除成功返回外（失败、被中断），两次尝试都被取消，之后它们的输出不再写入 sink
+     */
+    private String runHedged(String imageUrl, String question, Consumer<String> sink, long hedgeDelay) throws Exception {
+        Attempt primary = new Attempt();
+        Attempt hedge = new Attempt();
+        AtomicReference<Attempt> winner = new AtomicReference<>();
+        AtomicBoolean closed = new AtomicBoolean();
+        CompletableFuture<String> done = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger started = new AtomicInteger(1);
+
+        boolean succeeded = false;
+        try {
+            submit(primary, hedge, winner, closed, imageUrl, question, sink)
+                    .whenComplete((model, error) -> settle(done, primary, winner, model, failures, started, error));
+            try {
+                String model = done.get(hedgeDelay, TimeUnit.MILLISECONDS);
+                succeeded = true;
+                return model;
+            } catch (TimeoutException e) {
+                // 超过对冲延迟仍未完成
+            }
+
+            // 主请求可能在等待超时之后刚刚结束（包括失败），此时不再对冲
+            if (!done.isDone() && winner.get() == null && hedgePermits.tryAcquire()) {
+                started.incrementAndGet();
+                hedgesFired.incrementAndGet();
+                aiMetrics.recordModelHedge("fired");
+                submit(hedge, primary, winner, closed, imageUrl, question, sink)
+                        .whenComplete((model, error) -> settle(done, hedge, winner, model, failures, started, error));
+            }
+            String model = done.get();
+            succeeded = true;
+            if (winner.get() == hedge) {
+                hedgesWon.incrementAndGet();
+                aiMetrics.recordModelHedge("won");
+            }
+            return model;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            // 成功时胜出方已结束，取消的是未输出就完成时仍在执行的另一方
+            closed.set(true);
+            primary.cancel(CancelReason.ABANDONED);
+            hedge.cancel(CancelReason.ABANDONED);
+        }
+    }
+
+    /**
+     * 在对冲线程池执行一次尝试，调用方已取得名额，结束时归还
+     */
+    private CompletableFuture<String> submit(Attempt self, Attempt other, AtomicReference<Attempt> winner,
+                                           AtomicBoolean closed, String imageUrl, String question,
+                                           Consumer<String> sink) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            hedgeExecutor.execute(() -> {
+                try {
+                    String model = runAttempt(self, imageUrl, question, delta -> {
+                        if (closed.get()) {
+                            throw new CancellationException("调用方已放弃本次调用");
+                        }
+                        if (winner.compareAndSet(null, self)) {
+                            other.cancel(CancelReason.SUPERSEDED);
+                        } else if (winner.get() != self) {
+                            throw new CancellationException("已由对冲请求完成");
+                        }
+                        sink.accept(delta);
+                    });
+                    future.complete(model);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    hedgePermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 只在关闭时发生
+            hedgePermits.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 胜出方完成或失败即结束；尚无胜出方时，所有已发起的尝试都失败才算失败
+     */
+    private static void settle(CompletableFuture<String> done, Attempt attempt, AtomicReference<Attempt> winner,
+                               String model, AtomicInteger failures, AtomicInteger started, Throwable error) {
+        if (error == null) {
+            done.complete(model);
+        } else if (winner.get() == attempt) {
+            done.completeExceptionally(error);
+        } else if (winner.get() == null && failures.incrementAndGet() >= started.get()) {
+            done.completeExceptionally(error);
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        return e;
+    }
+
+    /**
+     * 超时、网络错误、限流和服务端5xx可以重试
+     */
+    static boolean isRetryable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            // 模型通道繁忙（ModelRouter 等待超时）不重试也不对冲，由调用方返回429
+            if (cause instanceof CancellationException || cause instanceof InterruptedException
+                    || cause instanceof CircuitOpenException || cause instanceof RejectedExecutionException) {
+                return false;
+            }
+            if (cause instanceof TimeoutException || cause instanceof IOException) {
+                return true;
+            }
+            if (cause instanceof ApiException && ((ApiException) cause).getStatus() != null) {
+                Status status = ((ApiException) cause).getStatus();
+                if (status.getStatusCode() == 429 || status.getStatusCode() >= 500) {
+                    return true;
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 指数退避，在 [0, min(最大值, 初始值*2^(n-1))] 内随机取值
+     */
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(backoffMaxMillis, backoffInitialMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private synchronized void recordFirstToken(long millis) {
+        firstTokenMillis[latencyPosition] = millis;
+        latencyPosition = (latencyPosition + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(LATENCY_SAMPLES, latencyCount + 1);
+    }
+
+    /**
+     * 对冲延迟为近期首token延迟的指定分位数，未启用或样本不足时返回0
+     */
+    private synchronized long hedgeDelayMillis() {
+        if (!hedgeEnabled || latencyCount < hedgeMinSamples || circuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(firstTokenMillis, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(latencyCount - 1, Math.ceil(hedgePercentile * latencyCount) - 1);
+        return Math.max(hedgeMinDelayMillis, sorted[Math.max(0, index)]);
+    }
+
+    /**
+     * 一次调用尝试，超时或被对冲取代时中断执行线程
+     */
+    private static class Attempt {
+        private Thread thread;
+        private boolean running;
+        private boolean receivedToken;
+        private CancelReason cancelReason;
+
+        /**
+         * @return 开始前已被取消时返回false，不应再执行
+         */
+        synchronized boolean start() {
+            if (cancelReason != null) {
+                return false;
+            }
+            thread = Thread.currentThread();
+            running = true;
+            return true;
+        }
+
+        /**
+         * 标记已收到输出，返回是否为第一段
+         */
+        synchronized boolean firstToken() {
+            if (receivedToken) {
+                return false;
+            }
+            receivedToken = true;
+            return true;
+        }
+
+        synchronized void cancel(CancelReason reason) {
+            if (reason == CancelReason.FIRST_TOKEN_TIMEOUT && receivedToken) {
+                return;
+            }
+            if (cancelReason != null) {
+                return;
+            }
+            if (running) {
+                cancelReason = reason;
+                thread.interrupt();
+            } else if (thread == null) {
+                // 尚未开始（在线程池中排队），开始时直接放弃
+                cancelReason = reason;
+            }
+        }
+
+        /**
+         * 结束本次尝试，清除由取消引起的中断标记
+         */
+        synchronized CancelReason finish() {
+            running = false;
+            if (cancelReason != null) {
+                Thread.interrupted();
+            }
+            return cancelReason;
+        }
+    }
+
+    /**
+     * 熔断器打开，未调用模型直接失败
+     */
+    public static class CircuitOpenException extends RuntimeException {
+        public CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+}
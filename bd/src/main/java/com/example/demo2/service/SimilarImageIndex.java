@@ -0,0 +1,387 @@
+package com.example.demo2.service;
+
+import com.example.demo2.config.DatabaseReadyEvent;
+import com.example.demo2.entity.ImageRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 相似图片索引
+ *
+ * 每张上传图片计算64位dHash（缩小到9x8灰度后比较相邻像素），重新保存、缩放、截图等
+ * 不改变内容的图片哈希只相差几位。索引按汉明距离组织为BK树，同一问题下找到距离不超过
+ * ai.similar.max-distance 的已分析图片时，直接复用其结果而不调用模型。
+ * 纯色、接近纯色的图片和大片白底的文字截图各块亮度几乎相同，哈希接近全0，彼此都会匹配，这类图片不计算哈希。
+ * 启动时从 image_records 重建；超过容量时丢弃较早的一半并重建。
+ */
+@Service
+public class SimilarImageIndex {
+
+    // dHash 采样网格为 (HASH_SIZE + 1) x HASH_SIZE
+    private static final int HASH_SIZE = 8;
+
+    // 解码时先缩小到的边长，再按网格取块平均
+    private static final int DECODE_EDGE = 64;
+
+    // 为1的位少于此数（或为0的位少于此数）时哈希几乎不含信息
+    static final int MIN_SET_BITS = 12;
+
+    @Value("${ai.similar.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.similar.max-distance:4}")
+    private int maxDistance;
+
+    @Value("${ai.similar.max-entries:50000}")
+    private int maxEntries;
+
+    // 各块亮度（0~255）的标准差低于此值时视为细节太少
+    @Value("${ai.similar.min-contrast:8}")
+    private double minContrast;
+
+    @Autowired
+    private ImageRecordService imageRecordService;
+
+    @Autowired
+    private AnalysisCache analysisCache;
+
+    // 以下字段由 this 保护
+    private Node root;
+
+    // 按加入顺序保存，用于淘汰较早的条目
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    private long sequence;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong matches = new AtomicLong();
+    private final AtomicLong staleMatches = new AtomicLong();
+    private final AtomicLong hashFailures = new AtomicLong();
+    private final AtomicLong lowDetail = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    /**
+     * 启动时从历史记录重建索引，数据库不可用时从空索引开始
+     */
+    @EventListener(DatabaseReadyEvent.class)
+    public void rebuildFromHistory() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<ImageRecord> records = imageRecordService.getHashedRecords(maxEntries);
+            // 查询结果为倒序，按原顺序加入
+            for (int i = records.size() - 1; i >= 0; i--) {
+                ImageRecord record = records.get(i);
+                add(record.getImagePath(), record.getPhash(), record.getQuestionKey(), record.getCacheKey());
+            }
+            System.out.println("相似图片索引已重建，共 " + size() + " 条");
+        } catch (Exception e) {
+            System.err.println("重建相似图片索引失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 计算上传图片的dHash，未启用、无法解码或图片细节太少时返回null
+     */
+    public Long hash(SpooledImage image) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            double[] grid = luminanceGrid(ImagePreprocessor.readScaled(image.getPath(), DECODE_EDGE));
+            long hash = dHash(grid);
+            if (isLowDetail(grid, hash, minContrast)) {
+                lowDetail.incrementAndGet();
+                return null;
+            }
+            return hash;
+        } catch (Exception e) {
+            hashFailures.incrementAndGet();
+            System.err.println("计算图片哈希失败: " + image.getDigest() + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 查找同一问题下最相似的已分析图片，并取回其结果
+     * 与当前图片摘要相同的条目不算，完全相同的图片由结果缓存处理
+     * @return 没有足够相似的图片或原结果已不存在时返回null
+     */
+    public Match findReusable(long hash, String questionKey, String imageDigest) {
+        if (!enabled) {
+            return null;
+        }
+        lookups.incrementAndGet();
+        Entry nearest;
+        int distance;
+        synchronized (this) {
+            nearest = null;
+            distance = Integer.MAX_VALUE;
+            Deque<Node> pending = new ArrayDeque<>();
+            if (root != null) {
+                pending.push(root);
+            }
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                int d = Long.bitCount(node.hash ^ hash);
+                if (d <= maxDistance) {
+                    for (Entry entry : node.entries) {
+                        if (!entry.questionKey.equals(questionKey) || entry.imageDigest.equals(imageDigest)) {
+                            continue;
+                        }
+                        // 距离相同时取较新的结果
+                        if (d < distance || (d == distance && entry.sequence > nearest.sequence)) {
+                            nearest = entry;
+                            distance = d;
+                        }
+                    }
+                }
+                // 三角不等式：只有与当前节点距离在 [d - max, d + max] 内的子树可能命中
+                for (Map.Entry<Integer, Node> child : node.children.entrySet()) {
+                    if (Math.abs(child.getKey() - d) <= maxDistance) {
+                        pending.push(child.getValue());
+                    }
+                }
+            }
+        }
+        if (nearest == null) {
+            return null;
+        }
+
+        String result = analysisCache.get(nearest.cacheKey);
+        if (result == null) {
+            try {
+                result = imageRecordService.findResultByCacheKey(nearest.cacheKey);
+            } catch (Exception e) {
+                System.err.println("查询相似图片的结果失败: " + e.getMessage());
+                return null;
+            }
+        }
+        if (result == null) {
+            // 历史记录已删除
+            staleMatches.incrementAndGet();
+            return null;
+        }
+        matches.incrementAndGet();
+        return new Match(nearest.imageDigest, distance, result);
+    }
+
+    /**
+     * 加入一张已分析的图片，相同图片和问题已存在时忽略
+     */
+    public synchronized void add(String imageDigest, long hash, String questionKey, String cacheKey) {
+        if (!enabled) {
+            return;
+        }
+        Entry entry = new Entry(imageDigest, hash, questionKey, cacheKey, ++sequence);
+        if (insert(entry)) {
+            entries.addLast(entry);
+        }
+        if (entries.size() > maxEntries) {
+            while (entries.size() > maxEntries / 2) {
+                entries.removeFirst();
+            }
+            root = null;
+            for (Entry retained : entries) {
+                insert(retained);
+            }
+            rebuilds.incrementAndGet();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 索引统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxDistance", maxDistance);
+        stats.put("size", size());
+        stats.put("lookups", lookups.get());
+        stats.put("matches", matches.get());
+        stats.put("staleMatches", staleMatches.get());
+        stats.put("hashFailures", hashFailures.get());
+        stats.put("lowDetail", lowDetail.get());
+        stats.put("rebuilds", rebuilds.get());
+        return stats;
+    }
+
+    /**
+     * 计算dHash：把图片按 9x8 网格取块平均亮度，每行相邻两块左边更亮时该位为1
+     */
+    static long dHash(BufferedImage image) {
+        return dHash(luminanceGrid(image));
+    }
+
+    static long dHash(double[] grid) {
+        long hash = 0;
+        for (int row = 0; row < HASH_SIZE; row++) {
+            for (int col = 1; col <= HASH_SIZE; col++) {
+                int i = row * (HASH_SIZE + 1) + col;
+                hash = (hash << 1) | (grid[i - 1] > grid[i] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 按行排列的 9x8 网格块平均亮度
+     */
+    static double[] luminanceGrid(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[] grid = new double[(HASH_SIZE + 1) * HASH_SIZE];
+        for (int row = 0; row < HASH_SIZE; row++) {
+            for (int col = 0; col <= HASH_SIZE; col++) {
+                grid[row * (HASH_SIZE + 1) + col] = blockLuminance(image,
+                        col * width / (HASH_SIZE + 1), (col + 1) * width / (HASH_SIZE + 1),
+                        row * height / HASH_SIZE, (row + 1) * height / HASH_SIZE);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * 块亮度的标准差低于 minContrast，或哈希几乎全0/全1时，不同内容的图片也会得到相近的哈希
+     */
+    static boolean isLowDetail(double[] grid, long hash, double minContrast) {
+        double mean = 0;
+        for (double luminance : grid) {
+            mean += luminance;
+        }
+        mean /= grid.length;
+        double variance = 0;
+        for (double luminance : grid) {
+            variance += (luminance - mean) * (luminance - mean);
+        }
+        if (Math.sqrt(variance / grid.length) < minContrast) {
+            return true;
+        }
+        int bits = Long.bitCount(hash);
+        return bits < MIN_SET_BITS || bits > Long.SIZE - MIN_SET_BITS;
+    }
+
+    private static double blockLuminance(BufferedImage image, int x0, int x1, int y0, int y1) {
+        // 图片小于网格时每块至少取一个像素
+        x0 = Math.min(x0, image.getWidth() - 1);
+        y0 = Math.min(y0, image.getHeight() - 1);
+        x1 = Math.max(x1, x0 + 1);
+        y1 = Math.max(y1, y0 + 1);
+        double sum = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int rgb = image.getRGB(x, y);
+                sum += 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+            }
+        }
+        return sum / ((x1 - x0) * (y1 - y0));
+    }
+
+    /**
+     * 插入BK树，哈希相同的条目放在同一节点
+     * @return 是否新增，相同图片和问题已存在时返回false
+     */
+    private boolean insert(Entry entry) {
+        if (root == null) {
+            root = new Node(entry.hash);
+            root.entries.add(entry);
+            return true;
+        }
+        Node node = root;
+        while (true) {
+            int d = Long.bitCount(node.hash ^ entry.hash);
+            if (d == 0) {
+                for (Entry existing : node.entries) {
+                    if (existing.imageDigest.equals(entry.imageDigest) && existing.questionKey.equals(entry.questionKey)) {
+                        return false;
+                    }
+                }
+                node.entries.add(entry);
+                return true;
+            }
+            Node child = node.children.get(d);
+            if (child == null) {
+                child = new Node(entry.hash);
+                child.entries.add(entry);
+                node.children.put(d, child);
+                return true;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * 复用结果的来源
+     */
+    public static class Match {
+        private final String imageDigest;
+        private final int distance;
+        private final String resultText;
+
+        Match(String imageDigest, int distance, String resultText) {
+            this.imageDigest = imageDigest;
+            this.distance = distance;
+            this.resultText = resultText;
+        }
+
+        /**
+         * 相似图片的摘要（旧记录为原 image_path）
+         */
+        public String getImageDigest() {
+            return imageDigest;
+        }
+
+        /**
+         * 两张图片dHash的汉明距离，0~64
+         */
+        public int getDistance() {
+            return distance;
+        }
+
+        public String getResultText() {
+            return resultText;
+        }
+    }
+
+    private static class Entry {
+        final String imageDigest;
+        final long hash;
+        final String questionKey;
+        final String cacheKey;
+        final long sequence;
+
+        Entry(String imageDigest, long hash, String questionKey, String cacheKey, long sequence) {
+            this.imageDigest = imageDigest;
+            this.hash = hash;
+            this.questionKey = questionKey;
+            this.cacheKey = cacheKey;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Node {
+        final long hash;
+        final List<Entry> entries = new ArrayList<>(1);
+        final Map<Integer, Node> children = new HashMap<>(4);
+
+        Node(long hash) {
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.demo2.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 已落盘的上传图片
+ * 模型通过 file:// 路径读取图片，关闭时删除临时文件
+ */
+public class SpooledImage implements AutoCloseable {
+
+    private final Path path;
+
+    private final String digest;
+
+    private final long size;
+
+    private final String contentType;
+
+    public SpooledImage(Path path, String digest, long size, String contentType) {
+        this.path = path;
+        this.digest = digest;
+        this.size = size;
+        this.contentType = contentType;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 图片内容的SHA-256摘要
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * 供DashScope SDK使用的本地文件URL
+     */
+    public String toFileUrl() {
+        return "file://" + path.toAbsolutePath();
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("删除临时图片失败: " + path + " - " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.demo2.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式分析增量的推送线程
+ * 模型调用线程只把增量放进各订阅者的缓冲区，由这里的线程写SSE，慢客户端只阻塞推送自己的线程。
+ * 同时执行的推送任务不超过打开的SSE连接数（受 Tomcat 连接数限制），线程空闲60秒后回收；
+ * 启用虚拟线程时每个推送任务使用一个虚拟线程
+ */
+@Service
+public class SseDeliveryExecutor {
+
+    @Value("${ai.sse.subscriber-buffer-chars:16384}")
+    private int subscriberBufferChars;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    private Executor executor;
+
+    @PostConstruct
+    public void init() {
+        if (virtualThreadsEnabled && Runtime.version().feature() >= 21) {
+            executor = new VirtualThreadTaskExecutor("sse-send-");
+            return;
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "sse-send-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 订阅调用的增量内容，由推送线程回调 listener；未推送的内容超过 ai.sse.subscriber-buffer-chars 时断开该订阅者
+     */
+    public void subscribe(AnalysisFlight flight, AnalysisFlight.Listener listener) {
+        flight.subscribe(listener, executor, subscriberBufferChars);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).shutdown();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.demo2.service;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 流式分析的SSE事件写入器，每个请求一个实例
+ *
+ * 每个事件带递增的 id 和 event 名，data 为 {"type":事件名,...} 形式的JSON（前端按 type 分发）。
+ * 字段值在一次遍历中完成JSON转义和UTF-8编码，直接写入本请求复用的字节缓冲区，
+ * 发送时只复制一次为 byte[]，不再产生中间字符串。
+ * 多个线程的发送用 ReentrantLock 串行化，虚拟线程等锁时不占住载体线程；但 Spring 6.2 的
+ * ResponseBodyEmitter.send/complete 本身是 synchronized 方法，套接字写入阻塞期间载体线程仍被占住。
+ */
+public class SseEventWriter {
+
+    public static final MediaType TEXT_EVENT_STREAM_UTF8 = new MediaType("text", "event-stream", StandardCharsets.UTF_8);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final ResponseBodyEmitter emitter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private byte[] buffer = new byte[512];
+    private int length;
+    private long nextId = 1;
+
+    public SseEventWriter(ResponseBodyEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    public ResponseBodyEmitter getEmitter() {
+        return emitter;
+    }
+
+    /**
+     * 进度事件
+     */
+    public void progress(String stage, String message, int progress) throws IOException {
+        lock.lock();
+        try {
+            begin("progress");
+            stringField("stage", stage);
+            stringField("message", message);
+            numberField("progress", progress);
+            flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 流式内容事件
+     */
+    public void stream(String content) throws IOException {
+        lock.lock();
+        try {
+            begin("stream");
+            stringField("content", content);
+            flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 完成事件
+     * @param fullResult 完整分析结果，为null时不携带（客户端已通过 stream 事件拼出全文）
+     */
+    public void result(String fullResult) throws IOException {
+        lock.lock();
+        try {
+            begin("result");
+            stringField("stage", "complete");
+            stringField("message", "分析完成");
+            numberField("progress", 100);
+            if (fullResult != null) {
+                stringField("result", fullResult);
+            }
+            flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 错误事件
+     */
+    public void error(String message) throws IOException {
+        lock.lock();
+        try {
+            begin("error");
+            stringField("message", message);
+            flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void complete() {
+        emitter.complete();
+    }
+
+    public void completeWithError(Throwable ex) {
+        emitter.completeWithError(ex);
+    }
+
+    private void begin(String event) {
+        length = 0;
+        ascii("id: ");
+        ascii(Long.toString(nextId++));
+        ascii("\nevent: ");
+        ascii(event);
+        ascii("\ndata: {\"type\":\"");
+        ascii(event);
+        put('"');
+    }
+
+    private void end() {
+        ascii("}\n\n");
+    }
+
+    private void flush() throws IOException {
+        end();
+        // emitter 可能在响应就绪前暂存对象，因此必须复制出独立的数组
+        byte[] frame = Arrays.copyOf(buffer, length);
+        length = 0;
+        emitter.send(frame, TEXT_EVENT_STREAM_UTF8);
+    }
+
+    private void numberField(String name, int value) {
+        put(',');
+        put('"');
+        ascii(name);
+        ascii("\":");
+        ascii(Integer.toString(value));
+    }
+
+    private void stringField(String name, String value) {
+        put(',');
+        put('"');
+        ascii(name);
+        ascii("\":");
+        if (value == null) {
+            ascii("null");
+            return;
+        }
+        put('"');
+        escape(value);
+        put('"');
+    }
+
+    /**
+     * JSON转义并编码为UTF-8
+     */
+    private void escape(String value) {
+        ensureCapacity(value.length() * 3);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c < 0x20) {
+                switch (c) {
+                    case '\n' -> ascii("\\n");
+                    case '\r' -> ascii("\\r");
+                    case '\t' -> ascii("\\t");
+                    case '\b' -> ascii("\\b");
+                    case '\f' -> ascii("\\f");
+                    default -> unicodeEscape(c);
+                }
+            } else if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                put(0xC0 | (c >> 6));
+                put(0x80 | (c & 0x3F));
+            } else if (c == '\u2028' || c == '\u2029') {
+                // 合法JSON，但部分JavaScript解析器会当作换行
+                unicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                put(0xF0 | (codePoint >> 18));
+                put(0x80 | ((codePoint >> 12) & 0x3F));
+                put(0x80 | ((codePoint >> 6) & 0x3F));
+                put(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符无法编码为UTF-8
+                put('?');
+            } else {
+                put(0xE0 | (c >> 12));
+                put(0x80 | ((c >> 6) & 0x3F));
+                put(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void unicodeEscape(char c) {
+        ascii("\\u");
+        put(HEX[(c >> 12) & 0xF]);
+        put(HEX[(c >> 8) & 0xF]);
+        put(HEX[(c >> 4) & 0xF]);
+        put(HEX[c & 0xF]);
+    }
+
+    private void ascii(String s) {
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void put(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
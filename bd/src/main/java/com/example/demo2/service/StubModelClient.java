@@ -0,0 +1,110 @@
+package com.example.demo2.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * 本地模拟模型，不访问网络，用于压测和离线联调
+ * 首token延迟服从对数正态分布（由中位数和p99确定），之后按固定速率分段输出，可按比例注入错误
+ */
+@Service
+@Qualifier("modelBackend")
+@ConditionalOnProperty(name = "ai.model.client", havingValue = "stub")
+public class StubModelClient implements ModelClient {
+
+    // 标准正态分布的99分位点
+    private static final double Z_99 = 2.326;
+
+    private static final String TEXT =
+            "图片中是一只橘色的猫，趴在木质窗台上。背景是晴朗的天空，光线从左侧照射进来。"
+            + "猫的眼睛半闭着，看起来很放松。窗台上放着一盆绿植，叶片上有少许水珠。整体色调温暖，构图简洁。";
+
+    @Value("${ai.stub.first-token-median-millis:800}")
+    private long firstTokenMedianMillis;
+
+    @Value("${ai.stub.first-token-p99-millis:3000}")
+    private long firstTokenP99Millis;
+
+    @Value("${ai.stub.tokens-per-second:40}")
+    private double tokensPerSecond;
+
+    @Value("${ai.stub.response-tokens:300}")
+    private int responseTokens;
+
+    @Value("${ai.stub.chunk-tokens:5}")
+    private int chunkTokens;
+
+    @Value("${ai.stub.error-rate:0}")
+    private double errorRate;
+
+    @Value("${ai.stub.mid-stream-error-rate:0}")
+    private double midStreamErrorRate;
+
+    @Override
+    public String streamAnalyze(String imageUrl, String question, Consumer<String> onDelta) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Thread.sleep(firstTokenDelayMillis(random));
+        if (random.nextDouble() < errorRate) {
+            throw new StubModelException("模拟模型调用失败");
+        }
+
+        // 中途失败时在随机位置中断
+        int failAt = random.nextDouble() < midStreamErrorRate ? random.nextInt(Math.max(1, responseTokens)) : -1;
+        int chunk = Math.max(1, chunkTokens);
+        long chunkMillis = tokensPerSecond > 0 ? Math.round(chunk * 1000 / tokensPerSecond) : 0;
+        int offset = random.nextInt(TEXT.length());
+        for (int emitted = 0; emitted < responseTokens; emitted += chunk) {
+            if (emitted > 0 && chunkMillis > 0) {
+                Thread.sleep(chunkMillis);
+            }
+            if (failAt >= 0 && emitted >= failAt) {
+                throw new StubModelException("模拟输出中断");
+            }
+            int size = Math.min(chunk, responseTokens - emitted);
+            onDelta.accept(slice(offset + emitted, size));
+        }
+        return getModel();
+    }
+
+    @Override
+    public String getModel() {
+        return "stub";
+    }
+
+    private long firstTokenDelayMillis(ThreadLocalRandom random) {
+        if (firstTokenMedianMillis <= 0) {
+            return 0;
+        }
+        double mu = Math.log(firstTokenMedianMillis);
+        double sigma = firstTokenP99Millis > firstTokenMedianMillis
+                ? (Math.log(firstTokenP99Millis) - mu) / Z_99
+                : 0;
+        return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+    }
+
+    /**
+     * 从示例文本中循环截取，每个字符视为一个token
+     */
+    private static String slice(int start, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(TEXT.charAt((start + i) % TEXT.length()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 注入的模拟错误，按网络错误处理（可重试）
+     */
+    public static class StubModelException extends IOException {
+        public StubModelException(String message) {
+            super(message);
+        }
+    }
+}
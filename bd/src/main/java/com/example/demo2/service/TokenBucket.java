@@ -0,0 +1,49 @@
+package com.example.demo2.service;
+
+/**
+ * 按分钟速率连续补充的令牌桶，容量为一分钟的额度
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+
+    private double available;
+    private long lastRefillNanos;
+
+    /**
+     * @param tokensPerMinute 每分钟额度，小于等于0表示不限制
+     */
+    public TokenBucket(long tokensPerMinute) {
+        this.capacity = tokensPerMinute;
+        this.tokensPerNano = tokensPerMinute / 60_000_000_000.0;
+        this.available = tokensPerMinute;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized boolean tryTake(long tokens) {
+        if (capacity <= 0) {
+            return true;
+        }
+        refill();
+        if (available < tokens) {
+            return false;
+        }
+        available -= tokens;
+        return true;
+    }
+
+    public synchronized long getAvailable() {
+        if (capacity <= 0) {
+            return -1;
+        }
+        refill();
+        return (long) available;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
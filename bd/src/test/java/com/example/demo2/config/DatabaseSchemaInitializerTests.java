@@ -0,0 +1,67 @@
+package com.example.demo2.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseSchemaInitializerTests {
+
+    @Test
+    void publishesReadyEventOnBackgroundThreadEvenWhenDatabaseIsUnavailable() throws Exception {
+        List<Object> events = new CopyOnWriteArrayList<>();
+        List<String> threads = new CopyOnWriteArrayList<>();
+        CountDownLatch published = new CountDownLatch(1);
+        DatabaseSchemaInitializer initializer = new DatabaseSchemaInitializer();
+        // 未设置数据源，第一条SQL即失败
+        ReflectionTestUtils.setField(initializer, "jdbcTemplate", new JdbcTemplate());
+        ReflectionTestUtils.setField(initializer, "asyncInit", true);
+        ApplicationEventPublisher publisher = event -> {
+            events.add(event);
+            threads.add(Thread.currentThread().getName());
+            published.countDown();
+        };
+        ReflectionTestUtils.setField(initializer, "eventPublisher", publisher);
+
+        initializer.start();
+
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("database-init"), threads);
+        DatabaseReadyEvent event = (DatabaseReadyEvent) events.get(0);
+        assertFalse(event.isSchemaInitialized());
+    }
+
+    @Test
+    void failedStepDoesNotSkipLaterSteps() {
+        List<String> executed = new CopyOnWriteArrayList<>();
+        DatabaseSchemaInitializer initializer = new DatabaseSchemaInitializer();
+        ReflectionTestUtils.setField(initializer, "jdbcTemplate", new JdbcTemplate() {
+            @Override
+            public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+                return requiredType.cast(0);
+            }
+
+            @Override
+            public void execute(String sql) {
+                if (sql.startsWith("CREATE FULLTEXT INDEX")) {
+                    // 未安装 ngram 分词插件
+                    throw new BadSqlGrammarException("ft", sql, new SQLException("Plugin 'ngram' is not loaded"));
+                }
+                executed.add(sql);
+            }
+        });
+
+        assertFalse(initializer.initialize());
+        assertEquals(7, executed.size());
+        assertTrue(executed.get(6).startsWith("CREATE TABLE IF NOT EXISTS analysis_jobs"));
+    }
+}
@@ -0,0 +1,398 @@
+package com.example.demo2.controller;
+
+import com.example.demo2.entity.ImageRecord;
+import com.example.demo2.service.AiMetrics;
+import com.example.demo2.service.AiService;
+import com.example.demo2.service.AiTaskExecutor;
+import com.example.demo2.service.AnalysisCache;
+import com.example.demo2.service.AnalysisResult;
+import com.example.demo2.service.BatchAnalysisService;
+import com.example.demo2.service.ImageBlobStore;
+import com.example.demo2.service.ImagePreprocessor;
+import com.example.demo2.service.ImageRecordService;
+import com.example.demo2.service.ImageRecordWriter;
+import com.example.demo2.service.ImageSpooler;
+import com.example.demo2.service.InFlightAnalyses;
+import com.example.demo2.service.ModelClient;
+import com.example.demo2.service.SimilarImageIndex;
+import com.example.demo2.service.SpooledImage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.mock.web.MockMultipartHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class AiControllerTests {
+
+    private final AtomicInteger modelCalls = new AtomicInteger();
+
+    private MockMvc mockMvc() {
+        BatchAnalysisService batchAnalysisService = new BatchAnalysisService() {
+            @Override
+            public void analyze(List<BatchItem> items, String question, int parallelism,
+                                Consumer<Map<String, Object>> onResult, Consumer<Map<String, Object>> onComplete) {
+                modelCalls.incrementAndGet();
+            }
+        };
+        ReflectionTestUtils.setField(batchAnalysisService, "maxItems", 10);
+        AiService aiService = new AiService() {
+            @Override
+            public AnalysisResult analyzeImage(String imageUrl, String question) {
+                modelCalls.incrementAndGet();
+                return new AnalysisResult("result", "fake");
+            }
+        };
+        AiController controller = new AiController();
+        ReflectionTestUtils.setField(controller, "batchAnalysisService", batchAnalysisService);
+        ReflectionTestUtils.setField(controller, "aiService", aiService);
+        ReflectionTestUtils.setField(controller, "objectMapper", new ObjectMapper());
+        return MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void batchRejectsLocalFileUrls() throws Exception {
+        mockMvc().perform(post("/api/ai/batch-analyze")
+                        .param("imageUrls", "https://example.com/a.jpg")
+                        .param("imageUrls", "file:///etc/passwd"))
+                .andExpect(status().isBadRequest());
+        assertEquals(0, modelCalls.get());
+    }
+
+    @Test
+    void oversizedUploadReturns413() throws Exception {
+        mockMvc().perform(multipart("/api/ai/batch-analyze")
+                        .with(request -> {
+                            // 延迟解析时，超出 max-request-size 的异常在绑定 images 参数时抛出
+                            MockMultipartHttpServletRequest tooLarge = new MockMultipartHttpServletRequest(request.getServletContext()) {
+                                @Override
+                                public List<MultipartFile> getFiles(String name) {
+                                    throw new MaxUploadSizeExceededException(10L * 1024 * 1024);
+                                }
+                            };
+                            tooLarge.setRequestURI(request.getRequestURI());
+                            return tooLarge;
+                        }))
+                .andExpect(status().isPayloadTooLarge())
+                .andExpect(content().string(containsString("imageUrls")));
+        assertEquals(0, modelCalls.get());
+    }
+
+    @Test
+    void analyzeRejectsLocalFileUrls() throws Exception {
+        MockMvc mockMvc = mockMvc();
+        mockMvc.perform(post("/api/ai/analyze")
+                        .param("imageUrl", "file:///etc/passwd")
+                        .param("question", "q"))
+                .andExpect(status().isBadRequest());
+        assertEquals(0, modelCalls.get());
+
+        mockMvc.perform(post("/api/ai/analyze")
+                        .param("imageUrl", "https://example.com/a.jpg")
+                        .param("question", "q"))
+                .andExpect(status().isOk());
+        assertEquals(1, modelCalls.get());
+    }
+
+    @Test
+    void thumbnailIsRevalidatedAfterParametersChange() throws Exception {
+        Path dir = Files.createTempDirectory("thumbnail-test");
+        ImageBlobStore store = new ImageBlobStore();
+        ReflectionTestUtils.setField(store, "blobDir", dir.toString());
+        ReflectionTestUtils.setField(store, "thumbnailEdge", 64);
+        ReflectionTestUtils.setField(store, "thumbnailQuality", 0.8f);
+        ReflectionTestUtils.setField(store, "aiMetrics", new AiMetrics(new SimpleMeterRegistry()));
+        store.init();
+        try {
+            Path upload = dir.resolve("upload.png");
+            ImageIO.write(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB), "png", upload.toFile());
+            String digest = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(upload)));
+            store.store(new SpooledImage(upload, digest, Files.size(upload), "image/png"));
+            AiController controller = new AiController();
+            ReflectionTestUtils.setField(controller, "imageBlobStore", store);
+            MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+            MvcResult first = mockMvc.perform(get("/api/ai/history/images/" + digest + "/thumbnail"))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+            String cacheControl = first.getResponse().getHeader(HttpHeaders.CACHE_CONTROL);
+            assertFalse(cacheControl.contains("immutable"));
+            assertTrue(cacheControl.contains("max-age=3600"));
+            mockMvc.perform(get("/api/ai/history/images/" + digest + "/thumbnail").header(HttpHeaders.IF_NONE_MATCH, etag))
+                    .andExpect(status().isNotModified());
+
+            ReflectionTestUtils.setField(store, "thumbnailQuality", 0.6f);
+            MvcResult changed = mockMvc.perform(get("/api/ai/history/images/" + digest + "/thumbnail").header(HttpHeaders.IF_NONE_MATCH, etag))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            assertNotEquals(etag, changed.getResponse().getHeader(HttpHeaders.ETAG));
+
+            mockMvc.perform(get("/api/ai/history/images/" + digest))
+                    .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")));
+        } finally {
+            store.shutdown();
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void reusedAnswerIsNotServedAsExactCacheHit() throws Exception {
+        List<ImageRecord> history = new CopyOnWriteArrayList<>();
+        MockMvc mockMvc = uploadMockMvc(history);
+        byte[] original = scene(-1);
+        byte[] similar = scene(0x00FF00);
+
+        MvcResult first = mockMvc.perform(multipart("/api/ai/upload-image").file(image(original)).param("question", "q"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Reused-From"))
+                .andReturn();
+        assertEquals("answer", first.getResponse().getContentAsString());
+        String originalDigest = history.get(0).getImagePath();
+
+        for (int i = 0; i < 2; i++) {
+            // 第二次上传同一张图片时，借来的结果不能经缓存回退当作本图片的结果
+            mockMvc.perform(multipart("/api/ai/upload-image").file(image(similar)).param("question", "q"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("X-Reused-From", originalDigest));
+        }
+
+        assertEquals(1, modelCalls.get());
+        assertEquals(3, history.size());
+        for (ImageRecord reused : history.subList(1, 3)) {
+            assertNull(reused.getCacheKey());
+            assertNull(reused.getPhash());
+            assertEquals(originalDigest, reused.getReusedFrom());
+        }
+    }
+
+    /**
+     * 上传分析接口使用真实的缓存、相似图片索引和线程池，历史记录写入 history，缓存回退从 history 查询
+     */
+    private MockMvc uploadMockMvc(List<ImageRecord> history) throws IOException {
+        AiMetrics aiMetrics = new AiMetrics(new SimpleMeterRegistry());
+        ImageRecordService imageRecordService = new ImageRecordService() {
+            @Override
+            public String findResultByCacheKey(String cacheKey) {
+                for (ImageRecord record : history) {
+                    if (cacheKey.equals(record.getCacheKey())) {
+                        return record.getResultText();
+                    }
+                }
+                return null;
+            }
+        };
+        ImageRecordWriter imageRecordWriter = new ImageRecordWriter() {
+            @Override
+            public boolean submit(ImageRecord record) {
+                history.add(record);
+                return true;
+            }
+        };
+        AnalysisCache analysisCache = new AnalysisCache();
+        ReflectionTestUtils.setField(analysisCache, "enabled", true);
+        ReflectionTestUtils.setField(analysisCache, "maxSize", 10);
+        ReflectionTestUtils.setField(analysisCache, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(analysisCache, "dbFallback", true);
+        ReflectionTestUtils.setField(analysisCache, "imageRecordService", imageRecordService);
+        SimilarImageIndex similarImageIndex = new SimilarImageIndex();
+        ReflectionTestUtils.setField(similarImageIndex, "enabled", true);
+        ReflectionTestUtils.setField(similarImageIndex, "maxDistance", 4);
+        ReflectionTestUtils.setField(similarImageIndex, "maxEntries", 10);
+        ReflectionTestUtils.setField(similarImageIndex, "minContrast", 8.0);
+        ReflectionTestUtils.setField(similarImageIndex, "analysisCache", analysisCache);
+        ReflectionTestUtils.setField(similarImageIndex, "imageRecordService", imageRecordService);
+        ImagePreprocessor imagePreprocessor = new ImagePreprocessor();
+        ReflectionTestUtils.setField(imagePreprocessor, "enabled", false);
+        AiTaskExecutor aiTaskExecutor = new AiTaskExecutor();
+        ReflectionTestUtils.setField(aiTaskExecutor, "maxConcurrency", 2);
+        ReflectionTestUtils.setField(aiTaskExecutor, "queueCapacity", 2);
+        ReflectionTestUtils.setField(aiTaskExecutor, "keepAliveSeconds", 60L);
+        aiTaskExecutor.init();
+        ImageSpooler imageSpooler = new ImageSpooler();
+        ReflectionTestUtils.setField(imageSpooler, "spoolDir", Files.createTempDirectory("spool-test").toString());
+        ModelClient modelClient = new ModelClient() {
+            @Override
+            public String streamAnalyze(String imageUrl, String question, Consumer<String> onDelta) {
+                modelCalls.incrementAndGet();
+                onDelta.accept("answer");
+                return "primary";
+            }
+
+            @Override
+            public String getModel() {
+                return "primary";
+            }
+        };
+
+        AiService aiService = new AiService();
+        ReflectionTestUtils.setField(aiService, "analysisCache", analysisCache);
+        ReflectionTestUtils.setField(aiService, "aiTaskExecutor", aiTaskExecutor);
+        ReflectionTestUtils.setField(aiService, "imagePreprocessor", imagePreprocessor);
+        ReflectionTestUtils.setField(aiService, "inFlightAnalyses", new InFlightAnalyses());
+        ReflectionTestUtils.setField(aiService, "aiMetrics", aiMetrics);
+        ReflectionTestUtils.setField(aiService, "modelClient", modelClient);
+        ReflectionTestUtils.setField(aiService, "similarImageIndex", similarImageIndex);
+        ReflectionTestUtils.setField(aiService, "imageBlobStore", new ImageBlobStore() {
+            @Override
+            public String store(SpooledImage image) {
+                return image.getDigest();
+            }
+        });
+        AiController controller = new AiController();
+        ReflectionTestUtils.setField(controller, "aiService", aiService);
+        ReflectionTestUtils.setField(controller, "aiMetrics", aiMetrics);
+        ReflectionTestUtils.setField(controller, "aiTaskExecutor", aiTaskExecutor);
+        ReflectionTestUtils.setField(controller, "imageSpooler", imageSpooler);
+        ReflectionTestUtils.setField(controller, "imageRecordWriter", imageRecordWriter);
+        ReflectionTestUtils.setField(controller, "similarImageIndex", similarImageIndex);
+        return MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void historyCursorWalksAllRecordsInOrder() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        MockMvc mockMvc = historyMockMvc(queries);
+
+        assertEquals(List.of(5, 4, 3, 2, 1), walkHistory(mockMvc, "desc"));
+        assertEquals(List.of(1, 2, 3, 4, 5), walkHistory(mockMvc, "asc"));
+        assertEquals(6, queries.get());
+    }
+
+    @Test
+    void historyRejectsMalformedCursor() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        MockMvc mockMvc = historyMockMvc(queries);
+
+        for (String cursor : List.of("abc", "123_x", "x_1", "123_")) {
+            JsonNode response = new ObjectMapper().readTree(mockMvc.perform(get("/api/ai/history").param("cursor", cursor))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString());
+            assertFalse(response.get("success").asBoolean(), cursor);
+            assertEquals("无效的分页游标", response.get("message").asText(), cursor);
+        }
+        assertEquals(0, queries.get());
+    }
+
+    /**
+     * 按 limit=2 翻页直到没有下一页，返回依次取到的记录ID
+     */
+    private List<Integer> walkHistory(MockMvc mockMvc, String order) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            MockHttpServletRequestBuilder request = get("/api/ai/history").param("limit", "2").param("order", order);
+            if (cursor != null) {
+                request.param("cursor", cursor);
+            }
+            JsonNode response = new ObjectMapper().readTree(mockMvc.perform(request)
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString());
+            assertTrue(response.get("success").asBoolean());
+            response.get("data").forEach(record -> ids.add(record.get("id").asInt()));
+            cursor = response.get("hasMore").asBoolean() ? response.get("nextCursor").asText() : null;
+        } while (cursor != null);
+        return ids;
+    }
+
+    /**
+     * 内存中的历史记录，按 (created_at, id) 与游标比较，与SQL的行比较一致；1、2 和 3、4 的创建时间相同
+     */
+    private MockMvc historyMockMvc(AtomicInteger queries) {
+        long base = 1_700_000_000_000L;
+        List<ImageRecord> stored = new ArrayList<>();
+        long[] offsets = {0, 0, 1000, 1000, 2000};
+        for (int i = 0; i < offsets.length; i++) {
+            ImageRecord record = new ImageRecord("digest-" + (i + 1), "结果");
+            record.setId(i + 1);
+            record.setCreatedAt(new Date(base + offsets[i]));
+            stored.add(record);
+        }
+        ImageRecordService imageRecordService = new ImageRecordService() {
+            @Override
+            public List<ImageRecord> getRecordSummaries(Date cursorCreatedAt, Integer cursorId, int limit, boolean newestFirst) {
+                queries.incrementAndGet();
+                Comparator<ImageRecord> order = Comparator.comparing(ImageRecord::getCreatedAt).thenComparing(ImageRecord::getId);
+                Comparator<ImageRecord> direction = newestFirst ? order.reversed() : order;
+                ImageRecord cursor = new ImageRecord();
+                cursor.setCreatedAt(cursorCreatedAt);
+                cursor.setId(cursorId);
+                return stored.stream()
+                        .filter(record -> cursorCreatedAt == null || direction.compare(record, cursor) > 0)
+                        .sorted(direction)
+                        .limit(limit)
+                        .toList();
+            }
+        };
+        AiController controller = new AiController();
+        ReflectionTestUtils.setField(controller, "imageRecordService", imageRecordService);
+        return MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    /**
+     * 彩色竖条加一个黑色椭圆的图片，marker 不为 -1 时改动一个像素，内容不同但dHash相同
+     */
+    private static byte[] scene(int marker) throws IOException {
+        BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            for (int x = 0; x < 320; x += 20) {
+                g.setColor(new Color((x * 7) % 256, (x * 3) % 256, 255 - x % 256));
+                g.fillRect(x, 0, 20, 240);
+            }
+            g.setColor(Color.BLACK);
+            g.fillOval(80, 60, 107, 120);
+        } finally {
+            g.dispose();
+        }
+        if (marker != -1) {
+            image.setRGB(300, 200, marker);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static MockMultipartFile image(byte[] content) {
+        return new MockMultipartFile("image", "scene.png", "image/png", content);
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.demo2.entity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageRecordTests {
+
+    @Test
+    void internalKeysAreNotSerialized() throws Exception {
+        ImageRecord record = new ImageRecord("a".repeat(64), "结果", "b".repeat(64));
+        record.setPhash(42L);
+        record.setQuestionKey("c".repeat(64));
+        record.setReusedFrom("d".repeat(64));
+
+        JsonNode json = new ObjectMapper().valueToTree(record);
+
+        assertFalse(json.has("cacheKey"));
+        assertFalse(json.has("phash"));
+        assertFalse(json.has("questionKey"));
+        assertEquals("结果", json.get("resultText").asText());
+        assertEquals("d".repeat(64), json.get("reusedFrom").asText());
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.demo2.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AiServiceTests {
+
+    private static final String IMAGE_URL = "https://example.com/a.jpg";
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final AnalysisCache cache = new AnalysisCache();
+
+    private AiService newService(String answeringModel) {
+        return newService(onDelta -> {
+            onDelta.accept("answer");
+            return answeringModel;
+        });
+    }
+
+    private AiService newService(ModelCall call) {
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxSize", 10);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(cache, "dbFallback", false);
+        ModelClient modelClient = new ModelClient() {
+            @Override
+            public String streamAnalyze(String imageUrl, String question, Consumer<String> onDelta) throws Exception {
+                calls.incrementAndGet();
+                return call.run(onDelta);
+            }
+
+            @Override
+            public String getModel() {
+                return "primary";
+            }
+        };
+        AiService service = new AiService();
+        ReflectionTestUtils.setField(service, "analysisCache", cache);
+        ReflectionTestUtils.setField(service, "inFlightAnalyses", new InFlightAnalyses());
+        ReflectionTestUtils.setField(service, "aiMetrics", new AiMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(service, "modelClient", modelClient);
+        ImagePreprocessor imagePreprocessor = new ImagePreprocessor();
+        ReflectionTestUtils.setField(imagePreprocessor, "enabled", false);
+        ReflectionTestUtils.setField(service, "imagePreprocessor", imagePreprocessor);
+        return service;
+    }
+
+    @Test
+    void primaryAnswerIsCachedUnderPrimaryKey() {
+        AiService service = newService("primary");
+
+        AnalysisResult first = service.analyzeImage(IMAGE_URL, "q");
+        AnalysisResult second = service.analyzeImage(IMAGE_URL, "q");
+
+        assertEquals("answer", first.getText());
+        assertEquals("primary", first.getModel());
+        assertEquals("primary", second.getModel());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void fallbackAnswerIsKeyedByFallbackModel() {
+        AiService service = newService("fallback");
+
+        AnalysisResult result = service.analyzeImage(IMAGE_URL, "q");
+
+        assertEquals("fallback", result.getModel());
+        String digest = AnalysisCache.sha256Hex(IMAGE_URL.getBytes(StandardCharsets.UTF_8));
+        assertNull(cache.get(service.cacheKey(digest, "q")));
+        assertEquals("answer", cache.get(service.cacheKey(digest, "q", "fallback")));
+
+        // 备用模型的结果不作为主模型的结果复用
+        service.analyzeImage(IMAGE_URL, "q");
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void routerBusyIsNotReportedAsModelFailure() {
+        AiService service = newService(onDelta -> {
+            throw new RejectedExecutionException("所有模型通道均已达到并发或速率上限");
+        });
+
+        assertThrows(RejectedExecutionException.class, () -> service.analyzeImage(IMAGE_URL, "q"));
+    }
+
+    @Test
+    void uploadIsHashedOnlyAfterExactCacheMiss() throws Exception {
+        AiService service = newService("primary");
+        AtomicInteger stored = new AtomicInteger();
+        AtomicInteger hashed = new AtomicInteger();
+        SimilarImageIndex index = newIndex(hashed);
+        ReflectionTestUtils.setField(service, "similarImageIndex", index);
+        ReflectionTestUtils.setField(service, "imageBlobStore", new ImageBlobStore() {
+            @Override
+            public String store(SpooledImage image) {
+                stored.incrementAndGet();
+                return image.getDigest();
+            }
+        });
+        Path file = Files.createTempFile("upload-", ".png");
+        try {
+            SpooledImage image = new SpooledImage(file, "digest-a", 0, "image/png");
+            AnalysisResult first = service.analyzeUpload(image, "q");
+            assertEquals(42L, first.getPhash());
+            index.add("digest-a", first.getPhash(), service.questionKey("q"), service.cacheKey("digest-a", "q"));
+
+            // 命中结果缓存时不解码图片
+            AnalysisResult cached = service.analyzeUpload(image, "q");
+            assertEquals("answer", cached.getText());
+            assertNull(cached.getPhash());
+            assertEquals(1, hashed.get());
+
+            AnalysisResult reused = service.analyzeUpload(new SpooledImage(file, "digest-b", 0, "image/png"), "q");
+            assertTrue(reused.isReused());
+            assertEquals("digest-a", reused.getReusedFrom());
+            assertEquals(2, hashed.get());
+            assertEquals(1, calls.get());
+            assertEquals(3, stored.get());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * 每张图片的哈希都是 42，计数解码次数
+     */
+    private SimilarImageIndex newIndex(AtomicInteger hashed) {
+        SimilarImageIndex index = new SimilarImageIndex() {
+            @Override
+            public Long hash(SpooledImage image) {
+                hashed.incrementAndGet();
+                return 42L;
+            }
+        };
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "maxDistance", 4);
+        ReflectionTestUtils.setField(index, "maxEntries", 10);
+        ReflectionTestUtils.setField(index, "analysisCache", cache);
+        return index;
+    }
+
+    private interface ModelCall {
+        String run(Consumer<String> onDelta) throws Exception;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.demo2.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisCacheTests {
+
+    private AnalysisCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new AnalysisCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxSize", 2);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(cache, "dbFallback", false);
+    }
+
+    @Test
+    void keyIgnoresQuestionWhitespaceAndCase() {
+        String a = cache.buildKey("digest", "  What is  this? ", AiService.MODEL);
+        String b = cache.buildKey("digest", "what is this?", AiService.MODEL);
+        assertEquals(a, b);
+        assertNotEquals(a, cache.buildKey("digest", "what is this?", "qwen-vl-plus"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxSize() {
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(3L, cache.getStats().get("hits"));
+        assertEquals(1L, cache.getStats().get("misses"));
+    }
+
+    @Test
+    void expiredEntriesAreMisses() {
+        ReflectionTestUtils.setField(cache, "ttlSeconds", -1L);
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+}
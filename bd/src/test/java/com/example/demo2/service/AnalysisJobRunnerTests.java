@@ -0,0 +1,269 @@
+package com.example.demo2.service;
+
+import com.example.demo2.entity.AnalysisJob;
+import com.example.demo2.entity.ImageRecord;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisJobRunnerTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AnalysisJobRunner runner = new AnalysisJobRunner();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumesFromOffsetWithinBufferedText() throws Exception {
+        AnalysisFlight flight = new AnalysisFlight();
+        flight.publish("abc");
+        flight.publish("def");
+        CapturingEmitter emitter = new CapturingEmitter();
+
+        flight.subscribe(runner.fromOffset(new SseEventWriter(emitter), 4), Runnable::run, Integer.MAX_VALUE);
+        flight.publish("gh");
+
+        assertEquals(List.of("ef", "gh"), contentsOf(emitter));
+    }
+
+    @Test
+    void resumesFromOffsetBeyondBufferedText() throws Exception {
+        AnalysisFlight flight = new AnalysisFlight();
+        flight.publish("abcdef");
+        CapturingEmitter emitter = new CapturingEmitter();
+
+        flight.subscribe(runner.fromOffset(new SseEventWriter(emitter), 7), Runnable::run, Integer.MAX_VALUE);
+        flight.publish("gh");
+        flight.publish("ij");
+
+        assertEquals(List.of("h", "ij"), contentsOf(emitter));
+    }
+
+    @Test
+    void jobFinishedDuringSubmitLeavesNoHandle() throws Exception {
+        FakeJobService jobs = new FakeJobService() {
+            @Override
+            public void insert(AnalysisJob job) {
+                super.insert(job);
+                // 空闲的工作线程在 submit 返回前认领并完成任务
+                ReflectionTestUtils.invokeMethod(runner, "tryRun", job.getId());
+            }
+        };
+        wire(jobs, (image, question) -> new AnalysisResult("答案", "m"));
+
+        AnalysisJob job = runner.submit(upload(), "问题");
+
+        assertEquals(AnalysisJob.Status.SUCCEEDED, jobs.findById(job.getId()).getStatus());
+        assertEquals(0, runner.getActiveCount());
+    }
+
+    @Test
+    void failedInsertLeavesNoHandle() throws Exception {
+        FakeJobService jobs = new FakeJobService() {
+            @Override
+            public void insert(AnalysisJob job) {
+                throw new IllegalStateException("db down");
+            }
+        };
+        wire(jobs, (image, question) -> new AnalysisResult("答案", "m"));
+
+        assertThrows(IllegalStateException.class, () -> runner.submit(upload(), "问题"));
+        assertEquals(0, runner.getActiveCount());
+    }
+
+    @Test
+    void attachRacingWithFinishReplaysStoredResult() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        FakeJobService jobs = new FakeJobService() {
+            @Override
+            public AnalysisJob findById(String id) {
+                AnalysisJob job = super.findById(id);
+                if (reads.incrementAndGet() == 1) {
+                    // 第一次读取时仍在排队，随后被其他线程认领并完成
+                    AnalysisJob queued = copy(job);
+                    job.setStatus(AnalysisJob.Status.SUCCEEDED);
+                    job.setResultText("已完成的答案");
+                    queued.setStatus(AnalysisJob.Status.QUEUED);
+                    return queued;
+                }
+                return job;
+            }
+        };
+        wire(jobs, (image, question) -> new AnalysisResult("答案", "m"));
+        jobs.insert(newJob("job-1"));
+        CapturingEmitter emitter = new CapturingEmitter();
+
+        assertTrue(runner.attach("job-1", 0, new SseEventWriter(emitter)));
+
+        assertEquals(0, runner.getActiveCount());
+        assertTrue(String.join("", emitter.frames).contains("已完成的答案"));
+    }
+
+    @Test
+    void unexpectedExceptionFailsJob() throws Exception {
+        FakeJobService jobs = new FakeJobService();
+        wire(jobs, (image, question) -> {
+            throw new IllegalStateException("模型返回格式错误");
+        });
+        AnalysisJob job = runner.submit(upload(), "问题");
+        CapturingEmitter emitter = new CapturingEmitter();
+        runner.attach(job.getId(), 0, new SseEventWriter(emitter));
+
+        ReflectionTestUtils.invokeMethod(runner, "tryRun", job.getId());
+
+        AnalysisJob stored = jobs.findById(job.getId());
+        assertEquals(AnalysisJob.Status.FAILED, stored.getStatus());
+        assertEquals("模型返回格式错误", stored.getErrorMessage());
+        assertEquals(0, runner.getActiveCount());
+        assertEquals(1, runner.getFailedCount());
+        assertTrue(String.join("", emitter.frames).contains("AI分析失败: 模型返回格式错误"));
+    }
+
+    private void wire(AnalysisJobService jobs, BiFunction<SpooledImage, String, AnalysisResult> analyzer) throws Exception {
+        Path original = Files.write(dir.resolve("original.jpg"), new byte[]{1, 2, 3});
+        ReflectionTestUtils.setField(runner, "jobService", jobs);
+        ReflectionTestUtils.setField(runner, "imageBlobStore", new ImageBlobStore() {
+            @Override
+            public String store(SpooledImage image) {
+                return image.getDigest();
+            }
+
+            @Override
+            public Path getOriginal(String digest) {
+                return original;
+            }
+        });
+        ReflectionTestUtils.setField(runner, "aiService", new AiService() {
+            @Override
+            public AnalysisResult analyzeImage(SpooledImage image, String question, Consumer<AnalysisFlight> onFlight) {
+                return analyzer.apply(image, question);
+            }
+
+            @Override
+            public String cacheKey(String imageDigest, String question, String model) {
+                return imageDigest + ":" + question + ":" + model;
+            }
+        });
+        ReflectionTestUtils.setField(runner, "imageRecordWriter", new ImageRecordWriter() {
+            @Override
+            public boolean submit(ImageRecord record) {
+                return true;
+            }
+        });
+        ReflectionTestUtils.setField(runner, "maxQueued", 1000L);
+        ReflectionTestUtils.setField(runner, "maxAttempts", 3);
+        ReflectionTestUtils.setField(runner, "sseIncludeFullResult", true);
+        ReflectionTestUtils.setField(runner, "running", true);
+    }
+
+    private SpooledImage upload() throws Exception {
+        Path path = Files.write(dir.resolve("upload.jpg"), new byte[]{1, 2, 3});
+        return new SpooledImage(path, "a".repeat(64), 3, "image/jpeg");
+    }
+
+    private static AnalysisJob newJob(String id) {
+        AnalysisJob job = new AnalysisJob();
+        job.setId(id);
+        job.setStatus(AnalysisJob.Status.QUEUED);
+        job.setImageDigest("a".repeat(64));
+        job.setQuestion("问题");
+        job.setCreatedAt(new Date());
+        return job;
+    }
+
+    private static AnalysisJob copy(AnalysisJob job) {
+        AnalysisJob copy = newJob(job.getId());
+        copy.setStatus(job.getStatus());
+        copy.setResultText(job.getResultText());
+        copy.setErrorMessage(job.getErrorMessage());
+        copy.setAttempts(job.getAttempts());
+        return copy;
+    }
+
+    /**
+     * 内存中的任务表，状态变更与 SQL 一样带原状态条件
+     */
+    private static class FakeJobService extends AnalysisJobService {
+        final Map<String, AnalysisJob> jobs = new ConcurrentHashMap<>();
+
+        @Override
+        public void insert(AnalysisJob job) {
+            jobs.put(job.getId(), copy(job));
+        }
+
+        @Override
+        public AnalysisJob findById(String id) {
+            return jobs.get(id);
+        }
+
+        @Override
+        public long countQueued() {
+            return jobs.values().stream().filter(job -> job.getStatus() == AnalysisJob.Status.QUEUED).count();
+        }
+
+        @Override
+        public boolean claim(String id) {
+            AnalysisJob job = jobs.get(id);
+            if (job == null || job.getStatus() != AnalysisJob.Status.QUEUED) {
+                return false;
+            }
+            job.setStatus(AnalysisJob.Status.RUNNING);
+            job.setAttempts(job.getAttempts() + 1);
+            return true;
+        }
+
+        @Override
+        public void markSucceeded(String id, String resultText) {
+            jobs.get(id).setStatus(AnalysisJob.Status.SUCCEEDED);
+            jobs.get(id).setResultText(resultText);
+        }
+
+        @Override
+        public void markFailed(String id, String errorMessage) {
+            jobs.get(id).setStatus(AnalysisJob.Status.FAILED);
+            jobs.get(id).setErrorMessage(errorMessage);
+        }
+
+        @Override
+        public void requeue(String id) {
+            jobs.get(id).setStatus(AnalysisJob.Status.QUEUED);
+        }
+    }
+
+    private List<String> contentsOf(CapturingEmitter emitter) throws Exception {
+        List<String> contents = new ArrayList<>();
+        for (String frame : emitter.frames) {
+            int start = frame.indexOf("data: ") + "data: ".length();
+            contents.add(objectMapper.readTree(frame.substring(start, frame.length() - 2)).get("content").asText());
+        }
+        return contents;
+    }
+
+    private static class CapturingEmitter extends ResponseBodyEmitter {
+        final List<String> frames = new ArrayList<>();
+
+        @Override
+        public synchronized void send(Object object, MediaType mediaType) {
+            frames.add(new String((byte[]) object, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.demo2.service;
+
+import com.example.demo2.entity.ImageRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchAnalysisServiceTests {
+
+    @Test
+    void finishesEveryItemWhenExecutorRejects() throws Exception {
+        AtomicInteger submissions = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        // 前5次提交和之后每隔一次提交都被拒绝
+        AiTaskExecutor executor = new AiTaskExecutor() {
+            @Override
+            public void execute(Runnable task) {
+                int n = submissions.incrementAndGet();
+                if (n <= 5 || n % 2 == 0) {
+                    throw new RejectedExecutionException("AI任务队列已满");
+                }
+                new Thread(task).start();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return false;
+            }
+        };
+        AiService aiService = new AiService() {
+            @Override
+            public AnalysisResult analyzeImage(String imageUrl, String question) {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                }
+                return new AnalysisResult("result of " + imageUrl, "fake");
+            }
+        };
+        ImageRecordWriter writer = new ImageRecordWriter() {
+            @Override
+            public boolean submit(ImageRecord record) {
+                return true;
+            }
+        };
+        BatchAnalysisService service = new BatchAnalysisService();
+        ReflectionTestUtils.setField(service, "aiService", aiService);
+        ReflectionTestUtils.setField(service, "aiTaskExecutor", executor);
+        ReflectionTestUtils.setField(service, "imageRecordWriter", writer);
+        ReflectionTestUtils.setField(service, "retryInitialMillis", 1L);
+        ReflectionTestUtils.setField(service, "retryMaxMillis", 4L);
+
+        List<BatchAnalysisService.BatchItem> items = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            items.add(BatchAnalysisService.BatchItem.ofUrl(i, "https://example.com/" + i + ".jpg"));
+        }
+        Set<Integer> succeeded = ConcurrentHashMap.newKeySet();
+        AtomicReference<Map<String, Object>> summary = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        service.analyze(items, "q", 3,
+                line -> {
+                    if (Boolean.TRUE.equals(line.get("success"))) {
+                        succeeded.add((Integer) line.get("index"));
+                    }
+                },
+                result -> {
+                    summary.set(result);
+                    done.countDown();
+                });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(20, summary.get().get("succeeded"));
+        assertEquals(0, summary.get().get("failed"));
+        Set<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, new TreeSet<>(succeeded));
+        assertTrue(maxRunning.get() <= 3);
+    }
+}
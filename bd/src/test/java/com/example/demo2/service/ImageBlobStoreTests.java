@@ -0,0 +1,129 @@
+package com.example.demo2.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageBlobStoreTests {
+
+    private Path dir;
+
+    private ImageBlobStore store;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("blob-test");
+        store = new ImageBlobStore();
+        ReflectionTestUtils.setField(store, "blobDir", dir.resolve("blobs").toString());
+        ReflectionTestUtils.setField(store, "thumbnailEdge", 64);
+        ReflectionTestUtils.setField(store, "thumbnailQuality", 0.8f);
+        ReflectionTestUtils.setField(store, "aiMetrics", new AiMetrics(registry));
+        store.init();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.shutdown();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    void storesSameContentOnceUnderShardedPath() throws Exception {
+        Path upload = writePng("a.png", 400, 200);
+        String digest = digestOf(upload);
+
+        assertEquals(digest, store.store(new SpooledImage(upload, digest, Files.size(upload), "image/png")));
+        assertEquals(digest, store.store(new SpooledImage(upload, digest, Files.size(upload), "image/png")));
+
+        Path original = store.getOriginal(digest);
+        assertEquals(store.originalPath(digest), original);
+        assertEquals(digest.substring(2, 4), original.getParent().getFileName().toString());
+        assertEquals(digest.substring(0, 2), original.getParent().getParent().getFileName().toString());
+        assertEquals("image/png", ImageBlobStore.detectContentType(original));
+        assertEquals(1L, store.getStats().get("stored"));
+        assertEquals(1L, store.getStats().get("deduplicated"));
+    }
+
+    @Test
+    void generatesThumbnailWithinEdge() throws Exception {
+        Path upload = writePng("b.png", 400, 200);
+        String digest = store.store(new SpooledImage(upload, digestOf(upload), Files.size(upload), "image/png"));
+
+        Path thumbnail = store.getThumbnail(digest);
+        assertNotNull(thumbnail);
+        assertEquals("image/jpeg", ImageBlobStore.detectContentType(thumbnail));
+        BufferedImage image = ImageIO.read(thumbnail.toFile());
+        assertEquals(64, Math.max(image.getWidth(), image.getHeight()));
+    }
+
+    @Test
+    void regeneratesThumbnailWhenParametersChange() throws Exception {
+        Path upload = writePng("c.png", 400, 200);
+        String digest = store.store(new SpooledImage(upload, digestOf(upload), Files.size(upload), "image/png"));
+        Path small = store.getThumbnail(digest);
+        String variant = store.getThumbnailVariant();
+
+        ReflectionTestUtils.setField(store, "thumbnailEdge", 32);
+        Path smaller = store.getThumbnail(digest);
+
+        assertNotEquals(variant, store.getThumbnailVariant());
+        assertNotEquals(small, smaller);
+        BufferedImage image = ImageIO.read(smaller.toFile());
+        assertEquals(32, Math.max(image.getWidth(), image.getHeight()));
+    }
+
+    @Test
+    void undecodableImageIsCountedAsFailedThumbnail() throws Exception {
+        Path upload = dir.resolve("broken.png");
+        Files.write(upload, new byte[]{(byte) 0x89, 'P', 'N', 'G', 1, 2, 3});
+        String digest = digestOf(upload);
+        store.shutdown();
+        store.store(new SpooledImage(upload, digest, Files.size(upload), "image/png"));
+
+        assertNull(store.getThumbnail(digest));
+        assertEquals(1.0, registry.counter("ai.blob.thumbnail", "outcome", "failed").count());
+        assertEquals(1L, store.getStats().get("thumbnailFailed"));
+        try (Stream<Path> files = Files.list(store.originalPath(digest).getParent())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void rejectsInvalidOrMissingDigest() {
+        assertNull(store.getOriginal("../../etc/passwd"));
+        assertNull(store.getOriginal("0".repeat(64)));
+        assertNull(store.getThumbnail("0".repeat(64)));
+    }
+
+    private Path writePng(String name, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            image.setRGB(x, x * height / width, 0xFF0000);
+        }
+        Path path = dir.resolve(name);
+        ImageIO.write(image, "png", path.toFile());
+        return path;
+    }
+
+    private static String digestOf(Path path) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(path)));
+    }
+}
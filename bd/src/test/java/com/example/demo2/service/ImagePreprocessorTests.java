@@ -0,0 +1,154 @@
+package com.example.demo2.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImagePreprocessorTests {
+
+    @TempDir
+    Path dir;
+
+    private ImagePreprocessor newPreprocessor() {
+        ImagePreprocessor preprocessor = new ImagePreprocessor();
+        ReflectionTestUtils.setField(preprocessor, "enabled", true);
+        ReflectionTestUtils.setField(preprocessor, "maxEdge", 1568);
+        ReflectionTestUtils.setField(preprocessor, "jpegQuality", 0.85f);
+        ReflectionTestUtils.setField(preprocessor, "minBytes", 524288L);
+        ReflectionTestUtils.setField(preprocessor, "aiMetrics", new AiMetrics(new SimpleMeterRegistry()));
+        return preprocessor;
+    }
+
+    @Test
+    void smallJpegIsSentWithoutExif() throws Exception {
+        Path file = writeJpegWithExif(markedImage(), 1);
+        SpooledImage image = new SpooledImage(file, "digest", Files.size(file), "image/jpeg");
+
+        try (PreparedImage prepared = newPreprocessor().preprocess(image)) {
+            assertTrue(prepared.isDerived());
+            byte[] sent = Files.readAllBytes(Paths.get(URI.create(prepared.getUrl())));
+            assertFalse(contains(sent, "Exif".getBytes(StandardCharsets.US_ASCII)));
+            assertFalse(contains(sent, "GPS-39.9042N".getBytes(StandardCharsets.US_ASCII)));
+            BufferedImage decoded = ImageIO.read(Paths.get(URI.create(prepared.getUrl())).toFile());
+            assertEquals(40, decoded.getWidth());
+            assertEquals(20, decoded.getHeight());
+        }
+    }
+
+    @Test
+    void smallJpegIsRotatedForEveryOrientation() throws Exception {
+        // 原图左上角为红色，按各方向正向显示后红色所在的角
+        int[][] expectedCorner = {{0, 0}, {0, 0}, {1, 0}, {1, 1}, {0, 1}, {0, 0}, {1, 0}, {1, 1}, {0, 1}};
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            Path file = writeJpegWithExif(markedImage(), orientation);
+            SpooledImage image = new SpooledImage(file, "digest", Files.size(file), "image/jpeg");
+
+            try (PreparedImage prepared = newPreprocessor().preprocess(image)) {
+                Path sent = Paths.get(URI.create(prepared.getUrl()));
+                assertFalse(contains(Files.readAllBytes(sent), "Exif".getBytes(StandardCharsets.US_ASCII)),
+                        "orientation " + orientation);
+                BufferedImage decoded = ImageIO.read(sent.toFile());
+                boolean swap = orientation >= 5;
+                assertEquals(swap ? 20 : 40, decoded.getWidth(), "orientation " + orientation);
+                assertEquals(swap ? 40 : 20, decoded.getHeight(), "orientation " + orientation);
+                int x = expectedCorner[orientation][0] * (decoded.getWidth() - 1);
+                int y = expectedCorner[orientation][1] * (decoded.getHeight() - 1);
+                assertTrue(isRed(decoded.getRGB(x, y)), "orientation " + orientation);
+            }
+        }
+    }
+
+    @Test
+    void scaleToRgbHandlesAllOrientations() {
+        BufferedImage source = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 2; y++) {
+                source.setRGB(x, y, Color.BLUE.getRGB());
+            }
+        }
+        source.setRGB(0, 0, Color.RED.getRGB());
+        int[][] expected = {{0, 0}, {0, 0}, {3, 0}, {3, 1}, {0, 1}, {0, 0}, {1, 0}, {1, 3}, {0, 3}};
+
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            BufferedImage rotated = ImagePreprocessor.scaleToRgb(source, orientation, 100);
+            assertEquals(orientation >= 5 ? 2 : 4, rotated.getWidth());
+            assertTrue(isRed(rotated.getRGB(expected[orientation][0], expected[orientation][1])), "orientation " + orientation);
+        }
+    }
+
+    private static BufferedImage markedImage() {
+        BufferedImage image = new BufferedImage(40, 20, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 40; x++) {
+            for (int y = 0; y < 20; y++) {
+                image.setRGB(x, y, x < 10 && y < 10 ? Color.RED.getRGB() : Color.BLUE.getRGB());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * 在SOI之后插入只含方向和一段模拟GPS文本的EXIF段
+     */
+    private Path writeJpegWithExif(BufferedImage image, int orientation) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", encoded);
+        byte[] jpeg = encoded.toByteArray();
+
+        byte[] gps = "GPS-39.9042N".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 2 * 12 + 4 + gps.length);
+        tiff.put(new byte[]{'M', 'M', 0, 42}).putInt(8);
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        tiff.putShort((short) 0x010E).putShort((short) 2).putInt(gps.length).putInt(8 + 2 + 2 * 12 + 4);
+        tiff.putInt(0);
+        tiff.put(gps);
+
+        byte[] header = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+        int length = 2 + header.length + tiff.capacity();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(0xFF);
+        out.write(0xE1);
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        out.write(header);
+        out.write(tiff.array());
+        out.write(jpeg, 2, jpeg.length - 2);
+        Path file = Files.createTempFile(dir, "upload-", ".jpg");
+        Files.write(file, out.toByteArray());
+        return file;
+    }
+
+    private static boolean isRed(int rgb) {
+        Color color = new Color(rgb);
+        return color.getRed() > 180 && color.getBlue() < 80;
+    }
+
+    private static boolean contains(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.demo2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageRecordServiceTests {
+
+    @Test
+    void buildsRequiredPhrasesAndStripsOperators() {
+        List<String> terms = ImageRecordService.searchTerms("  皮卡丘  -草地 \"黄色\"* 猫 ");
+
+        assertEquals(List.of("皮卡丘", "黄色"), terms);
+        assertEquals("+\"皮卡丘\" +\"黄色\"", ImageRecordService.toBooleanQuery(terms));
+    }
+
+    @Test
+    void dropsExcludedKeywords() {
+        assertEquals(List.of("草地"), ImageRecordService.searchTerms("-皮卡丘 草地 --黄色"));
+        assertTrue(ImageRecordService.searchTerms("-皮卡丘").isEmpty());
+    }
+
+    @Test
+    void ignoresKeywordsShorterThanNgramSize() {
+        assertTrue(ImageRecordService.searchTerms("猫 @ +").isEmpty());
+        assertTrue(ImageRecordService.searchTerms(null).isEmpty());
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.demo2.service;
+
+import com.example.demo2.entity.ImageRecord;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageRecordWriterTests {
+
+    // 每次批量写入的记录
+    private final BlockingQueue<List<ImageRecord>> batches = new LinkedBlockingQueue<>();
+
+    private ImageRecordWriter writer;
+
+    private ImageRecordWriter newWriter(int queueCapacity, int batchSize, long lingerMillis, ImageRecordService service) {
+        writer = new ImageRecordWriter();
+        ReflectionTestUtils.setField(writer, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(writer, "batchSize", batchSize);
+        ReflectionTestUtils.setField(writer, "lingerMillis", lingerMillis);
+        ReflectionTestUtils.setField(writer, "maxRetries", 0);
+        ReflectionTestUtils.setField(writer, "shutdownTimeoutSeconds", 5L);
+        ReflectionTestUtils.setField(writer, "imageRecordService", service);
+        ReflectionTestUtils.setField(writer, "aiMetrics", new AiMetrics(new SimpleMeterRegistry()));
+        writer.start();
+        return writer;
+    }
+
+    private ImageRecordService recordingService() {
+        return new ImageRecordService() {
+            @Override
+            public int saveImageRecords(List<ImageRecord> records) {
+                batches.add(new ArrayList<>(records));
+                return records.size();
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    void flushesFullBatchWithoutWaitingForLinger() throws Exception {
+        newWriter(100, 3, 2_000, recordingService());
+
+        writer.submitAll(List.of(record("a"), record("b"), record("c")));
+
+        // 凑满一批立即写入，不等待2秒的等待时间
+        List<ImageRecord> batch = batches.poll(1, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(List.of("a", "b", "c"), pathsOf(batch));
+    }
+
+    @Test
+    void flushesPartialBatchAfterLinger() throws Exception {
+        newWriter(100, 100, 50, recordingService());
+
+        writer.submit(record("a"));
+        writer.submit(record("b"));
+
+        List<ImageRecord> batch = batches.poll(2, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(List.of("a", "b"), pathsOf(batch));
+    }
+
+    @Test
+    void countsDroppedRecordsWhenQueueIsFull() throws Exception {
+        CountDownLatch saving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        newWriter(2, 1, 10, new ImageRecordService() {
+            @Override
+            public int saveImageRecords(List<ImageRecord> records) {
+                saving.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return records.size();
+            }
+        });
+
+        assertTrue(writer.submit(record("a")));
+        // 后台线程阻塞在写入第一条记录，队列容量为2
+        assertTrue(saving.await(2, TimeUnit.SECONDS));
+        assertTrue(writer.submit(record("b")));
+        assertTrue(writer.submit(record("c")));
+        assertFalse(writer.submit(record("d")));
+
+        assertEquals(1, writer.getDroppedCount());
+        assertEquals(2, writer.getQueueDepth());
+        release.countDown();
+    }
+
+    @Test
+    void drainsQueueOnShutdown() {
+        newWriter(100, 2, 200, recordingService());
+
+        writer.submitAll(List.of(record("a"), record("b"), record("c"), record("d"), record("e")));
+        writer.shutdown();
+
+        assertEquals(0, writer.getQueueDepth());
+        assertEquals(5, writer.getWrittenCount());
+        List<String> written = new ArrayList<>();
+        batches.forEach(batch -> written.addAll(pathsOf(batch)));
+        assertEquals(List.of("a", "b", "c", "d", "e"), written);
+        // 关闭后提交的记录直接丢弃
+        assertFalse(writer.submit(record("f")));
+        assertEquals(1, writer.getDroppedCount());
+    }
+
+    private static ImageRecord record(String path) {
+        return new ImageRecord(path, "结果", null);
+    }
+
+    private static List<String> pathsOf(List<ImageRecord> batch) {
+        List<String> paths = new ArrayList<>();
+        batch.forEach(record -> paths.add(record.getImagePath()));
+        return paths;
+    }
+}
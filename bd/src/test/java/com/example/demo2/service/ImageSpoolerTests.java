@@ -0,0 +1,63 @@
+package com.example.demo2.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageSpoolerTests {
+
+    @TempDir
+    Path tempDir;
+
+    private ImageSpooler newSpooler() {
+        ImageSpooler spooler = new ImageSpooler();
+        ReflectionTestUtils.setField(spooler, "spoolDir", tempDir.toString());
+        return spooler;
+    }
+
+    @Test
+    void spoolsContentAndDigest() throws Exception {
+        byte[] content = new byte[300 * 1024];
+        new Random(42).nextBytes(content);
+        MockMultipartFile file = new MockMultipartFile("image", "cat.PNG", "image/png", content);
+
+        SpooledImage image = newSpooler().spool(file);
+
+        assertEquals(AnalysisCache.sha256Hex(content), image.getDigest());
+        assertEquals(content.length, image.getSize());
+        assertArrayEquals(content, Files.readAllBytes(image.getPath()));
+        assertTrue(image.getPath().toString().endsWith(".png"));
+        assertTrue(image.toFileUrl().startsWith("file://"));
+
+        image.close();
+        assertFalse(Files.exists(image.getPath()));
+    }
+
+    @Test
+    void heapAllocationDoesNotScaleWithImageSize() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        byte[] content = new byte[8 * 1024 * 1024];
+        new Random(7).nextBytes(content);
+        MockMultipartFile file = new MockMultipartFile("image", "big.jpg", "image/jpeg", content);
+        ImageSpooler spooler = newSpooler();
+        // 预热，排除类加载带来的分配
+        spooler.spool(new MockMultipartFile("image", "warm.jpg", "image/jpeg", new byte[1024])).close();
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        SpooledImage image = spooler.spool(file);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        image.close();
+
+        // 之前的 getBytes + Base64 方案会分配约2.7倍文件大小
+        assertTrue(allocated < 1024 * 1024, "spool allocated " + allocated + " bytes");
+    }
+}
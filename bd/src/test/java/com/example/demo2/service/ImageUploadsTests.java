@@ -0,0 +1,85 @@
+package com.example.demo2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageUploadsTests {
+
+    private static final String FILE_URL = "file:///tmp/image.jpg";
+
+    private final ModelRoute route = route("key-1", "qwen-vl-plus");
+
+    private static ModelRoute route(String apiKey, String model) {
+        return new ModelRoute(model, apiKey, model, false, null, null);
+    }
+
+    @Test
+    void questionsOnSameImageShareOneUpload() throws Exception {
+        AtomicInteger uploads = new AtomicInteger();
+        CountDownLatch uploading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ImageUploads imageUploads = new ImageUploads((model, filePath, apiKey) -> {
+            uploads.incrementAndGet();
+            uploading.countDown();
+            release.await();
+            return "oss://uploaded/" + model + filePath;
+        }, 10, 60_000);
+        ExecutorService questions = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> urls = new ArrayList<>();
+            urls.add(questions.submit(() -> imageUploads.resolve(route, FILE_URL)));
+            assertTrue(uploading.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                urls.add(questions.submit(() -> imageUploads.resolve(route, FILE_URL)));
+            }
+            release.countDown();
+
+            for (Future<String> url : urls) {
+                assertEquals("oss://uploaded/qwen-vl-plus/tmp/image.jpg", url.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals("oss://uploaded/qwen-vl-plus/tmp/image.jpg", imageUploads.resolve(route, FILE_URL));
+            assertEquals(1, uploads.get());
+        } finally {
+            questions.shutdownNow();
+        }
+    }
+
+    @Test
+    void uploadsAreBoundToApiKeyAndModel() throws Exception {
+        AtomicInteger uploads = new AtomicInteger();
+        ImageUploads imageUploads = new ImageUploads((model, filePath, apiKey) ->
+                "oss://" + apiKey + "/" + model + "/" + uploads.incrementAndGet(), 10, 60_000);
+
+        assertEquals("oss://key-1/qwen-vl-plus/1", imageUploads.resolve(route, FILE_URL));
+        assertEquals("oss://key-2/qwen-vl-plus/2", imageUploads.resolve(route("key-2", "qwen-vl-plus"), FILE_URL));
+        assertEquals("oss://key-1/qwen-vl-max/3", imageUploads.resolve(route("key-1", "qwen-vl-max"), FILE_URL));
+        assertEquals("https://example.com/a.jpg", imageUploads.resolve(route, "https://example.com/a.jpg"));
+        assertEquals(3, uploads.get());
+    }
+
+    @Test
+    void failedUploadIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        ImageUploads imageUploads = new ImageUploads((model, filePath, apiKey) -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("上传失败");
+            }
+            return "oss://uploaded";
+        }, 10, 60_000);
+
+        assertThrows(IOException.class, () -> imageUploads.resolve(route, FILE_URL));
+        assertEquals("oss://uploaded", imageUploads.resolve(route, FILE_URL));
+        assertEquals(2, attempts.get());
+    }
+}
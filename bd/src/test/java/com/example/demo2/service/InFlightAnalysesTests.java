@@ -0,0 +1,134 @@
+package com.example.demo2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InFlightAnalysesTests {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    @Test
+    void concurrentJoinsShareOneFlight() throws Exception {
+        InFlightAnalyses registry = new InFlightAnalyses();
+        InFlightAnalyses.Join first = registry.join("key");
+        InFlightAnalyses.Join second = registry.join("key");
+
+        assertTrue(first.isOwner());
+        assertFalse(second.isOwner());
+        assertSame(first.getFlight(), second.getFlight());
+
+        registry.complete("key", first.getFlight());
+        assertEquals("", second.getFlight().getResult().get());
+        assertEquals(0, registry.size());
+        assertTrue(registry.join("key").isOwner());
+    }
+
+    @Test
+    void lateSubscriberReceivesReplayThenDeltas() {
+        AnalysisFlight flight = new AnalysisFlight();
+        List<String> early = new ArrayList<>();
+        List<String> late = new ArrayList<>();
+        flight.subscribe(early::add, DIRECT, Integer.MAX_VALUE);
+
+        flight.publish("你好");
+        flight.subscribe(late::add, DIRECT, Integer.MAX_VALUE);
+        flight.publish("，世界");
+        flight.complete();
+
+        assertEquals(List.of("你好", "，世界"), early);
+        assertEquals(List.of("你好", "，世界"), late);
+        assertEquals("你好，世界", flight.getResult().join());
+    }
+
+    @Test
+    void failingSubscriberIsDroppedWithoutAffectingOthers() {
+        AnalysisFlight flight = new AnalysisFlight();
+        List<String> received = new ArrayList<>();
+        flight.subscribe(delta -> {
+            throw new IOException("客户端断开");
+        }, DIRECT, Integer.MAX_VALUE);
+        flight.subscribe(received::add, DIRECT, Integer.MAX_VALUE);
+
+        flight.publish("a");
+        flight.publish("b");
+
+        assertEquals(List.of("a", "b"), received);
+    }
+
+    @Test
+    void slowSubscriberIsDroppedWithoutBlockingPublisher() throws Exception {
+        ExecutorService delivery = Executors.newCachedThreadPool();
+        try {
+            AnalysisFlight flight = new AnalysisFlight();
+            CountDownLatch slowEntered = new CountDownLatch(1);
+            CountDownLatch releaseSlow = new CountDownLatch(1);
+            List<String> slowReceived = Collections.synchronizedList(new ArrayList<>());
+            AtomicReference<Throwable> slowError = new AtomicReference<>();
+            CountDownLatch slowFinished = new CountDownLatch(1);
+            flight.subscribe(new AnalysisFlight.Listener() {
+                @Override
+                public void onDelta(String delta) throws IOException {
+                    slowReceived.add(delta);
+                    slowEntered.countDown();
+                    try {
+                        releaseSlow.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+
+                @Override
+                public void onFinished(String fullText, Throwable error) {
+                    slowError.set(error);
+                    slowFinished.countDown();
+                }
+            }, delivery, 4);
+            StringBuilder fastReceived = new StringBuilder();
+            AtomicReference<String> fastFullText = new AtomicReference<>();
+            CountDownLatch fastFinished = new CountDownLatch(1);
+            flight.subscribe(new AnalysisFlight.Listener() {
+                @Override
+                public void onDelta(String delta) {
+                    fastReceived.append(delta);
+                }
+
+                @Override
+                public void onFinished(String fullText, Throwable error) {
+                    fastFullText.set(fullText);
+                    fastFinished.countDown();
+                }
+            }, delivery, 100);
+
+            flight.publish("a");
+            assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+            // 慢订阅者阻塞在推送中，发布不受影响，缓冲超过4个字符后被移除
+            flight.publish("bb");
+            flight.publish("cc");
+            flight.publish("dd");
+            flight.complete();
+
+            assertTrue(fastFinished.await(5, TimeUnit.SECONDS));
+            assertEquals("abbccdd", fastReceived.toString());
+            assertEquals("abbccdd", fastFullText.get());
+
+            releaseSlow.countDown();
+            assertTrue(slowFinished.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of("a"), slowReceived);
+            assertNotNull(slowError.get());
+        } finally {
+            delivery.shutdownNow();
+        }
+    }
+}
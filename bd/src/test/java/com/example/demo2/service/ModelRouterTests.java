@@ -0,0 +1,84 @@
+package com.example.demo2.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelRouterTests {
+
+    private ModelRouter newRouter(List<String> keys, String fallbackModel, int concurrency) {
+        ModelRouter router = new ModelRouter();
+        ReflectionTestUtils.setField(router, "apiKeys", keys);
+        ReflectionTestUtils.setField(router, "primaryModel", "primary");
+        ReflectionTestUtils.setField(router, "fallbackModel", fallbackModel);
+        ReflectionTestUtils.setField(router, "initialConcurrency", concurrency);
+        ReflectionTestUtils.setField(router, "minConcurrency", 1);
+        ReflectionTestUtils.setField(router, "maxConcurrency", 8);
+        ReflectionTestUtils.setField(router, "backoffRatio", 0.5);
+        ReflectionTestUtils.setField(router, "latencyTolerance", 2.0);
+        ReflectionTestUtils.setField(router, "estimatedTokensPerCall", 100L);
+        ReflectionTestUtils.setField(router, "acquireTimeoutMillis", 50L);
+        router.init();
+        return router;
+    }
+
+    @Test
+    void spreadsAcrossKeysThenFallsBack() throws Exception {
+        ModelRouter router = newRouter(List.of("a", "b"), "cheap", 1);
+
+        ModelRouter.Lease first = router.acquire(Collections.emptySet());
+        ModelRouter.Lease second = router.acquire(Collections.emptySet());
+        ModelRouter.Lease third = router.acquire(Collections.emptySet());
+
+        assertEquals("primary", first.getRoute().getModel());
+        assertEquals("primary", second.getRoute().getModel());
+        assertNotEquals(first.getRoute().getApiKey(), second.getRoute().getApiKey());
+        assertEquals("cheap", third.getRoute().getModel());
+        assertTrue(third.getRoute().isFallback());
+    }
+
+    @Test
+    void rejectsWhenSaturatedWithoutFallback() throws Exception {
+        ModelRouter router = newRouter(List.of("a"), "", 1);
+        ModelRouter.Lease lease = router.acquire(Collections.emptySet());
+
+        assertThrows(RejectedExecutionException.class, () -> router.acquire(Collections.emptySet()));
+
+        lease.success();
+        assertNotNull(router.acquire(Collections.emptySet()));
+    }
+
+    @Test
+    void skipsExcludedRoutes() throws Exception {
+        ModelRouter router = newRouter(List.of("a", "b"), "", 4);
+        ModelRoute a = router.getRoutes().get(0);
+
+        ModelRouter.Lease lease = router.acquire(Set.of(a));
+
+        assertEquals("b", lease.getRoute().getApiKey());
+    }
+
+    @Test
+    void throttlingShrinksLimitAndSuccessGrowsIt() throws Exception {
+        ModelRouter router = newRouter(List.of("a"), "", 4);
+        AdaptiveLimiter limiter = router.getRoutes().get(0).getLimiter();
+
+        router.acquire(Collections.emptySet()).throttled();
+        assertEquals(2, limiter.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            ModelRouter.Lease one = router.acquire(Collections.emptySet());
+            ModelRouter.Lease two = router.acquire(Collections.emptySet());
+            two.success();
+            one.success();
+        }
+        assertTrue(limiter.getLimit() > 2);
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.demo2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreparedImageTests {
+
+    @Test
+    void sharedViewDoesNotDeleteDerivedFile() throws Exception {
+        Path file = Files.createTempFile("prepared-test", ".jpg");
+        Files.write(file, new byte[]{1, 2, 3});
+        PreparedImage prepared = PreparedImage.derived(file, 10, 5);
+
+        try (PreparedImage shared = prepared.share()) {
+            assertEquals(prepared.getUrl(), shared.getUrl());
+            assertEquals(3, shared.getPreparedBytes());
+        }
+        assertTrue(Files.exists(file));
+
+        prepared.close();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void acceptsOnlyRemoteUrls() {
+        assertTrue(PreparedImage.isRemoteUrl("https://example.com/a.jpg"));
+        assertTrue(PreparedImage.isRemoteUrl("HTTP://example.com/a.jpg"));
+        assertFalse(PreparedImage.isRemoteUrl("file:///etc/passwd"));
+        assertFalse(PreparedImage.isRemoteUrl("/etc/passwd"));
+        assertFalse(PreparedImage.isRemoteUrl("oss://bucket/a.jpg"));
+        assertFalse(PreparedImage.isRemoteUrl("http:///etc/passwd"));
+        assertFalse(PreparedImage.isRemoteUrl(null));
+        assertThrows(IllegalArgumentException.class, () -> PreparedImage.ofUrl("file:///etc/passwd"));
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.demo2.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResilientModelClientTests {
+
+    private ResilientModelClient client;
+
+    private ResilientModelClient newClient(ModelClient delegate, long firstTokenTimeoutMillis, int minimumCalls) {
+        ResilientModelClient client = new ResilientModelClient();
+        ReflectionTestUtils.setField(client, "delegate", delegate);
+        ReflectionTestUtils.setField(client, "aiMetrics", new AiMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(client, "firstTokenTimeoutMillis", firstTokenTimeoutMillis);
+        ReflectionTestUtils.setField(client, "callTimeoutMillis", 5000L);
+        ReflectionTestUtils.setField(client, "maxAttempts", 3);
+        ReflectionTestUtils.setField(client, "backoffInitialMillis", 1L);
+        ReflectionTestUtils.setField(client, "backoffMaxMillis", 5L);
+        ReflectionTestUtils.setField(client, "breakerWindowSize", 10);
+        ReflectionTestUtils.setField(client, "breakerMinimumCalls", minimumCalls);
+        ReflectionTestUtils.setField(client, "breakerFailureRateThreshold", 0.5);
+        ReflectionTestUtils.setField(client, "breakerOpenSeconds", 60L);
+        ReflectionTestUtils.setField(client, "hedgeMaxThreads", 4);
+        client.init();
+        this.client = client;
+        return client;
+    }
+
+    @AfterEach
+    void shutdown() {
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    void retriesRetryableErrorsBeforeFirstToken() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ResilientModelClient client = newClient(fake((onDelta) -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new IOException("connection reset");
+            }
+            onDelta.accept("ok");
+        }), 1000, 100);
+
+        List<String> deltas = new ArrayList<>();
+        client.streamAnalyze("file:///a.jpg", "q", deltas::add);
+
+        assertEquals(3, calls.get());
+        assertEquals(List.of("ok"), deltas);
+    }
+
+    @Test
+    void doesNotRetryAfterOutputOrOnOtherErrors() {
+        AtomicInteger calls = new AtomicInteger();
+        ResilientModelClient client = newClient(fake((onDelta) -> {
+            calls.incrementAndGet();
+            onDelta.accept("partial");
+            throw new IOException("stream closed");
+        }), 1000, 100);
+
+        assertThrows(IOException.class, () -> client.streamAnalyze("file:///a.jpg", "q", delta -> { }));
+        assertEquals(1, calls.get());
+
+        AtomicInteger badRequests = new AtomicInteger();
+        ResilientModelClient other = newClient(fake((onDelta) -> {
+            badRequests.incrementAndGet();
+            throw new IllegalArgumentException("bad image");
+        }), 1000, 100);
+        assertThrows(IllegalArgumentException.class, () -> other.streamAnalyze("file:///a.jpg", "q", delta -> { }));
+        assertEquals(1, badRequests.get());
+    }
+
+    @Test
+    void interruptsAttemptWithoutFirstToken() {
+        ResilientModelClient client = newClient(fake((onDelta) -> Thread.sleep(10_000)), 50, 100);
+
+        long start = System.nanoTime();
+        assertThrows(TimeoutException.class, () -> client.streamAnalyze("file:///a.jpg", "q", delta -> { }));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    void opensCircuitAfterRepeatedFailures() {
+        AtomicInteger calls = new AtomicInteger();
+        ResilientModelClient client = newClient(fake((onDelta) -> {
+            calls.incrementAndGet();
+            throw new IOException("unavailable");
+        }), 1000, 3);
+
+        assertThrows(IOException.class, () -> client.streamAnalyze("file:///a.jpg", "q", delta -> { }));
+        assertEquals(3, calls.get());
+        assertEquals(CircuitBreaker.State.OPEN.ordinal(), client.getCircuitState());
+
+        assertThrows(ResilientModelClient.CircuitOpenException.class,
+                () -> client.streamAnalyze("file:///a.jpg", "q", delta -> { }));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void routerBusyIsNeitherRetriedNorHedged() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ResilientModelClient client = hedging(newClient(fake((onDelta) -> {
+            calls.incrementAndGet();
+            throw new RejectedExecutionException("所有模型通道均已达到并发或速率上限");
+        }), 5000, 1), 50);
+
+        assertThrows(RejectedExecutionException.class, () -> client.streamAnalyze("file:///a.jpg", "q", delta -> { }));
+        Thread.sleep(100);
+        assertEquals(1, calls.get());
+        assertEquals(0L, resilienceStats(client).get("hedgesFired"));
+        assertEquals(CircuitBreaker.State.CLOSED.ordinal(), client.getCircuitState());
+    }
+
+    @Test
+    void hedgeWinsWhenPrimaryStalls() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch primaryCancelled = new CountDownLatch(1);
+        ResilientModelClient client = hedging(newClient(fake((onDelta) -> {
+            if (calls.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    primaryCancelled.countDown();
+                    throw e;
+                }
+            }
+            onDelta.accept("hedge");
+        }), 5000, 100), 50);
+
+        List<String> deltas = new ArrayList<>();
+        client.streamAnalyze("file:///a.jpg", "q", deltas::add);
+
+        assertEquals(List.of("hedge"), deltas);
+        assertTrue(primaryCancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(1L, resilienceStats(client).get("hedgesFired"));
+        assertEquals(1L, resilienceStats(client).get("hedgesWon"));
+    }
+
+    @Test
+    void primaryWinsAndCancelsHedge() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch hedgeCancelled = new CountDownLatch(1);
+        ResilientModelClient client = hedging(newClient(fake((onDelta) -> {
+            if (calls.incrementAndGet() == 1) {
+                Thread.sleep(200);
+                onDelta.accept("primary");
+                return;
+            }
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                hedgeCancelled.countDown();
+                throw e;
+            }
+            onDelta.accept("hedge");
+        }), 5000, 100), 50);
+
+        List<String> deltas = new ArrayList<>();
+        client.streamAnalyze("file:///a.jpg", "q", deltas::add);
+
+        assertEquals(List.of("primary"), deltas);
+        assertTrue(hedgeCancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(1L, resilienceStats(client).get("hedgesFired"));
+        assertEquals(0L, resilienceStats(client).get("hedgesWon"));
+    }
+
+    @Test
+    void interruptDuringHedgeWindowCancelsPrimaryAndDropsItsOutput() throws Exception {
+        CountDownLatch primaryCancelled = new CountDownLatch(1);
+        CountDownLatch lateDeltaRejected = new CountDownLatch(1);
+        ResilientModelClient client = hedging(newClient(fake((onDelta) -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                primaryCancelled.countDown();
+            }
+            // 忽略中断继续输出的实现，输出不应再到达调用方
+            try {
+                onDelta.accept("late");
+            } catch (CancellationException e) {
+                lateDeltaRejected.countDown();
+                throw e;
+            }
+        }), 5000, 100), 5000);
+
+        List<String> deltas = new CopyOnWriteArrayList<>();
+        Thread caller = Thread.currentThread();
+        ScheduledExecutorService interrupter = Executors.newSingleThreadScheduledExecutor();
+        try {
+            interrupter.schedule(caller::interrupt, 100, TimeUnit.MILLISECONDS);
+            assertThrows(InterruptedException.class, () -> client.streamAnalyze("file:///a.jpg", "q", deltas::add));
+        } finally {
+            interrupter.shutdownNow();
+            Thread.interrupted();
+        }
+
+        assertTrue(primaryCancelled.await(5, TimeUnit.SECONDS));
+        assertTrue(lateDeltaRejected.await(5, TimeUnit.SECONDS));
+        assertTrue(deltas.isEmpty());
+        assertEquals(0L, resilienceStats(client).get("hedgesFired"));
+    }
+
+    /**
+     * 启用对冲，对冲延迟固定为 delayMillis（已有一个很小的首token延迟样本）
+     */
+    private static ResilientModelClient hedging(ResilientModelClient client, long delayMillis) {
+        ReflectionTestUtils.setField(client, "hedgeEnabled", true);
+        ReflectionTestUtils.setField(client, "hedgePercentile", 0.95);
+        ReflectionTestUtils.setField(client, "hedgeMinDelayMillis", delayMillis);
+        ReflectionTestUtils.setField(client, "hedgeMinSamples", 1);
+        ReflectionTestUtils.invokeMethod(client, "recordFirstToken", 1L);
+        return client;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> resilienceStats(ResilientModelClient client) {
+        return (Map<String, Object>) client.getStats().get("resilience");
+    }
+
+    private interface Call {
+        void run(Consumer<String> onDelta) throws Exception;
+    }
+
+    private static ModelClient fake(Call call) {
+        return new ModelClient() {
+            @Override
+            public String streamAnalyze(String imageUrl, String question, Consumer<String> onDelta) throws Exception {
+                call.run(onDelta);
+                return getModel();
+            }
+
+            @Override
+            public String getModel() {
+                return "fake";
+            }
+        };
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.demo2.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimilarImageIndexTests {
+
+    @TempDir
+    Path dir;
+
+    private AnalysisCache analysisCache;
+
+    private SimilarImageIndex index;
+
+    @BeforeEach
+    void setUp() {
+        analysisCache = new AnalysisCache();
+        ReflectionTestUtils.setField(analysisCache, "enabled", true);
+        ReflectionTestUtils.setField(analysisCache, "maxSize", 100);
+        ReflectionTestUtils.setField(analysisCache, "ttlSeconds", 3600L);
+
+        index = new SimilarImageIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "maxDistance", 4);
+        ReflectionTestUtils.setField(index, "maxEntries", 4);
+        ReflectionTestUtils.setField(index, "minContrast", 8.0);
+        ReflectionTestUtils.setField(index, "analysisCache", analysisCache);
+    }
+
+    @Test
+    void hashSurvivesResizing() {
+        BufferedImage original = drawScene(640, 480);
+        BufferedImage resized = ImagePreprocessor.scaleToRgb(original, 1, 200);
+
+        long a = SimilarImageIndex.dHash(ImagePreprocessor.scaleToRgb(original, 1, 64));
+        long b = SimilarImageIndex.dHash(ImagePreprocessor.scaleToRgb(resized, 1, 64));
+        assertTrue(Long.bitCount(a ^ b) <= 4, "distance " + Long.bitCount(a ^ b));
+
+        long flipped = SimilarImageIndex.dHash(ImagePreprocessor.scaleToRgb(original, 3, 64));
+        assertTrue(Long.bitCount(a ^ flipped) > 16);
+    }
+
+    @Test
+    void lowDetailImagesAreNotHashed() throws Exception {
+        BufferedImage white = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        fill(white, Color.WHITE);
+        BufferedImage gray = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        fill(gray, new Color(0xF2F2F2));
+
+        assertNull(index.hash(spool(white)));
+        assertNull(index.hash(spool(gray)));
+        assertNull(index.hash(spool(drawText(1))));
+        assertNull(index.hash(spool(drawText(2))));
+        assertNotNull(index.hash(spool(drawScene(640, 480))));
+        assertEquals(4L, index.getStats().get("lowDetail"));
+    }
+
+    @Test
+    void reusesNearestResultForSameQuestionOnly() {
+        analysisCache.put("cache-a", "result a");
+        analysisCache.put("cache-b", "result b");
+        index.add("digest-a", 0b1111L, "q1", "cache-a");
+        index.add("digest-b", 0b0111L, "q1", "cache-b");
+
+        SimilarImageIndex.Match match = index.findReusable(0b0011L, "q1", "digest-new");
+        assertNotNull(match);
+        assertEquals("digest-b", match.getImageDigest());
+        assertEquals(1, match.getDistance());
+        assertEquals("result b", match.getResultText());
+
+        assertNull(index.findReusable(0b0011L, "q2", "digest-new"));
+        assertNull(index.findReusable(-1L, "q1", "digest-new"));
+        // 同一张图片交给结果缓存处理
+        assertEquals("digest-a", index.findReusable(0b0111L, "q1", "digest-b").getImageDigest());
+    }
+
+    @Test
+    void dropsOlderHalfWhenFull() {
+        for (int i = 0; i < 5; i++) {
+            analysisCache.put("cache-" + i, "result " + i);
+            index.add("digest-" + i, 0xFFL << (i * 8), "q", "cache-" + i);
+        }
+        // 同一图片和问题重复加入时忽略
+        index.add("digest-4", 0xFFL << 32, "q", "cache-4");
+
+        assertEquals(2, index.size());
+        assertNull(index.findReusable(0xFFL, "q", "digest-new"));
+        assertEquals("result 4", index.findReusable(0xFFL << 32, "q", "digest-new").getResultText());
+    }
+
+    private static BufferedImage drawScene(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            for (int x = 0; x < width; x += 40) {
+                g.setColor(new Color((x * 7) % 256, (x * 3) % 256, 255 - (x % 256)));
+                g.fillRect(x, 0, 40, height);
+            }
+            g.setColor(Color.BLACK);
+            g.fillOval(width / 4, height / 4, width / 3, height / 2);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * 白底黑字的文字截图，seed 不同内容不同
+     */
+    private static BufferedImage drawText(int seed) {
+        BufferedImage image = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+        fill(image, Color.WHITE);
+        Random random = new Random(seed);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.BLACK);
+            g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 14));
+            for (int y = 30; y < image.getHeight() - 20; y += 22) {
+                StringBuilder line = new StringBuilder();
+                for (int i = 20 + random.nextInt(60); i > 0; i--) {
+                    line.append((char) ('a' + random.nextInt(26)));
+                }
+                g.drawString(line.toString(), 20, y);
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    private static void fill(BufferedImage image, Color color) {
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(color);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private SpooledImage spool(BufferedImage image) throws IOException {
+        Path file = Files.createTempFile(dir, "upload-", ".png");
+        ImageIO.write(image, "png", file.toFile());
+        return new SpooledImage(file, file.getFileName().toString(), Files.size(file), "image/png");
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.demo2.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseEventWriterTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void escapesContentIntoValidJson() throws Exception {
+        CapturingEmitter emitter = new CapturingEmitter();
+        SseEventWriter events = new SseEventWriter(emitter);
+        String content = "路径 C:\\temp\\a.jpg 中有\"引号\"\n换行\t制表\u0001控制符 表情😀 分隔\u2028";
+
+        events.stream(content);
+
+        String frame = emitter.frames.get(0);
+        assertTrue(frame.startsWith("id: 1\nevent: stream\ndata: "));
+        assertTrue(frame.endsWith("}\n\n"));
+        JsonNode data = objectMapper.readTree(dataOf(frame));
+        assertEquals("stream", data.get("type").asText());
+        assertEquals(content, data.get("content").asText());
+    }
+
+    @Test
+    void numbersEventsAndOmitsNullResult() throws Exception {
+        CapturingEmitter emitter = new CapturingEmitter();
+        SseEventWriter events = new SseEventWriter(emitter);
+
+        events.progress("start", "开始分析图片...", 10);
+        events.result(null);
+        events.result("完整结果");
+
+        assertTrue(emitter.frames.get(1).startsWith("id: 2\nevent: result\n"));
+        JsonNode withoutResult = objectMapper.readTree(dataOf(emitter.frames.get(1)));
+        assertEquals(100, withoutResult.get("progress").asInt());
+        assertFalse(withoutResult.has("result"));
+        JsonNode withResult = objectMapper.readTree(dataOf(emitter.frames.get(2)));
+        assertEquals("完整结果", withResult.get("result").asText());
+    }
+
+    private static String dataOf(String frame) {
+        int start = frame.indexOf("data: ") + "data: ".length();
+        return frame.substring(start, frame.length() - 2);
+    }
+
+    private static class CapturingEmitter extends ResponseBodyEmitter {
+        final List<String> frames = new ArrayList<>();
+
+        @Override
+        public synchronized void send(Object object, MediaType mediaType) {
+            frames.add(new String((byte[]) object, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.demo2.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StubModelClientTests {
+
+    private StubModelClient client;
+
+    @BeforeEach
+    void setUp() {
+        client = new StubModelClient();
+        ReflectionTestUtils.setField(client, "firstTokenMedianMillis", 0L);
+        ReflectionTestUtils.setField(client, "tokensPerSecond", 0.0);
+        ReflectionTestUtils.setField(client, "responseTokens", 12);
+        ReflectionTestUtils.setField(client, "chunkTokens", 5);
+    }
+
+    @Test
+    void streamsResponseInChunks() throws Exception {
+        List<String> deltas = new ArrayList<>();
+        client.streamAnalyze("file:///tmp/a.jpg", "q", deltas::add);
+
+        assertEquals(3, deltas.size());
+        assertEquals(5, deltas.get(0).length());
+        assertEquals(5, deltas.get(1).length());
+        assertEquals(2, deltas.get(2).length());
+    }
+
+    @Test
+    void injectsErrors() {
+        ReflectionTestUtils.setField(client, "errorRate", 1.0);
+        List<String> deltas = new ArrayList<>();
+
+        assertThrows(StubModelClient.StubModelException.class,
+                () -> client.streamAnalyze("file:///tmp/a.jpg", "q", deltas::add));
+        assertTrue(deltas.isEmpty());
+    }
+
+    @Test
+    void midStreamErrorStopsOutput() {
+        ReflectionTestUtils.setField(client, "midStreamErrorRate", 1.0);
+        List<String> deltas = new ArrayList<>();
+
+        assertThrows(StubModelClient.StubModelException.class,
+                () -> client.streamAnalyze("file:///tmp/a.jpg", "q", deltas::add));
+        assertTrue(deltas.size() < 3);
+    }
+}
@@ -7,6 +7,8 @@ export const API_CONFIG = {
   AI: {
     // 图片上传并分析
     UPLOAD_AND_ANALYZE: '/api/ai/upload-image',
+    // 同一张图片回答多个问题
+    ANALYZE_QUESTIONS: '/api/ai/analyze-questions',
     // 默认图片分析
     ANALYZE_DEFAULT: '/api/ai/analyze',
     // 健康检查
@@ -41,6 +43,10 @@ export const API_CONFIG = {
   HISTORY: {
     // 获取历史记录列表
     LIST: '/api/ai/history',
+    // 按识别结果全文检索
+    SEARCH: '/api/ai/history/search',
+    // 历史图片（按摘要）
+    IMAGES: '/api/ai/history/images',
     // 删除历史记录
     DELETE: '/api/ai/history'
   }